@@ -15,6 +15,8 @@
 package com.rapleaf.jack;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -22,25 +24,53 @@ import java.sql.SQLRecoverableException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.rapleaf.jack.invalidation.IInvalidationListener;
+import com.rapleaf.jack.invalidation.InvalidationBus;
+import com.rapleaf.jack.invalidation.InvalidationEvent;
 import com.rapleaf.jack.queries.FieldSelector;
+import com.rapleaf.jack.queries.InMemoryQueryEvaluator;
+import com.rapleaf.jack.queries.LimitCriterion;
 import com.rapleaf.jack.queries.ModelQuery;
+import com.rapleaf.jack.queries.WhereConstraint;
 
 public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
     IModelPersistence<T> {
 
   protected static final int MAX_CONNECTION_RETRIES = 1;
+  // rows fetched at a time by a streaming read on PostgreSQL
+  private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+  private static final long DEFAULT_REVALIDATE_AFTER_MILLIS = 1000;
+  private static final String UPDATED_AT = "updated_at";
+  // the persistence the loads of this thread are made for on a connection of their own, and that connection
+  private static final ThreadLocal<OwnConnectionLoad> LOADING_IN_BACKGROUND = new ThreadLocal<OwnConnectionLoad>();
   private final String idQuoteString;
+  private final boolean postgres;
+  // INSERT ... ON CONFLICT appeared in PostgreSQL 9.5
+  private final boolean upsertSupported;
 
   protected static interface AttrSetter {
     public void set(PreparedStatement stmt) throws SQLException;
@@ -52,20 +82,66 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
   private final List<String> fieldNames;
   private final String updateStatement;
 
-  protected final Map<Long, T> cachedById = new HashMap<Long, T>();
-  protected final Map<String, Map<Long, Set<T>>> cachedByForeignKey = new HashMap<String, Map<Long, Set<T>>>();
-
-  private boolean useCache = true;
+  protected final IdentityMap<T> cachedById = new IdentityMap<T>();
+  protected final Map<String, Map<Long, Set<T>>> cachedByForeignKey = Collections.synchronizedMap(new HashMap<String, Map<Long, Set<T>>>());
+
+  private final SingleFlight<Long, T> findByIdLoads = new SingleFlight<Long, T>();
+  private final SingleFlight<List<Object>, Set<T>> findByForeignKeyLoads = new SingleFlight<List<Object>, Set<T>>();
+  // when each id, or (foreign key, id) pair, was last loaded, for refresh-ahead
+  private final Map<Object, Long> loadedAt = new ConcurrentHashMap<Object, Long>();
+  private volatile long refreshAheadMillis = 0;
+  private transient ExecutorService refreshAheadExecutor = null;
+  private transient volatile FindBatcher<T> findBatcher = null;
+  private transient BaseDatabaseConnection batchConnection = null;
+  private transient volatile IdAllocator idAllocator = null;
+  private transient volatile CounterBuffer counterBuffer = null;
+  private transient volatile HedgingPolicy hedgingPolicy = null;
+
+  private volatile boolean useCache = true;
+  private volatile AdaptiveCachePolicy adaptiveCachePolicy = null;
+  private final CacheUsageTracker cacheUsage;
+  private boolean canonicalizeModels = false;
+  private boolean evaluateQueriesInCache = false;
+  private boolean revalidateCache = false;
+  private volatile long revalidateAfterMillis = DEFAULT_REVALIDATE_AFTER_MILLIS;
+  // when each cached id was last known to match the database, for revalidation
+  private final Map<Long, Long> validatedAt = new ConcurrentHashMap<Long, Long>();
+
+  private transient volatile TableSnapshot<T> replica = null;
+  private transient volatile QueryResultCache queryCache = null;
+
+  private transient volatile InvalidationBus invalidationBus = null;
+  private final String invalidationSourceId = UUID.randomUUID().toString();
+  private final IInvalidationListener invalidationListener = new QueueingInvalidationListener();
+  private final Queue<InvalidationEvent> pendingInvalidations = new ConcurrentLinkedQueue<InvalidationEvent>();
+  private transient ScheduledExecutorService replicaRefresher = null;
+  // writes applied to the replica, to tell whether a refresh missed some
+  private transient long replicaChanges = 0;
+  private transient volatile BaseDatabaseConnection backgroundConn = null;
+  // kept in autocommit mode between the cursor reads that use it
+  private transient BaseDatabaseConnection idleCursorConn = null;
 
   protected AbstractDatabaseModel(BaseDatabaseConnection conn,
                                   String tableName, List<String> fieldNames) {
     this.conn = conn;
     this.tableName = tableName;
     this.fieldNames = fieldNames;
+    this.cacheUsage = new CacheUsageTracker(tableName);
     try {
-      idQuoteString = conn.getConnection().getMetaData().getIdentifierQuoteString();
+      DatabaseMetaData metaData = conn.getConnection().getMetaData();
+      idQuoteString = metaData.getIdentifierQuoteString();
+      postgres = "PostgreSQL".equalsIgnoreCase(metaData.getDatabaseProductName());
+      upsertSupported = !postgres || metaData.getDatabaseMajorVersion() > 9
+          || (metaData.getDatabaseMajorVersion() == 9 && metaData.getDatabaseMinorVersion() >= 5);
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      // a lane only lends the connection for the statements of this thread
+      if (conn instanceof LanedDatabaseConnection) {
+        ((LanedDatabaseConnection)conn).releaseIfIdle();
+      } else if (conn instanceof ConnectionLane) {
+        ((ConnectionLane)conn).releaseIfIdle();
+      }
     }
     updateStatement =
         String.format("UPDATE %s SET %s WHERE id=?;", tableName, getSetFieldsPrepStatementSection());
@@ -104,16 +180,34 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
       }
       sb.append(idQuoteString)
           .append(fieldNames.get(i))
-          .append(idQuoteString)
-          .append(" = VALUES(")
-          .append(idQuoteString)
-          .append(fieldNames.get(i))
-          .append(idQuoteString)
-          .append(")");
+          .append(idQuoteString);
+      if (postgres) {
+        sb.append(" = EXCLUDED.")
+            .append(idQuoteString)
+            .append(fieldNames.get(i))
+            .append(idQuoteString);
+      } else {
+        sb.append(" = VALUES(")
+            .append(idQuoteString)
+            .append(fieldNames.get(i))
+            .append(idQuoteString)
+            .append(")");
+      }
     }
     return sb.toString();
   }
 
+  protected String getUpsertStatement() {
+    String insert = String.format("INSERT INTO %s (%s , id) VALUES(%s, ?)", tableName,
+        escapedFieldNames(fieldNames), qmarks(fieldNames.size()));
+    if (postgres) {
+      return insert + (fieldNames.isEmpty() ? " ON CONFLICT (id) DO NOTHING;"
+          : " ON CONFLICT (id) DO UPDATE SET " + getUpdateOnInsertPrepStatementSection() + ";");
+    }
+    return insert + " ON DUPLICATE KEY UPDATE "
+        + (fieldNames.isEmpty() ? "id = id" : getUpdateOnInsertPrepStatementSection()) + ";";
+  }
+
   protected BaseDatabaseConnection getConn() {
     return conn;
   }
@@ -124,15 +218,32 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
   protected abstract T instanceFromResultSet(ResultSet rs, Set<Enum> selectedFields) throws SQLException;
 
-  protected long realCreate(AttrSetter attrSetter, String insertStatement)
+  protected long realCreate(final AttrSetter attrSetter, final String insertStatement)
       throws IOException {
+    if (conn instanceof ShardedDatabaseConnection) {
+      throw new IllegalStateException("Records of the sharded table " + tableName + " need ids from an id allocator");
+    }
+    GroupCommitExecutor groupCommit = conn.getGroupCommitExecutor();
+    if (groupCommit != null) {
+      try {
+        return groupCommit.execute(new GroupCommitExecutor.Write<Long>() {
+          @Override
+          public Long execute() throws SQLException {
+            return insertWithGeneratedKey(attrSetter, insertStatement);
+          }
+        });
+      } catch (SQLException e) {
+        throw new IOException(e);
+      }
+    }
+
     int retryCount = 0;
 
     PreparedStatement stmt = null;
     ResultSet generatedKeys = null;
     while (true) {
       try {
-        stmt = conn.getPreparedStatement(insertStatement, Statement.RETURN_GENERATED_KEYS);
+        stmt = prepareStatement(insertStatement, Statement.RETURN_GENERATED_KEYS);
         attrSetter.set(stmt);
         stmt.execute();
         generatedKeys = stmt.getGeneratedKeys();
@@ -162,9 +273,189 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
     }
   }
 
+  private long insertWithGeneratedKey(AttrSetter attrSetter, String insertStatement) throws SQLException {
+    PreparedStatement stmt = prepareStatement(insertStatement, Statement.RETURN_GENERATED_KEYS);
+    try {
+      attrSetter.set(stmt);
+      stmt.execute();
+      ResultSet generatedKeys = stmt.getGeneratedKeys();
+      try {
+        generatedKeys.next();
+        return generatedKeys.getLong(1);
+      } finally {
+        generatedKeys.close();
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Runs the write right away, or in the next group of the connection's
+   * group-commit executor if there is one.
+   */
+  private <R> R executeWrite(GroupCommitExecutor.Write<R> write) throws SQLException {
+    GroupCommitExecutor groupCommit = conn.getGroupCommitExecutor();
+    if (groupCommit != null) {
+      return groupCommit.execute(write);
+    }
+    return write.execute();
+  }
+
+  private static interface IdsOperation<R> {
+    public R run(Set<Long> ids) throws IOException;
+  }
+
+  /**
+   * Returns the sharded connection if the table is sharded and this thread
+   * is not working on one of its shards yet, or null if statements go to
+   * conn as they are.
+   */
+  private ShardedDatabaseConnection getShardRouting() {
+    BaseDatabaseConnection loadConn = getLoadConn();
+    if (loadConn instanceof ShardedDatabaseConnection && !((ShardedDatabaseConnection)loadConn).isOnShard()) {
+      return (ShardedDatabaseConnection)loadConn;
+    }
+    return null;
+  }
+
+  /**
+   * Runs the operation, in parallel, on each shard with the ids it holds.
+   */
+  private <R> Collection<R> onShardsOfIds(ShardedDatabaseConnection sharded, Collection<Long> ids,
+                                          final IdsOperation<R> operation) throws IOException {
+    Map<Integer, Set<Long>> idsByShard = new HashMap<Integer, Set<Long>>();
+    for (Long id : ids) {
+      int shard = sharded.getShard(tableName, id);
+      Set<Long> shardIds = idsByShard.get(shard);
+      if (shardIds == null) {
+        shardIds = new HashSet<Long>();
+        idsByShard.put(shard, shardIds);
+      }
+      shardIds.add(id);
+    }
+    Map<Integer, ShardedDatabaseConnection.ShardOperation<R>> operations = new HashMap<Integer, ShardedDatabaseConnection.ShardOperation<R>>();
+    for (final Map.Entry<Integer, Set<Long>> entry : idsByShard.entrySet()) {
+      operations.put(entry.getKey(), new ShardedDatabaseConnection.ShardOperation<R>() {
+        @Override
+        public R run() throws IOException {
+          return operation.run(entry.getValue());
+        }
+      });
+    }
+    return onShards(sharded, operations).values();
+  }
+
+  /**
+   * The shard operations run on other threads, where the statements of a
+   * background load must still go to the background connection.
+   */
+  private <R> List<R> onAllShards(ShardedDatabaseConnection sharded, ShardedDatabaseConnection.ShardOperation<R> operation) throws IOException {
+    return sharded.onAllShards(onLoadConn(operation));
+  }
+
+  private <R> Map<Integer, R> onShards(ShardedDatabaseConnection sharded, Map<Integer, ShardedDatabaseConnection.ShardOperation<R>> operations) throws IOException {
+    Map<Integer, ShardedDatabaseConnection.ShardOperation<R>> wrapped = new HashMap<Integer, ShardedDatabaseConnection.ShardOperation<R>>();
+    for (Map.Entry<Integer, ShardedDatabaseConnection.ShardOperation<R>> entry : operations.entrySet()) {
+      wrapped.put(entry.getKey(), onLoadConn(entry.getValue()));
+    }
+    return sharded.onShards(wrapped);
+  }
+
+  private static boolean isAggregated(ModelQuery query) {
+    for (FieldSelector selector : query.getSelectedFields()) {
+      if (selector.isAggregated()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int sum(Collection<Integer> counts) {
+    int sum = 0;
+    for (Integer count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+
   @Override
   public abstract T create(Map<Enum, Object> fieldsMap) throws IOException;
 
+  /**
+   * Called by the generated create methods once the new record is inserted.
+   */
+  protected void afterCreate(T newInst) throws IOException {
+    if (useCache) {
+      cacheVersion(newInst.getId(), newInst);
+    }
+    clearForeignKeyCache();
+    updateReplica(Collections.singleton(newInst), Collections.<Long>emptySet());
+    afterWrite(newInst.getId(), newInst);
+  }
+
+  @Override
+  public void setIdAllocator(IdAllocator idAllocator) {
+    this.idAllocator = idAllocator;
+  }
+
+  protected boolean hasIdAllocator() {
+    return idAllocator != null;
+  }
+
+  protected long allocateId() throws IOException {
+    return idAllocator.allocateId(tableName);
+  }
+
+  /**
+   * Called by the generated create methods, instead of realCreate, when ids
+   * are allocated locally: the new record is inserted with its id, or left
+   * to the open unit of work, which inserts it in a batch. Like realCreate,
+   * it is inserted with the values it was given, updated_at included.
+   */
+  protected void createWithAllocatedId(final T newInst) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      sharded.onShard(sharded.getShard(tableName, newInst.getId()), new ShardedDatabaseConnection.ShardOperation<Void>() {
+        @Override
+        public Void run() throws IOException {
+          createWithAllocatedId(newInst);
+          return null;
+        }
+      });
+      return;
+    }
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.registerSave(this, newInst);
+      if (useCache) {
+        cacheVersion(newInst.getId(), newInst);
+      }
+      clearForeignKeyCache();
+      return;
+    }
+    try {
+      executeWrite(new GroupCommitExecutor.Write<Void>() {
+        @Override
+        public Void execute() throws SQLException {
+          PreparedStatement insertStmt = prepareStatement(getInsertWithIdStatement(fieldNames));
+          try {
+            setAttrs(newInst, insertStmt);
+            insertStmt.setLong(fieldNames.size() + 1, newInst.getId());
+            insertStmt.execute();
+            return null;
+          } finally {
+            insertStmt.close();
+          }
+        }
+      });
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    newInst.setCreated(true);
+    afterCreate(newInst);
+  }
+
   private String escapedFieldNames(List<String> fieldNames) {
     StringBuilder sb = new StringBuilder();
     for (int i = 0; i < fieldNames.size(); i++) {
@@ -180,8 +471,152 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
   @Override
   public T find(long id) throws IOException {
-    if (cachedById.containsKey(id) && useCache) {
-      return cachedById.get(id);
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null) {
+      return snapshot.find(id);
+    }
+    if (useCache && revalidateCache && cachedById.containsKey(id) && needsRevalidation(id)) {
+      revalidate(Collections.singleton(id));
+    }
+    adaptCaching();
+    if (useCache) {
+      // get() first: see IdentityMap
+      T model = cachedById.get(id);
+      if (model != null || cachedById.containsKey(id)) {
+        cacheUsage.recordHit();
+        refreshAheadIfStale(id);
+        return model;
+      }
+    }
+    cacheUsage.recordMiss(id);
+    FindBatcher<T> batcher = findBatcher;
+    // reads inside a transaction stay on the caller's thread
+    if (batcher != null && conn.getAutoCommit()) {
+      return batcher.get(id, getCurrentLaneName());
+    }
+    return findByIdLoads.get(id, getIdLoader(id));
+  }
+
+  @Override
+  public ListenableFuture<T> findAsync(long id) {
+    FindBatcher<T> batcher = findBatcher;
+    try {
+      applyPendingInvalidations();
+      if (batcher == null || replica != null || revalidateCache || !conn.getAutoCommit()
+          || (useCache && (cachedById.get(id) != null || cachedById.containsKey(id)))) {
+        return Futures.immediateFuture(find(id));
+      }
+      cacheUsage.recordMiss(id);
+      return batcher.submit(id, getCurrentLaneName());
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
+  /**
+   * Loads the ids collected by the batcher with a single query. As with
+   * find(long), ids with no record are cached as null.
+   */
+  private Map<Long, T> loadByIds(Set<Long> ids) throws IOException {
+    Set<T> foundSet = new HashSet<T>();
+    loadIds(foundSet, ids);
+    Map<Long, T> models = new HashMap<Long, T>();
+    for (T model : foundSet) {
+      models.put(model.getId(), model);
+    }
+    if (useCache) {
+      for (Long id : ids) {
+        if (!models.containsKey(id)) {
+          cachedById.canonicalize(id, null);
+        }
+      }
+    }
+    return models;
+  }
+
+  /**
+   * Batches are loaded on the thread of the batcher. On a laned connection,
+   * that thread takes a connection of the lane of the callers for each
+   * batch. Otherwise it loads on a connection of its own, so that conn is
+   * never used from two threads, nor read from inside a transaction another
+   * thread opened on it.
+   */
+  @Override
+  public synchronized void enableBatching(long windowMillis, int maxBatchSize) {
+    disableBatching();
+    final BaseDatabaseConnection batchConn = getCurrentLaneName() == null ? conn.newDedicatedConnection() : null;
+    findBatcher = new FindBatcher<T>(tableName, windowMillis, maxBatchSize, new FindBatcher.BatchLoader<T>() {
+      @Override
+      public Map<Long, T> load(final Set<Long> ids, String lane) throws IOException {
+        if (lane != null) {
+          return LanedDatabaseConnection.onLane(AbstractDatabaseModel.this, lane, new ConnectionLane.Operation<Map<Long, T>>() {
+            @Override
+            public Map<Long, T> run() throws IOException {
+              return loadByIds(ids);
+            }
+          });
+        }
+        return loadOn(batchConn, new ShardedDatabaseConnection.ShardOperation<Map<Long, T>>() {
+          @Override
+          public Map<Long, T> run() throws IOException {
+            return loadByIds(ids);
+          }
+        });
+      }
+    });
+    batchConnection = batchConn;
+  }
+
+  @Override
+  public synchronized void disableBatching() {
+    if (findBatcher != null) {
+      final BaseDatabaseConnection batchConn = batchConnection;
+      findBatcher.close(new Runnable() {
+        @Override
+        public void run() {
+          if (batchConn != null) {
+            batchConn.discardConnection();
+          }
+        }
+      });
+      findBatcher = null;
+      batchConnection = null;
+    }
+  }
+
+  /**
+   * Returns the name of the lane the statements of this thread go to, or
+   * null if conn has no lanes.
+   */
+  private String getCurrentLaneName() {
+    if (conn instanceof LanedDatabaseConnection) {
+      return ((LanedDatabaseConnection)conn).getCurrentLaneName();
+    }
+    if (conn instanceof ConnectionLane) {
+      return ((ConnectionLane)conn).getName();
+    }
+    return null;
+  }
+
+  private SingleFlight.Loader<T> getIdLoader(final long id) {
+    return new SingleFlight.Loader<T>() {
+      @Override
+      public T load() throws IOException {
+        return loadById(id);
+      }
+    };
+  }
+
+  private T loadById(final long id) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sharded.onShard(sharded.getShard(tableName, id), new ShardedDatabaseConnection.ShardOperation<T>() {
+        @Override
+        public T run() throws IOException {
+          return loadById(id);
+        }
+      });
     }
     int retryCount = 0;
 
@@ -190,7 +625,7 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
     T model = null;
     while (true) {
       try {
-        stmt = conn.getPreparedStatement("SELECT * FROM "
+        stmt = getReadPreparedStatement("SELECT * FROM "
             + tableName + " WHERE id=" + id);
         rs = stmt.executeQuery();
         model = rs.next() ? instanceFromResultSet(rs) : null;
@@ -199,7 +634,7 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
         }
         break;
       } catch (SQLRecoverableException e) {
-        conn.resetConnection();
+        getLoadConn().resetConnection();
         if (++retryCount > MAX_CONNECTION_RETRIES) {
           throw new IOException(e);
         }
@@ -214,25 +649,45 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
             stmt.close();
           }
         } catch (SQLRecoverableException e) {
-          conn.resetConnection();
+          getLoadConn().resetConnection();
         } catch (SQLException e) {
         }
       }
     }
     if (useCache) {
-      cachedById.put(id, model);
+      model = cacheVersion(id, model);
+      loadedAt.put(id, System.currentTimeMillis());
+      markValidated(Collections.singleton(id));
     }
     return model;
   }
 
   @Override
   public Set<T> find(Set<Long> ids) throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null) {
+      return snapshot.find(ids);
+    }
+    if (useCache && revalidateCache) {
+      Set<Long> unvalidatedIds = new HashSet<Long>();
+      for (Long id : ids) {
+        if (needsRevalidation(id)) {
+          unvalidatedIds.add(id);
+        }
+      }
+      if (!unvalidatedIds.isEmpty()) {
+        revalidate(unvalidatedIds);
+      }
+    }
+    adaptCaching();
     Set<T> foundSet = new HashSet<T>();
     Set<Long> notCachedIds = new HashSet<Long>();
     if (useCache) {
       for (Long id : ids) {
-        if (cachedById.containsKey(id)) {
-          T model = cachedById.get(id);
+        T model = cachedById.get(id);
+        if (model != null || cachedById.containsKey(id)) {
+          cacheUsage.recordHit();
           foundSet.add(model);
         } else {
           notCachedIds.add(id);
@@ -241,14 +696,41 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
     } else {
       notCachedIds = ids;
     }
+    for (Long id : notCachedIds) {
+      cacheUsage.recordMiss(id);
+    }
     if (!notCachedIds.isEmpty()) {
-      executeQuery(foundSet, "SELECT * FROM " + tableName + " WHERE " + getIdSetCondition(notCachedIds));
+      loadIds(foundSet, notCachedIds);
+      markValidated(notCachedIds);
     }
     return foundSet;
   }
 
+  private void loadIds(Collection<T> foundSet, Set<Long> ids) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      for (Set<T> shardFound : onShardsOfIds(sharded, ids, new IdsOperation<Set<T>>() {
+        @Override
+        public Set<T> run(Set<Long> shardIds) throws IOException {
+          Set<T> shardFound = new HashSet<T>();
+          loadIds(shardFound, shardIds);
+          return shardFound;
+        }
+      })) {
+        foundSet.addAll(shardFound);
+      }
+      return;
+    }
+    executeQuery(foundSet, "SELECT * FROM " + tableName + " WHERE " + getIdSetCondition(ids));
+  }
+
   public List<T> findWithOrder(Set<Long> ids, ModelQuery query) throws IOException {
     List<T> foundList = new ArrayList<T>();
+    if (!ids.isEmpty() && getShardRouting() != null) {
+      loadIds(foundList, ids);
+      InMemoryQueryEvaluator.sort(foundList, query.getOrderCriteria(), postgres);
+      return InMemoryQueryEvaluator.applyLimit(foundList, query.getLimitCriterion());
+    }
     if (!ids.isEmpty()) {
       String statement = query.getSelectClause();
       statement += " FROM ";
@@ -263,6 +745,12 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
   }
 
   public Set<T> find(ModelQuery query) throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null && InMemoryQueryEvaluator.canEvaluate(query)) {
+      return new HashSet<T>(InMemoryQueryEvaluator.evaluate(snapshot.findAll(), query, postgres));
+    }
+
     Set<T> foundSet = new HashSet<T>();
 
     if (query.isOnlyIdQuery()) {
@@ -273,30 +761,38 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
       return foundSet;
     }
 
-    String statementString = getPreparedStatementString(query, false);
-
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
+    if (canUseIdCache(query)) {
+      return new HashSet<T>(findWithIdCache(query));
+    }
 
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString);
-      setStatementParameters(preparedStatement, query);
-      Set<Enum> selectedFields = getSelectedFields(query);
+    String statementString = getPreparedStatementString(query, false);
 
-      try {
-        executeQuery(foundSet, preparedStatement, selectedFields);
-        return foundSet;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
-        }
-      } catch (SQLException e) {
-        throw new IOException(e);
+    QueryResultCache resultCache = getQueryCache(query);
+    List<Object> cacheKey = null;
+    long cacheGeneration = 0;
+    if (resultCache != null) {
+      cacheKey = QueryResultCache.getKey(statementString, query);
+      List<Long> cachedIds = resultCache.get(cacheKey);
+      if (cachedIds != null) {
+        return find(new HashSet<Long>(cachedIds));
       }
+      cacheGeneration = resultCache.getGeneration();
+    }
+
+    executeQuery(foundSet, statementString, query);
+    if (resultCache != null) {
+      resultCache.put(cacheKey, foundSet, cacheGeneration);
     }
+    return foundSet;
   }
 
   public List<T> findWithOrder(ModelQuery query) throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null && InMemoryQueryEvaluator.canEvaluate(query)) {
+      return InMemoryQueryEvaluator.evaluate(snapshot.findAll(), query, postgres);
+    }
+
     List<T> foundList = new ArrayList<T>();
 
     if (query.isOnlyIdQuery()) {
@@ -307,197 +803,1999 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
       return foundList;
     }
 
-    String statementString = getPreparedStatementString(query, true);
-
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
+    if (canUseIdCache(query)) {
+      return findWithIdCache(query);
+    }
 
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString);
-      setStatementParameters(preparedStatement, query);
-      Set<Enum> selectedFields = getSelectedFields(query);
+    String statementString = getPreparedStatementString(query, true);
 
-      try {
-        executeQuery(foundList, preparedStatement, selectedFields);
-        return foundList;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
-        }
-      } catch (SQLException e) {
-        throw new IOException(e);
+    QueryResultCache resultCache = getQueryCache(query);
+    List<Object> cacheKey = null;
+    long cacheGeneration = 0;
+    if (resultCache != null) {
+      cacheKey = QueryResultCache.getKey(statementString, query);
+      List<Long> cachedIds = resultCache.get(cacheKey);
+      if (cachedIds != null) {
+        return findInIdOrder(cachedIds);
       }
+      cacheGeneration = resultCache.getGeneration();
     }
-  }
-
-  private String getPreparedStatementString(ModelQuery query, boolean order) throws IOException {
-    String statement = query.getSelectClause();
-    statement += " FROM " + getTableName() + " ";
-    statement += query.getWhereClause();
-    statement += query.getGroupByClause();
-    statement += order ? query.getOrderByClause() : "";
-    statement += query.getLimitClause();
-
-    return statement;
-  }
 
-  private Set<Enum> getSelectedFields(ModelQuery query) throws IOException {
-    // Extract the list of selected columns from the list of FieldSelector we have
-    Set<Enum> selectedFields = new HashSet<Enum>();
-    for (FieldSelector selector : query.getSelectedFields()) {
-      selectedFields.add(selector.getField());
+    executeQuery(foundList, statementString, query);
+    if (resultCache != null) {
+      resultCache.put(cacheKey, foundList, cacheGeneration);
     }
-    return selectedFields;
+    return foundList;
   }
 
-  protected String getIdSetCondition(Set<Long> ids) {
-    StringBuilder sb = new StringBuilder("id in (");
-    Iterator<Long> iter = ids.iterator();
-    while (iter.hasNext()) {
-      Long obj = iter.next();
-      sb.append(obj.toString());
-      if (iter.hasNext()) {
-        sb.append(",");
+  private void executeQuery(Collection<T> foundSet, String statementString, final ModelQuery query) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      if (!query.getGroupByClause().isEmpty() || isAggregated(query)) {
+        throw new UnsupportedOperationException("GROUP BY and aggregates are not supported on the sharded table " + tableName);
+      }
+      Optional<LimitCriterion> limit = query.getLimitCriterion();
+      // each shard returns its first offset + n records, which hold the n asked for
+      final String shardStatement = !limit.isPresent() ? statementString
+          : statementString.substring(0, statementString.length() - query.getLimitClause().length())
+          + new LimitCriterion(limit.get().getOffset() + limit.get().getNResults()).getSqlClause();
+      List<T> merged = new ArrayList<T>();
+      for (List<T> shardFound : onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<List<T>>() {
+        @Override
+        public List<T> run() throws IOException {
+          List<T> shardFound = new ArrayList<T>();
+          executeQuery(shardFound, shardStatement, query);
+          return shardFound;
+        }
+      })) {
+        merged.addAll(shardFound);
       }
+      InMemoryQueryEvaluator.sort(merged, query.getOrderCriteria(), postgres);
+      foundSet.addAll(InMemoryQueryEvaluator.applyLimit(merged, limit));
+      return;
     }
-    sb.append(")");
-    return sb.toString();
-  }
-
-  protected abstract void setStatementParameters(PreparedStatement statement, ModelQuery query) throws IOException;
-
-  protected void executeQuery(Collection<T> foundSet, PreparedStatement stmt) throws SQLException {
-    executeQuery(foundSet, stmt, null);
+    final Collection<T> found = foundSet;
+    fetchRows(statementString, query, query.getFetchSize(), query.isStreaming(), getSelectedFields(query), new RecordVisitor<T>() {
+      @Override
+      public boolean visitRecord(T record) {
+        found.add(cacheLoaded(record));
+        return true;
+      }
+    });
   }
 
-  protected void executeQuery(Collection<T> foundSet, PreparedStatement stmt, Set<Enum> selectedFields) throws SQLException {
-    ResultSet rs = null;
-
-    try {
-      rs = stmt.executeQuery();
-      while (rs.next()) {
-        T inst = instanceFromResultSet(rs, selectedFields);
-        inst.setCreated(true);
-        foundSet.add(inst);
-        if (useCache) {
-          cachedById.put(inst.getId(), inst);
-        }
-      }
-    } catch (SQLRecoverableException e) {
-      conn.resetConnection();
-      throw e;
-    } finally {
-      try {
-        if (rs != null) {
-          rs.close();
+  @Override
+  public void findStreaming(ModelQuery query, RecordVisitor<T> visitor) throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null && InMemoryQueryEvaluator.canEvaluate(query)) {
+      for (T model : InMemoryQueryEvaluator.evaluate(snapshot.findAll(), query, postgres)) {
+        if (!visitor.visitRecord(model)) {
+          return;
         }
-        stmt.close();
-      } catch (SQLRecoverableException e) {
-        conn.resetConnection();
-      } catch (SQLException e) {
       }
+      return;
     }
+    if (getShardRouting() != null && (!query.getOrderCriteria().isEmpty() || query.getLimitCriterion().isPresent()
+        || !query.getGroupByClause().isEmpty() || isAggregated(query))) {
+      throw new UnsupportedOperationException("Streamed queries cannot be ordered, limited or aggregated on the sharded table " + tableName);
+    }
+    stream(getPreparedStatementString(query, true), query, query.getFetchSize(), canonicalizing(visitor));
   }
 
-  protected void executeQuery(Collection<T> foundSet, String statemenString) throws IOException {
-    int retryCount = 0;
-    PreparedStatement stmt;
-
-    while (true) {
-      try {
-        stmt = conn.getPreparedStatement(statemenString);
-        executeQuery(foundSet, stmt);
-        break;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
+  /**
+   * Streams the rows of the statement to the visitor, from each shard in
+   * turn if the table is sharded. Returns false if the visitor ended the
+   * read.
+   */
+  private boolean stream(final String statement, final ModelQuery query, final int fetchSize, final RecordVisitor<T> visitor) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      for (int shard = 0; shard < sharded.getShardCount(); shard++) {
+        boolean more = sharded.onShard(shard, new ShardedDatabaseConnection.ShardOperation<Boolean>() {
+          @Override
+          public Boolean run() throws IOException {
+            return stream(statement, query, fetchSize, visitor);
+          }
+        });
+        if (!more) {
+          return false;
         }
-      } catch (SQLException e) {
-        throw new IOException(e);
       }
+      return true;
     }
+    return fetchRows(statement, query, fetchSize, true, query == null ? null : getSelectedFields(query), visitor);
   }
 
-  protected PreparedStatement getPreparedStatement(String statemenString) {
-    return conn.getPreparedStatement(statemenString);
+  /**
+   * Streamed records are only cached in identity map mode, where a record
+   * that is already cached must be handed out as the cached instance.
+   */
+  private RecordVisitor<T> canonicalizing(final RecordVisitor<T> visitor) {
+    if (!useCache || !canonicalizeModels) {
+      return visitor;
+    }
+    return new RecordVisitor<T>() {
+      @Override
+      public boolean visitRecord(T record) throws IOException {
+        return visitor.visitRecord(cachedById.canonicalize(record.getId(), record));
+      }
+    };
   }
 
-  protected PreparedStatement getSaveStmt() {
-    return conn.getPreparedStatement(updateStatement);
-  }
+  /**
+   * Reads the rows of the statement, fetchSize at a time or streamed, binding
+   * the parameters of the query if there is one, and hands each record to the
+   * visitor as soon as its row is read. After a lost connection the read is
+   * only retried if no record was handed out yet. Returns false if the
+   * visitor ended the read.
+   *
+   * PostgreSQL only fetches rows with a cursor within a transaction. In
+   * autocommit mode, the read is made in a transaction of its own, on a
+   * connection of its own, rather than by taking the connection of the
+   * persistence out of autocommit mode. That connection is kept for the next
+   * such read, unless another read took a second one in the meantime.
+   */
+  private boolean fetchRows(String statement, ModelQuery query, int fetchSize, boolean streaming,
+                            Set<Enum> selectedFields, RecordVisitor<T> visitor) throws IOException {
+    BaseDatabaseConnection loadConn = getLoadConn();
+    BaseDatabaseConnection readConn = loadConn;
+    BaseDatabaseConnection cursorConn = null;
+    if (postgres && (fetchSize > 0 || streaming) && readConn.getAutoCommit()) {
+      cursorConn = takeCursorConnection(readConn);
+      if (cursorConn != null) {
+        readConn = cursorConn;
+      }
+    }
+    try {
+      int retryCount = 0;
+      boolean visited = false;
+
+      while (true) {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+          stmt = withQueryTimeout(readConn.getReadPreparedStatement(statement, hedgingPolicy), Deadline.getQueryTimeoutSeconds());
+          setFetchSize(stmt, fetchSize, streaming);
+          if (query != null) {
+            setStatementParameters(stmt, query);
+          }
+          rs = stmt.executeQuery();
+          while (rs.next()) {
+            T inst = instanceFromResultSet(rs, selectedFields);
+            inst.setCreated(true);
+            visited = true;
+            if (!visitor.visitRecord(inst)) {
+              return false;
+            }
+          }
+          return true;
+        } catch (SQLRecoverableException e) {
+          resetReadConnection(readConn, cursorConn);
+          if (visited || ++retryCount > MAX_CONNECTION_RETRIES) {
+            throw new IOException(e);
+          }
+        } catch (SQLException e) {
+          throw new IOException(e);
+        } finally {
+          try {
+            if (rs != null) {
+              rs.close();
+            }
+            if (stmt != null) {
+              stmt.close();
+            }
+          } catch (SQLRecoverableException e) {
+            resetReadConnection(readConn, cursorConn);
+          } catch (SQLException e) {
+          }
+        }
+      }
+    } finally {
+      if (cursorConn != null) {
+        giveBackCursorConnection(loadConn, cursorConn);
+      }
+    }
+  }
+
+  /**
+   * The connection of a cursor read is in the middle of its transaction,
+   * which the lost connection ended anyway.
+   */
+  private static void resetReadConnection(BaseDatabaseConnection readConn, BaseDatabaseConnection cursorConn) {
+    if (readConn == cursorConn) {
+      cursorConn.discardConnection();
+      cursorConn.setAutoCommit(false);
+    } else {
+      readConn.resetConnection();
+    }
+  }
+
+  /**
+   * Returns a connection out of autocommit mode for a cursor read, or null
+   * if the connection cannot open another one, in which case the driver
+   * buffers the rows.
+   */
+  private BaseDatabaseConnection takeCursorConnection(BaseDatabaseConnection readConn) {
+    BaseDatabaseConnection cursorConn = null;
+    if (keepsCursorConnection(readConn)) {
+      synchronized (this) {
+        cursorConn = idleCursorConn;
+        idleCursorConn = null;
+      }
+    }
+    if (cursorConn == null) {
+      try {
+        cursorConn = readConn.newDedicatedConnection();
+      } catch (UnsupportedOperationException e) {
+        return null;
+      }
+    }
+    cursorConn.setAutoCommit(false);
+    return cursorConn;
+  }
+
+  /**
+   * Ends the transaction of the read, which wrote nothing, and keeps the
+   * connection for the next read if it can be kept.
+   */
+  private void giveBackCursorConnection(BaseDatabaseConnection readConn, BaseDatabaseConnection cursorConn) {
+    try {
+      cursorConn.rollback();
+      cursorConn.setAutoCommit(true);
+    } catch (RuntimeException e) {
+      cursorConn.discardConnection();
+      return;
+    }
+    synchronized (this) {
+      if (idleCursorConn == null && keepsCursorConnection(readConn)) {
+        idleCursorConn = cursorConn;
+        return;
+      }
+    }
+    cursorConn.discardConnection();
+  }
+
+  /**
+   * Only the connection of the persistence itself keeps its cursor
+   * connection between reads: the connections of lanes, shards, background
+   * loads and batches vary from one read to the next.
+   */
+  private boolean keepsCursorConnection(BaseDatabaseConnection readConn) {
+    return readConn == conn && !(conn instanceof LanedDatabaseConnection) && !(conn instanceof ShardedDatabaseConnection);
+  }
+
+  /**
+   * MySQL streams the rows one by one with a fetch size of Integer.MIN_VALUE,
+   * and only honors other fetch sizes with useCursorFetch=true.
+   */
+  private void setFetchSize(PreparedStatement stmt, int fetchSize, boolean streaming) throws SQLException {
+    if (streaming) {
+      if (postgres) {
+        stmt.setFetchSize(fetchSize > 0 ? fetchSize : DEFAULT_STREAMING_FETCH_SIZE);
+      } else {
+        stmt.setFetchSize(Integer.MIN_VALUE);
+      }
+    } else if (fetchSize > 0) {
+      stmt.setFetchSize(fetchSize);
+    }
+  }
+
+  private boolean canUseIdCache(ModelQuery query) {
+    return useCache
+        && evaluateQueriesInCache
+        && query.getIdSet().isPresent()
+        && InMemoryQueryEvaluator.canEvaluate(query);
+  }
+
+  /**
+   * Evaluate an id-restricted query against the cached models, and only ask
+   * the database about the ids that are not cached yet. Ordering and limit
+   * are applied in memory to the union of both.
+   */
+  private List<T> findWithIdCache(ModelQuery query) throws IOException {
+    List<T> cachedModels = new ArrayList<T>();
+    Set<Long> notCachedIds = new HashSet<Long>();
+    for (Long id : query.getIdSet().get()) {
+      T model = cachedById.get(id);
+      if (model != null) {
+        cachedModels.add(model);
+      } else if (!cachedById.containsKey(id)) {
+        notCachedIds.add(id);
+      }
+      // otherwise a cached null means the record does not exist
+    }
+
+    List<T> foundList = InMemoryQueryEvaluator.filter(cachedModels, query);
+    if (!notCachedIds.isEmpty()) {
+      ModelQuery notCachedQuery = new ModelQuery();
+      for (WhereConstraint constraint : query.getWhereConstraints()) {
+        notCachedQuery.addConstraint(constraint);
+      }
+      notCachedQuery.addIds(notCachedIds);
+      executeQuery(foundList, getPreparedStatementString(notCachedQuery, false), notCachedQuery);
+    }
+    InMemoryQueryEvaluator.sort(foundList, query.getOrderCriteria(), postgres);
+    return InMemoryQueryEvaluator.applyLimit(foundList, query.getLimitCriterion());
+  }
+
+  private List<T> findInIdOrder(List<Long> ids) throws IOException {
+    Map<Long, T> modelsById = new HashMap<Long, T>();
+    for (T model : find(new HashSet<Long>(ids))) {
+      modelsById.put(model.getId(), model);
+    }
+    List<T> foundList = new ArrayList<T>();
+    for (Long id : ids) {
+      T model = modelsById.get(id);
+      if (model != null) {
+        foundList.add(model);
+      }
+    }
+    return foundList;
+  }
+
+  /**
+   * Returns the query cache if this query's results may be cached, null otherwise.
+   * Partial selects and aggregates are not cached since only ids are kept.
+   */
+  private QueryResultCache getQueryCache(ModelQuery query) {
+    QueryResultCache resultCache = queryCache;
+    if (resultCache == null || !useCache || !InMemoryQueryEvaluator.canEvaluate(query)) {
+      return null;
+    }
+    return resultCache;
+  }
+
+  private String getPreparedStatementString(ModelQuery query, boolean order) throws IOException {
+    String statement = query.getSelectClause();
+    statement += " FROM " + getTableName() + " ";
+    statement += query.getWhereClause();
+    statement += query.getGroupByClause();
+    statement += order ? query.getOrderByClause() : "";
+    statement += query.getLimitClause();
+
+    return statement;
+  }
+
+  private Set<Enum> getSelectedFields(ModelQuery query) throws IOException {
+    // Extract the list of selected columns from the list of FieldSelector we have
+    Set<Enum> selectedFields = new HashSet<Enum>();
+    for (FieldSelector selector : query.getSelectedFields()) {
+      selectedFields.add(selector.getField());
+    }
+    return selectedFields;
+  }
+
+  protected String getIdSetCondition(Set<Long> ids) {
+    StringBuilder sb = new StringBuilder("id in (");
+    Iterator<Long> iter = ids.iterator();
+    while (iter.hasNext()) {
+      Long obj = iter.next();
+      sb.append(obj.toString());
+      if (iter.hasNext()) {
+        sb.append(",");
+      }
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+
+  protected void setStatementParameters(PreparedStatement statement, ModelQuery query) throws IOException {
+    setStatementParameters(statement, query, 0);
+  }
+
+  /**
+   * Binds the parameters of the query's where constraints, starting after the
+   * first index parameters of the statement.
+   */
+  protected abstract void setStatementParameters(PreparedStatement statement, ModelQuery query, int index) throws IOException;
+
+  private static int getParameterCount(ModelQuery query) {
+    int count = 0;
+    for (WhereConstraint constraint : query.getWhereConstraints()) {
+      for (Object parameter : constraint.getParameters()) {
+        if (parameter != null) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The ReadBatch counterpart of find(long).
+   */
+  ReadBatch.Read<T> getFindRead(final long id) throws IOException {
+    applyPendingInvalidations();
+    if (replica != null || revalidateCache) {
+      return new ReadBatch.ResolvedRead<T>(find(id));
+    }
+    if (useCache) {
+      T model = cachedById.get(id);
+      if (model != null || cachedById.containsKey(id)) {
+        cacheUsage.recordHit();
+        return new ReadBatch.ResolvedRead<T>(model);
+      }
+    }
+    cacheUsage.recordMiss(id);
+    return new ReadBatch.Read<T>() {
+      @Override
+      String getStatement() {
+        return "SELECT * FROM " + tableName + " WHERE id=" + id;
+      }
+
+      @Override
+      T read(ResultSet rs) throws SQLException {
+        T model = null;
+        if (rs.next()) {
+          model = instanceFromResultSet(rs);
+          model.setCreated(true);
+        }
+        if (useCache) {
+          model = cachedById.canonicalize(id, model);
+        }
+        return model;
+      }
+    };
+  }
+
+  /**
+   * The ReadBatch counterpart of findAllByForeignKey(String, long).
+   */
+  ReadBatch.Read<Set<T>> getFindAllByForeignKeyRead(final String foreignKey, final long id) throws IOException {
+    applyPendingInvalidations();
+    if (replica != null) {
+      return new ReadBatch.ResolvedRead<Set<T>>(findAllByForeignKey(foreignKey, id));
+    }
+    if (useForeignKeyCache()) {
+      Set<T> ret = getForeignKeyCache(foreignKey).get(id);
+      if (ret != null) {
+        return new ReadBatch.ResolvedRead<Set<T>>(ret);
+      }
+    }
+    return new ReadBatch.Read<Set<T>>() {
+      @Override
+      String getStatement() {
+        return String.format("SELECT * FROM %s WHERE %s = %d", tableName, foreignKey, id);
+      }
+
+      @Override
+      Set<T> read(ResultSet rs) throws SQLException {
+        Set<T> ret = new HashSet<T>();
+        while (rs.next()) {
+          T inst = instanceFromResultSet(rs);
+          inst.setCreated(true);
+          if (useCache) {
+            inst = cachedById.canonicalize(inst.getId(), inst);
+          }
+          ret.add(inst);
+        }
+        if (useForeignKeyCache()) {
+          getForeignKeyCache(foreignKey).put(id, ret);
+        }
+        return ret;
+      }
+    };
+  }
+
+  /**
+   * The ReadBatch counterpart of findWithOrder(ModelQuery). Queries that the
+   * caches can help with are run right away.
+   */
+  ReadBatch.Read<List<T>> getFindWithOrderRead(final ModelQuery query) throws IOException {
+    applyPendingInvalidations();
+    if (replica != null || query.isOnlyIdQuery() || canUseIdCache(query) || getQueryCache(query) != null) {
+      return new ReadBatch.ResolvedRead<List<T>>(findWithOrder(query));
+    }
+    final String statement = getPreparedStatementString(query, true);
+    final Set<Enum> selectedFields = getSelectedFields(query);
+    return new ReadBatch.Read<List<T>>() {
+      @Override
+      String getStatement() {
+        return statement;
+      }
+
+      @Override
+      int getParameterCount() {
+        return AbstractDatabaseModel.getParameterCount(query);
+      }
+
+      @Override
+      void setParameters(PreparedStatement preparedStatement, int index) throws IOException {
+        setStatementParameters(preparedStatement, query, index);
+      }
+
+      @Override
+      List<T> read(ResultSet rs) throws SQLException {
+        List<T> foundList = new ArrayList<T>();
+        while (rs.next()) {
+          T inst = instanceFromResultSet(rs, selectedFields);
+          inst.setCreated(true);
+          foundList.add(cacheLoaded(inst));
+        }
+        return foundList;
+      }
+    };
+  }
+
+  protected void executeQuery(Collection<T> foundSet, PreparedStatement stmt) throws SQLException {
+    executeQuery(foundSet, stmt, null);
+  }
+
+  protected void executeQuery(Collection<T> foundSet, PreparedStatement stmt, Set<Enum> selectedFields) throws SQLException {
+    ResultSet rs = null;
+
+    try {
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+        T inst = instanceFromResultSet(rs, selectedFields);
+        inst.setCreated(true);
+        foundSet.add(cacheLoaded(inst));
+      }
+    } catch (SQLRecoverableException e) {
+      conn.resetConnection();
+      throw e;
+    } finally {
+      try {
+        if (rs != null) {
+          rs.close();
+        }
+        stmt.close();
+      } catch (SQLRecoverableException e) {
+        conn.resetConnection();
+      } catch (SQLException e) {
+      }
+    }
+  }
+
+  protected void executeQuery(Collection<T> foundSet, String statemenString) throws IOException {
+    int retryCount = 0;
+    PreparedStatement stmt;
+
+    while (true) {
+      try {
+        stmt = getReadPreparedStatement(statemenString);
+        executeQuery(foundSet, stmt);
+        break;
+      } catch (SQLRecoverableException e) {
+        if (++retryCount > MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Runs a query whose parameters are bound by the setter, on every shard if
+   * the table is sharded.
+   */
+  protected void executeQuery(Collection<T> foundSet, final String statementString, final AttrSetter setter) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      for (Set<T> shardFound : onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Set<T>>() {
+        @Override
+        public Set<T> run() throws IOException {
+          Set<T> shardFound = new HashSet<T>();
+          executeQuery(shardFound, statementString, setter);
+          return shardFound;
+        }
+      })) {
+        foundSet.addAll(shardFound);
+      }
+      return;
+    }
+    int retryCount = 0;
+
+    while (true) {
+      try {
+        PreparedStatement stmt = getReadPreparedStatement(statementString);
+        try {
+          setter.set(stmt);
+        } catch (SQLException e) {
+          stmt.close();
+          throw e;
+        }
+        executeQuery(foundSet, stmt);
+        return;
+      } catch (SQLRecoverableException e) {
+        if (++retryCount > MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Statements made here go to the primary, so that subclasses may write
+   * with them. Statements get the time left to the deadline of the thread,
+   * if it has one, as their query timeout.
+   */
+  protected PreparedStatement getPreparedStatement(String statemenString) {
+    try {
+      return prepareStatement(statemenString);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * For queries that only read, which may go to a replica.
+   */
+  private PreparedStatement getReadPreparedStatement(String statement) throws SQLException {
+    int timeout = Deadline.getQueryTimeoutSeconds();
+    return withQueryTimeout(getLoadConn().getReadPreparedStatement(statement, hedgingPolicy), timeout);
+  }
+
+  private PreparedStatement prepareStatement(String statement) throws SQLException {
+    int timeout = Deadline.getQueryTimeoutSeconds();
+    return withQueryTimeout(getWriteConn().getPreparedStatement(statement), timeout);
+  }
+
+  private PreparedStatement prepareStatement(String statement, int options) throws SQLException {
+    int timeout = Deadline.getQueryTimeoutSeconds();
+    return withQueryTimeout(getWriteConn().getPreparedStatement(statement, options), timeout);
+  }
+
+  /**
+   * Writes run in a group commit go to the connection of the group.
+   */
+  private BaseDatabaseConnection getWriteConn() {
+    GroupCommitExecutor groupCommit = conn.getGroupCommitExecutor();
+    return groupCommit != null && groupCommit.isRunningGroup() ? groupCommit.getConnection() : getLoadConn();
+  }
+
+  /**
+   * The replica refresher and refresh-ahead load on a connection of their
+   * own, so that they never run statements on conn from another thread, or
+   * read from inside a transaction opened on it.
+   */
+  private BaseDatabaseConnection getLoadConn() {
+    OwnConnectionLoad load = LOADING_IN_BACKGROUND.get();
+    return load != null && load.model == this ? load.connection : conn;
+  }
+
+  private static class OwnConnectionLoad {
+    private final AbstractDatabaseModel<?> model;
+    private final BaseDatabaseConnection connection;
+
+    private OwnConnectionLoad(AbstractDatabaseModel<?> model, BaseDatabaseConnection connection) {
+      this.model = model;
+      this.connection = connection;
+    }
+  }
+
+  /**
+   * Runs the operation with the statements of this thread going to the
+   * background connection.
+   */
+  private <R> R loadInBackground(ShardedDatabaseConnection.ShardOperation<R> operation) throws IOException {
+    return loadOn(backgroundConn, operation);
+  }
+
+  private <R> R loadOn(BaseDatabaseConnection connection, ShardedDatabaseConnection.ShardOperation<R> operation) throws IOException {
+    OwnConnectionLoad previous = LOADING_IN_BACKGROUND.get();
+    LOADING_IN_BACKGROUND.set(new OwnConnectionLoad(this, connection));
+    try {
+      return operation.run();
+    } finally {
+      if (previous == null) {
+        LOADING_IN_BACKGROUND.remove();
+      } else {
+        LOADING_IN_BACKGROUND.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Shard operations run on other threads: those of a background load must
+   * stay on the background connection.
+   */
+  private <R> ShardedDatabaseConnection.ShardOperation<R> onLoadConn(final ShardedDatabaseConnection.ShardOperation<R> operation) {
+    final OwnConnectionLoad load = LOADING_IN_BACKGROUND.get();
+    if (load == null || load.model != this) {
+      return operation;
+    }
+    return new ShardedDatabaseConnection.ShardOperation<R>() {
+      @Override
+      public R run() throws IOException {
+        return loadOn(load.connection, operation);
+      }
+    };
+  }
+
+  /**
+   * Returns the updated_at field of the fields enum that field belongs to.
+   */
+  private static Enum getUpdatedAtField(Enum field) {
+    for (Object constant : field.getDeclaringClass().getEnumConstants()) {
+      if (((Enum)constant).name().equals(UPDATED_AT)) {
+        return (Enum)constant;
+      }
+    }
+    throw new IllegalArgumentException("No " + UPDATED_AT + " field next to " + field);
+  }
+
+  private static PreparedStatement withQueryTimeout(PreparedStatement stmt, int timeout) throws SQLException {
+    if (timeout > 0) {
+      try {
+        stmt.setQueryTimeout(timeout);
+      } catch (SQLException e) {
+        stmt.close();
+        throw e;
+      }
+    }
+    return stmt;
+  }
+
+  protected PreparedStatement getSaveStmt() {
+    try {
+      return prepareStatement(updateStatement);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * getSaveStmt() keeps its unchecked signature for subclasses; a deadline
+   * that ran out while making the statement fails the save like any other
+   * SQLException.
+   */
+  private PreparedStatement prepareSaveStmt() throws SQLException {
+    try {
+      return getSaveStmt();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  protected final static Integer getIntOrNull(ResultSet rs, String column)
+      throws SQLException {
+    Integer value = rs.getInt(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  protected final static Long getLongOrNull(ResultSet rs, String column)
+      throws SQLException {
+    Long value = rs.getLong(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  protected final static Double getDoubleOrNull(ResultSet rs, String column)
+      throws SQLException {
+    Double value = rs.getDouble(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  protected final static Boolean getBooleanOrNull(ResultSet rs, String column)
+      throws SQLException {
+    Boolean value = rs.getBoolean(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  protected final static Date getDate(ResultSet rs, String column)
+      throws SQLException {
+    Timestamp timestamp = rs.getTimestamp(column);
+    if (timestamp == null) {
+      return null;
+    }
+    return new Date(timestamp.getTime());
+  }
+
+  protected final static Long getDateAsLong(ResultSet rs, String column)
+      throws SQLException {
+    Date date = getDate(rs, column);
+    return date == null ? null : date.getTime();
+  }
+
+  @Override
+  public void clearCacheByForeignKey(String foreignKey, long id) {
+    Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
+    if (foreignKeyCache != null) {
+      foreignKeyCache.remove(id);
+    }
+  }
+
+  @Override
+  public void clearCacheById(long id) throws IOException {
+    cachedById.remove(id);
+  }
+
+  @Override
+  public void clearForeignKeyCache() {
+    cachedByForeignKey.clear();
+  }
+
+  @Override
+  public Set<T> findAllByForeignKey(String foreignKey, long id)
+      throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null) {
+      return snapshot.findAllByForeignKey(foreignKey, id);
+    }
+    if (useForeignKeyCache()) {
+      Set<T> ret = getForeignKeyCache(foreignKey).get(id);
+      if (ret != null) {
+        refreshAheadIfStale(foreignKey, id);
+        return ret;
+      }
+    }
+    return findByForeignKeyLoads.get(Arrays.<Object>asList(foreignKey, id), getForeignKeyLoader(foreignKey, id));
+  }
+
+  private SingleFlight.Loader<Set<T>> getForeignKeyLoader(final String foreignKey, final long id) {
+    return new SingleFlight.Loader<Set<T>>() {
+      @Override
+      public Set<T> load() throws IOException {
+        return loadByForeignKey(foreignKey, id);
+      }
+    };
+  }
+
+  private Set<T> loadByForeignKey(String foreignKey, long id) throws IOException {
+    Set<T> ret = queryByForeignKey(foreignKey, id);
+    if (useForeignKeyCache()) {
+      getForeignKeyCache(foreignKey).put(id, ret);
+      loadedAt.put(Arrays.<Object>asList(foreignKey, id), System.currentTimeMillis());
+    }
+    return ret;
+  }
+
+  private Set<T> queryByForeignKey(final String foreignKey, final long id) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      ShardedDatabaseConnection.ShardOperation<Set<T>> query = new ShardedDatabaseConnection.ShardOperation<Set<T>>() {
+        @Override
+        public Set<T> run() throws IOException {
+          return queryByForeignKey(foreignKey, id);
+        }
+      };
+      int shard = sharded.getShardOfForeignKey(tableName, foreignKey, id);
+      if (shard >= 0) {
+        return sharded.onShard(shard, query);
+      }
+      Set<T> ret = new HashSet<T>();
+      for (Set<T> shardFound : onAllShards(sharded, query)) {
+        ret.addAll(shardFound);
+      }
+      return ret;
+    }
+    int retryCount = 0;
+
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+
+    while (true) {
+      try {
+        stmt = getReadPreparedStatement(String.format(
+            "SELECT * FROM %s WHERE %s = %d;", tableName, foreignKey, id));
+        rs = stmt.executeQuery();
+        Set<T> ret = new HashSet<T>();
+        while (rs.next()) {
+          T inst = instanceFromResultSet(rs);
+          inst.setCreated(true);
+          if (useCache) {
+            inst = cachedById.canonicalize(inst.getId(), inst);
+          }
+          ret.add(inst);
+        }
+        return ret;
+      } catch (SQLRecoverableException e) {
+        getLoadConn().resetConnection();
+        if (++retryCount > MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      } finally {
+        try {
+          if (rs != null) {
+            rs.close();
+          }
+          if (stmt != null) {
+            stmt.close();
+          }
+        } catch (SQLRecoverableException e) {
+          getLoadConn().resetConnection();
+        } catch (SQLException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Caches a model just read from the database. In identity map mode the
+   * instance already cached for its id is returned instead, if there is one.
+   */
+  private T cacheLoaded(T inst) {
+    if (!useCache) {
+      return inst;
+    }
+    if (canonicalizeModels) {
+      return cachedById.canonicalize(inst.getId(), inst);
+    }
+    cachedById.put(inst.getId(), inst);
+    return inst;
+  }
+
+  /**
+   * Foreign key results hold their models strongly, which would keep weakly
+   * cached models from ever being reclaimed.
+   */
+  private boolean useForeignKeyCache() {
+    return useCache && cachedById.getValueStrength() == IdentityMap.ValueStrength.STRONG;
+  }
+
+  private Map<Long, Set<T>> getForeignKeyCache(String foreignKey) {
+    synchronized (cachedByForeignKey) {
+      Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
+      if (foreignKeyCache == null) {
+        foreignKeyCache = Collections.synchronizedMap(new HashMap<Long, Set<T>>());
+        cachedByForeignKey.put(foreignKey, foreignKeyCache);
+      }
+      return foreignKeyCache;
+    }
+  }
+
+  @Override
+  public Set<T> findAllByForeignKey(String foreignKey, Set<Long> ids)
+      throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null) {
+      return snapshot.findAllByForeignKey(foreignKey, ids);
+    }
+    Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
+    Set<T> foundSet = new HashSet<T>();
+    Set<Long> notCachedIds = new HashSet<Long>();
+    if (foreignKeyCache != null && useForeignKeyCache()) {
+      for (Long id : ids) {
+        Set<T> results = foreignKeyCache.get(id);
+        if (results != null) {
+          foundSet.addAll(results);
+        } else {
+          notCachedIds.add(id);
+        }
+      }
+    } else {
+      notCachedIds = ids;
+      if (useForeignKeyCache()) {
+        getForeignKeyCache(foreignKey);
+      }
+    }
+
+    if (!notCachedIds.isEmpty()) {
+      queryByForeignKey(foundSet, foreignKey, notCachedIds);
+    }
+    return foundSet;
+  }
+
+  private void queryByForeignKey(Collection<T> foundSet, final String foreignKey, Set<Long> ids) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      Map<Integer, Set<Long>> idsByShard = new HashMap<Integer, Set<Long>>();
+      for (Long id : ids) {
+        int shard = sharded.getShardOfForeignKey(tableName, foreignKey, id);
+        if (shard < 0) {
+          // the records of this value may be on any shard, so every shard is asked for all values
+          idsByShard.clear();
+          for (shard = 0; shard < sharded.getShardCount(); shard++) {
+            idsByShard.put(shard, ids);
+          }
+          break;
+        }
+        Set<Long> shardIds = idsByShard.get(shard);
+        if (shardIds == null) {
+          shardIds = new HashSet<Long>();
+          idsByShard.put(shard, shardIds);
+        }
+        shardIds.add(id);
+      }
+      Map<Integer, ShardedDatabaseConnection.ShardOperation<Set<T>>> operations = new HashMap<Integer, ShardedDatabaseConnection.ShardOperation<Set<T>>>();
+      for (final Map.Entry<Integer, Set<Long>> entry : idsByShard.entrySet()) {
+        operations.put(entry.getKey(), new ShardedDatabaseConnection.ShardOperation<Set<T>>() {
+          @Override
+          public Set<T> run() throws IOException {
+            Set<T> shardFound = new HashSet<T>();
+            queryByForeignKey(shardFound, foreignKey, entry.getValue());
+            return shardFound;
+          }
+        });
+      }
+      for (Set<T> shardFound : onShards(sharded, operations).values()) {
+        foundSet.addAll(shardFound);
+      }
+      return;
+    }
+    StringBuilder statementString = new StringBuilder();
+    statementString.append("SELECT * FROM ");
+    statementString.append(tableName);
+    statementString.append(" WHERE " + foreignKey + " in (");
+    Iterator<Long> iter = ids.iterator();
+    while (iter.hasNext()) {
+      Long obj = iter.next();
+      statementString.append(obj.toString());
+      if (iter.hasNext()) {
+        statementString.append(",");
+      }
+    }
+    statementString.append(")");
+
+    int retryCount = 0;
+
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+
+    while (true) {
+      try {
+        stmt = getReadPreparedStatement(statementString.toString());
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          T inst = instanceFromResultSet(rs);
+          inst.setCreated(true);
+          foundSet.add(cacheLoaded(inst));
+        }
+        break;
+      } catch (SQLRecoverableException e) {
+        conn.resetConnection();
+        if (++retryCount > MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      } finally {
+        try {
+          if (rs != null) {
+            rs.close();
+          }
+          if (stmt != null) {
+            stmt.close();
+          }
+        } catch (SQLRecoverableException e) {
+          conn.resetConnection();
+        } catch (SQLException e) {
+        }
+      }
+    }
+  }
+
+  protected abstract void setAttrs(T model, PreparedStatement stmt)
+      throws SQLException;
+
+  /**
+   * Binds a value of the field, converted to its column type.
+   */
+  protected abstract void setFieldParameter(PreparedStatement stmt, int index, Enum field, Object value)
+      throws SQLException;
+
+  @Override
+  public boolean increment(long id, Enum field, long delta) throws IOException {
+    return increment(Collections.singleton(id), field, delta) == 1;
+  }
+
+  @Override
+  public int increment(Collection<Long> ids, Enum field, final long delta) throws IOException {
+    String column = getQuotedColumn(field);
+    // as in the models, a NULL counter counts as 0
+    return updateColumns(ids, field, column + " = COALESCE(" + column + ", 0) + ?", new AttrSetter() {
+      @Override
+      public void set(PreparedStatement stmt) throws SQLException {
+        stmt.setLong(1, delta);
+      }
+    });
+  }
+
+  @Override
+  public boolean updateField(long id, Enum field, Object value) throws IOException {
+    return updateField(Collections.singleton(id), field, value) == 1;
+  }
+
+  @Override
+  public int updateField(Collection<Long> ids, final Enum field, final Object value) throws IOException {
+    return updateColumns(ids, field, getQuotedColumn(field) + " = ?", new AttrSetter() {
+      @Override
+      public void set(PreparedStatement stmt) throws SQLException {
+        setFieldParameter(stmt, 1, field, value);
+      }
+    });
+  }
+
+  private String getQuotedColumn(Enum field) {
+    if (!fieldNames.contains(field.name())) {
+      throw new IllegalArgumentException("Unknown field " + field + " for " + tableName);
+    }
+    return idQuoteString + field.name() + idQuoteString;
+  }
+
+  /**
+   * Sends a single UPDATE of the given columns for all the ids, bumping
+   * updated_at like save() does, and evicts the records from the caches
+   * rather than guessing their new values.
+   */
+  private int updateColumns(Collection<Long> ids, final Enum field, final String setClause, final AttrSetter setter) throws IOException {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sum(onShardsOfIds(sharded, ids, new IdsOperation<Integer>() {
+        @Override
+        public Integer run(Set<Long> shardIds) throws IOException {
+          return updateColumns(shardIds, field, setClause, setter);
+        }
+      }));
+    }
+    // pending saves of these records must not overwrite the update
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.flush();
+    }
+    final Set<Long> idSet = new HashSet<Long>(ids);
+    final Enum updatedAtField = fieldNames.contains(UPDATED_AT) && !field.name().equals(UPDATED_AT)
+        ? getUpdatedAtField(field) : null;
+    final String statement = "UPDATE " + tableName + " SET " + setClause
+        + (updatedAtField == null ? "" : ", " + getQuotedColumn(updatedAtField) + " = ?")
+        + " WHERE " + getIdSetCondition(idSet);
+    int updated;
+    try {
+      updated = executeWrite(new GroupCommitExecutor.Write<Integer>() {
+        @Override
+        public Integer execute() throws SQLException {
+          PreparedStatement stmt = prepareStatement(statement);
+          try {
+            setter.set(stmt);
+            if (updatedAtField != null) {
+              setFieldParameter(stmt, 2, updatedAtField, System.currentTimeMillis());
+            }
+            return stmt.executeUpdate();
+          } finally {
+            stmt.close();
+          }
+        }
+      });
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    for (Long id : idSet) {
+      cachedById.remove(id);
+    }
+    clearForeignKeyCache();
+    // the new values are computed by the database
+    updateReplicaOnCommit(new BaseDatabaseConnection.CommitAction() {
+      @Override
+      public void run() throws IOException {
+        reloadIntoReplica(idSet);
+      }
+    });
+    for (Long id : idSet) {
+      afterWrite(id, null);
+    }
+    return updated;
+  }
+
+  @Override
+  public boolean save(final T model) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sharded.onShard(sharded.getShard(tableName, model.getId()), new ShardedDatabaseConnection.ShardOperation<Boolean>() {
+        @Override
+        public Boolean run() throws IOException {
+          return save(model);
+        }
+      });
+    }
+    Long oldUpdatedAt = handleRailsUpdatedAt(model);
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.registerSave(this, model);
+      if (useCache) {
+        cacheVersion(model.getId(), model);
+      }
+      clearForeignKeyCache();
+      return true;
+    }
+    if (model.isCreated()) {
+      try {
+        boolean success = executeWrite(new GroupCommitExecutor.Write<Boolean>() {
+          @Override
+          public Boolean execute() throws SQLException {
+            PreparedStatement saveStmt = prepareSaveStmt();
+            try {
+              setAttrs(model, saveStmt);
+              saveStmt.execute();
+              return saveStmt.getUpdateCount() == 1;
+            } finally {
+              saveStmt.close();
+            }
+          }
+        });
+        if (success && useCache) {
+          cacheVersion(model.getId(), model);
+        }
+        clearForeignKeyCache();
+        if (success) {
+          updateReplica(Collections.singleton(model), Collections.<Long>emptySet());
+        }
+        afterWrite(model.getId(), model);
+        return success;
+      } catch (SQLException e) {
+        revertRailsUpdatedAt(model, oldUpdatedAt);
+        throw new IOException(e);
+      }
+    } else {
+      try {
+        boolean success = executeWrite(new GroupCommitExecutor.Write<Boolean>() {
+          @Override
+          public Boolean execute() throws SQLException {
+            PreparedStatement insertStmt = prepareStatement(getInsertWithIdStatement(fieldNames));
+            try {
+              setAttrs(model, insertStmt);
+              insertStmt.setLong(fieldNames.size() + 1, model.getId());
+              insertStmt.execute();
+              return insertStmt.getUpdateCount() == 1;
+            } finally {
+              insertStmt.close();
+            }
+          }
+        });
+        if (success && useCache) {
+          cacheVersion(model.getId(), model);
+        }
+        clearForeignKeyCache();
+        if (success) {
+          updateReplica(Collections.singleton(model), Collections.<Long>emptySet());
+        }
+        afterWrite(model.getId(), model);
+        model.setCreated(true);
+        return success;
+      } catch (SQLException e) {
+        revertRailsUpdatedAt(model, oldUpdatedAt);
+        throw new IOException(e);
+      }
+    }
+  }
+
+  @Override
+  public boolean upsert(T model) throws IOException {
+    return upsertAll(Collections.singletonList(model)) == 1;
+  }
+
+  @Override
+  public int upsertAll(final Collection<T> models) throws IOException {
+    if (models.isEmpty()) {
+      return 0;
+    }
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      List<Long> ids = new ArrayList<Long>();
+      for (T model : models) {
+        ids.add(model.getId());
+      }
+      return sum(onShardsOfIds(sharded, ids, new IdsOperation<Integer>() {
+        @Override
+        public Integer run(Set<Long> shardIds) throws IOException {
+          List<T> shardModels = new ArrayList<T>();
+          for (T model : models) {
+            if (shardIds.contains(model.getId())) {
+              shardModels.add(model);
+            }
+          }
+          return upsertAll(shardModels);
+        }
+      }));
+    }
+    if (!upsertSupported) {
+      throw new UnsupportedOperationException("Upserts into " + tableName + " need PostgreSQL 9.5 or later, for INSERT ... ON CONFLICT");
+    }
+    // pending writes of these records must happen before the upsert
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.flush();
+    }
+    final List<T> upserted = new ArrayList<T>(models);
+    List<Long> oldUpdatedAts = new ArrayList<Long>();
+    for (T model : upserted) {
+      oldUpdatedAts.add(handleRailsUpdatedAt(model));
+    }
+    try {
+      executeWrite(new GroupCommitExecutor.Write<Void>() {
+        @Override
+        public Void execute() throws SQLException {
+          executeBatch(prepareStatement(getUpsertStatement()), upserted);
+          return null;
+        }
+      });
+    } catch (SQLException e) {
+      for (int i = 0; i < upserted.size(); i++) {
+        revertRailsUpdatedAt(upserted.get(i), oldUpdatedAts.get(i));
+      }
+      throw new IOException(e);
+    }
+    for (T model : upserted) {
+      model.setCreated(true);
+      if (useCache) {
+        cacheVersion(model.getId(), model);
+      }
+    }
+    clearForeignKeyCache();
+    updateReplica(upserted, Collections.<Long>emptySet());
+    for (T model : upserted) {
+      afterWrite(model.getId(), model);
+    }
+    return upserted.size();
+  }
+
+  /**
+   * Sends the saves recorded by a unit of work: one JDBC batch of updates
+   * for the records that exist, and one of inserts for the others.
+   */
+  void flushSaves(Collection<T> models) throws IOException {
+    List<T> updates = new ArrayList<T>();
+    List<T> inserts = new ArrayList<T>();
+    for (T model : models) {
+      (model.isCreated() ? updates : inserts).add(model);
+    }
+    try {
+      if (!updates.isEmpty()) {
+        executeBatch(prepareSaveStmt(), updates);
+      }
+      if (!inserts.isEmpty()) {
+        executeBatch(prepareStatement(getInsertWithIdStatement(fieldNames)), inserts);
+        for (T model : inserts) {
+          model.setCreated(true);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    updateReplica(models, Collections.<Long>emptySet());
+    for (T model : models) {
+      afterWrite(model.getId(), model);
+    }
+  }
+
+  private void executeBatch(PreparedStatement stmt, List<T> models) throws SQLException {
+    try {
+      for (T model : models) {
+        setAttrs(model, stmt);
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+    } finally {
+      stmt.close();
+    }
+  }
 
-  protected final static Integer getIntOrNull(ResultSet rs, String column)
-      throws SQLException {
-    Integer value = rs.getInt(column);
-    return rs.wasNull() ? null : value;
+  /**
+   * Sends the deletes recorded by a unit of work, as a single statement.
+   */
+  void flushDeletes(Set<Long> ids) throws IOException {
+    try {
+      PreparedStatement stmt = prepareStatement("DELETE FROM " + tableName + " WHERE " + getIdSetCondition(ids));
+      try {
+        stmt.executeUpdate();
+      } finally {
+        stmt.close();
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    updateReplica(Collections.<T>emptySet(), ids);
+    for (Long id : ids) {
+      afterWrite(id, null);
+    }
   }
 
-  protected final static Long getLongOrNull(ResultSet rs, String column)
-      throws SQLException {
-    Long value = rs.getLong(column);
-    return rs.wasNull() ? null : value;
+  private static String qmarks(int size) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      if (i != 0) {
+        sb.append(", ");
+      }
+      sb.append("?");
+    }
+    return sb.toString();
   }
 
-  protected final static Double getDoubleOrNull(ResultSet rs, String column)
-      throws SQLException {
-    Double value = rs.getDouble(column);
-    return rs.wasNull() ? null : value;
+  public String getTableName() {
+    return tableName;
   }
 
-  protected final static Boolean getBooleanOrNull(ResultSet rs, String column)
-      throws SQLException {
-    Boolean value = rs.getBoolean(column);
-    return rs.wasNull() ? null : value;
+  @Override
+  public boolean delete(final long id) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sharded.onShard(sharded.getShard(tableName, id), new ShardedDatabaseConnection.ShardOperation<Boolean>() {
+        @Override
+        public Boolean run() throws IOException {
+          return delete(id);
+        }
+      });
+    }
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.registerDelete(this, id);
+      cachedById.remove(id);
+      clearForeignKeyCache();
+      return true;
+    }
+    try {
+      boolean success = executeWrite(new GroupCommitExecutor.Write<Boolean>() {
+        @Override
+        public Boolean execute() throws SQLException {
+          PreparedStatement stmt = prepareStatement(String.format(
+              "DELETE FROM %s WHERE id=%d", tableName, id));
+          try {
+            return stmt.executeUpdate() == 1;
+          } finally {
+            stmt.close();
+          }
+        }
+      });
+      T deletedModel = null;
+      if (success) {
+        deletedModel = cachedById.remove(id);
+      }
+      clearForeignKeyCache();
+      updateReplica(Collections.<T>emptySet(), Collections.singleton(id));
+      afterWrite(id, deletedModel);
+      return success;
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
   }
 
-  protected final static Date getDate(ResultSet rs, String column)
-      throws SQLException {
-    Timestamp timestamp = rs.getTimestamp(column);
-    if (timestamp == null) {
-      return null;
+  @Override
+  public boolean delete(T model) throws IOException {
+    return delete(model.getId());
+  }
+
+  @Override
+  public int delete(Collection<Long> ids) throws IOException {
+    if (ids.isEmpty()) {
+      return 0;
     }
-    return new Date(timestamp.getTime());
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sum(onShardsOfIds(sharded, ids, new IdsOperation<Integer>() {
+        @Override
+        public Integer run(Set<Long> shardIds) throws IOException {
+          return delete(shardIds);
+        }
+      }));
+    }
+    Set<Long> idSet = new HashSet<Long>(ids);
+    int deleted = executeDelete("DELETE FROM " + tableName + " WHERE " + getIdSetCondition(idSet), null);
+    for (Long id : idSet) {
+      cachedById.remove(id);
+    }
+    clearForeignKeyCache();
+    updateReplica(Collections.<T>emptySet(), idSet);
+    for (Long id : idSet) {
+      afterWrite(id, null);
+    }
+    return deleted;
   }
 
-  protected final static Long getDateAsLong(ResultSet rs, String column)
-      throws SQLException {
-    Date date = getDate(rs, column);
-    return date == null ? null : date.getTime();
+  /**
+   * A query without constraints would make a statement without a WHERE,
+   * applied to the whole table.
+   */
+  static void requireWhereClause(ModelQuery query, String alternative) {
+    if (query.getWhereClause().isEmpty()) {
+      throw new IllegalArgumentException("The query has no constraint and would apply to every record; use " + alternative + " for that");
+    }
   }
 
   @Override
-  public void clearCacheByForeignKey(String foreignKey, long id) {
-    Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
-    if (foreignKeyCache != null) {
-      foreignKeyCache.remove(id);
+  public int deleteWhere(final ModelQuery query) throws IOException {
+    requireWhereClause(query, "deleteAll()");
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      if (query.getLimitCriterion().isPresent()) {
+        throw new UnsupportedOperationException("A DELETE with a LIMIT is not supported on the sharded table " + tableName);
+      }
+      return sum(onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Integer>() {
+        @Override
+        public Integer run() throws IOException {
+          return deleteWhere(query);
+        }
+      }));
+    }
+    String statement = "DELETE FROM " + tableName + " " + query.getWhereClause();
+    if (query.getLimitCriterion().isPresent()) {
+      if (postgres) {
+        throw new UnsupportedOperationException("PostgreSQL does not support DELETE with a LIMIT");
+      }
+      statement += "LIMIT " + query.getLimitCriterion().get().getNResults();
+    }
+    int deleted = executeDelete(statement, query);
+    afterWriteWhere();
+    return deleted;
+  }
+
+  @Override
+  public int deleteWhere(final ModelQuery query, final int chunkSize) throws IOException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+    }
+    requireWhereClause(query, "deleteAll()");
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sum(onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Integer>() {
+        @Override
+        public Integer run() throws IOException {
+          return deleteWhere(query, chunkSize);
+        }
+      }));
+    }
+    String statement;
+    if (postgres) {
+      statement = "DELETE FROM " + tableName + " WHERE id IN (SELECT id FROM " + tableName + " "
+          + query.getWhereClause() + "LIMIT " + chunkSize + ")";
+    } else {
+      statement = "DELETE FROM " + tableName + " " + query.getWhereClause() + "LIMIT " + chunkSize;
+    }
+    // each chunk is a statement of its own, so that in autocommit mode no
+    // lock is held for longer than one chunk takes
+    int deleted = 0;
+    try {
+      while (true) {
+        int chunk = executeDelete(statement, query);
+        deleted += chunk;
+        if (chunk < chunkSize) {
+          return deleted;
+        }
+      }
+    } finally {
+      afterWriteWhere();
+    }
+  }
+
+  @Override
+  public int updateWhere(final ModelQuery query, final Map<Enum, Object> values) throws IOException {
+    if (values.isEmpty()) {
+      throw new IllegalArgumentException("No field to update for " + tableName);
+    }
+    requireWhereClause(query, "an UPDATE of your own");
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      if (query.getLimitCriterion().isPresent()) {
+        throw new UnsupportedOperationException("An UPDATE with a LIMIT is not supported on the sharded table " + tableName);
+      }
+      return sum(onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Integer>() {
+        @Override
+        public Integer run() throws IOException {
+          return updateWhere(query, values);
+        }
+      }));
+    }
+    final List<Enum> fields = new ArrayList<Enum>(values.keySet());
+    final List<Object> fieldValues = new ArrayList<Object>(values.values());
+    boolean updatedAtSet = false;
+    for (Enum field : fields) {
+      updatedAtSet |= field.name().equals(UPDATED_AT);
+    }
+    if (fieldNames.contains(UPDATED_AT) && !updatedAtSet) {
+      fields.add(getUpdatedAtField(fields.get(0)));
+      fieldValues.add(System.currentTimeMillis());
+    }
+
+    StringBuilder statement = new StringBuilder("UPDATE " + tableName + " SET ");
+    for (int i = 0; i < fields.size(); i++) {
+      if (i != 0) {
+        statement.append(", ");
+      }
+      statement.append(getQuotedColumn(fields.get(i))).append(" = ?");
+    }
+    statement.append(" ").append(query.getWhereClause());
+    if (query.getLimitCriterion().isPresent()) {
+      if (postgres) {
+        throw new UnsupportedOperationException("PostgreSQL does not support UPDATE with a LIMIT");
+      }
+      statement.append("LIMIT ").append(query.getLimitCriterion().get().getNResults());
+    }
+    final String sql = statement.toString();
+
+    // pending saves of the matching records must not overwrite the update
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.flush();
+    }
+    try {
+      return executeWrite(new GroupCommitExecutor.Write<Integer>() {
+        @Override
+        public Integer execute() throws SQLException {
+          PreparedStatement stmt = prepareStatement(sql);
+          try {
+            for (int i = 0; i < fields.size(); i++) {
+              setFieldParameter(stmt, i + 1, fields.get(i), fieldValues.get(i));
+            }
+            setStatementParameters(stmt, query, fields.size());
+            return stmt.executeUpdate();
+          } catch (IOException e) {
+            throw new SQLException(e);
+          } finally {
+            stmt.close();
+          }
+        }
+      });
+    } catch (SQLException e) {
+      throw new IOException(e);
+    } finally {
+      afterWriteWhere();
+    }
+  }
+
+  private int executeDelete(final String statement, final ModelQuery query) throws IOException {
+    // pending writes must happen before the delete
+    UnitOfWork unitOfWork = conn.getUnitOfWork();
+    if (unitOfWork != null) {
+      unitOfWork.flush();
+    }
+    try {
+      return executeWrite(new GroupCommitExecutor.Write<Integer>() {
+        @Override
+        public Integer execute() throws SQLException {
+          PreparedStatement stmt = prepareStatement(statement);
+          try {
+            if (query != null) {
+              setStatementParameters(stmt, query);
+            }
+            return stmt.executeUpdate();
+          } catch (IOException e) {
+            throw new SQLException(e);
+          } finally {
+            stmt.close();
+          }
+        }
+      });
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * The written ids are not known, so nothing cached for the table is kept.
+   */
+  private void afterWriteWhere() throws IOException {
+    cachedById.clear();
+    clearForeignKeyCache();
+    updateReplicaOnCommit(new BaseDatabaseConnection.CommitAction() {
+      @Override
+      public void run() throws IOException {
+        refreshReplica();
+      }
+    });
+    afterWrite(null, null);
+  }
+
+  @Override
+  public boolean deleteAll() throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return !onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Boolean>() {
+        @Override
+        public Boolean run() throws IOException {
+          return deleteAll();
+        }
+      }).contains(false);
+    }
+    try {
+      PreparedStatement stmt = prepareStatement(String.format(
+          "TRUNCATE TABLE %s", tableName));
+      boolean success;
+      try {
+        success = stmt.executeUpdate() >= 0;
+      } finally {
+        stmt.close();
+      }
+      cachedById.clear();
+      clearForeignKeyCache();
+      updateReplicaOnCommit(new BaseDatabaseConnection.CommitAction() {
+        @Override
+        public void run() {
+          clearReplica();
+        }
+      });
+      afterWrite(null, null);
+      return success;
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public Set<T> findAll() throws IOException {
+    applyPendingInvalidations();
+    TableSnapshot<T> snapshot = replica;
+    if (snapshot != null) {
+      return new HashSet<T>(snapshot.findAll());
+    }
+    return findAll("1=1");
+  }
+
+  @Override
+  public Set<T> findAll(String conditions) throws IOException {
+    applyPendingInvalidations();
+    return loadAll(conditions, 0, false);
+  }
+
+  @Override
+  public Set<T> findAll(String conditions, int fetchSize) throws IOException {
+    if (fetchSize <= 0) {
+      throw new IllegalArgumentException("Invalid fetch size " + fetchSize);
+    }
+    applyPendingInvalidations();
+    return loadAll(conditions, fetchSize, false);
+  }
+
+  @Override
+  public Set<T> findAllStreaming(String conditions) throws IOException {
+    applyPendingInvalidations();
+    return loadAll(conditions, 0, true);
+  }
+
+  private Set<T> loadAll(final String conditions, final int fetchSize, final boolean streaming) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      Set<T> results = new HashSet<T>();
+      for (Set<T> shardResults : onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<Set<T>>() {
+        @Override
+        public Set<T> run() throws IOException {
+          return loadAll(conditions, fetchSize, streaming);
+        }
+      })) {
+        results.addAll(shardResults);
+      }
+      return results;
+    }
+    final Set<T> results = new HashSet<T>();
+    fetchRows("SELECT * FROM " + getTableName() + " WHERE " + conditions + ";", null, fetchSize, streaming, null, new RecordVisitor<T>() {
+      @Override
+      public boolean visitRecord(T record) {
+        results.add(useCache ? cachedById.canonicalize(record.getId(), record) : record);
+        return true;
+      }
+    });
+    return results;
+  }
+
+  @Override
+  public void findAllStreaming(String conditions, RecordVisitor<T> visitor) throws IOException {
+    applyPendingInvalidations();
+    stream("SELECT * FROM " + getTableName() + " WHERE " + conditions + ";", null, 0, canonicalizing(visitor));
+  }
+
+  @Override
+  public Set<T> findAll(String conditions, RecordSelector<T> selector)
+      throws IOException {
+    return findAll(conditions);
+  }
+
+  @Override
+  public boolean isCaching() {
+    return useCache;
+  }
+
+  @Override
+  public void enableCaching() {
+    synchronized (cacheUsage) {
+      useCache = true;
+      cacheUsage.startWindow(false);
+    }
+  }
+
+  @Override
+  public void disableCaching() {
+    synchronized (cacheUsage) {
+      adaptiveCachePolicy = null;
+      useCache = false;
+      cacheUsage.startWindow(false);
+    }
+  }
+
+  @Override
+  public void enableAdaptiveCaching(AdaptiveCachePolicy policy) {
+    synchronized (cacheUsage) {
+      adaptiveCachePolicy = policy;
+      useCache = true;
+      cacheUsage.startWindow(false);
+    }
+  }
+
+  @Override
+  public void disableAdaptiveCaching() {
+    synchronized (cacheUsage) {
+      adaptiveCachePolicy = null;
+      if (cacheUsage.isBypassed()) {
+        useCache = true;
+        cacheUsage.startWindow(false);
+      }
+    }
+  }
+
+  @Override
+  public CacheStatistics getCacheStatistics() {
+    long cachedEntries = cachedById.size();
+    synchronized (cachedByForeignKey) {
+      for (Map<Long, Set<T>> foreignKeyCache : cachedByForeignKey.values()) {
+        cachedEntries += foreignKeyCache.size();
+      }
+    }
+    return cacheUsage.getStatistics(cachedEntries);
+  }
+
+  /**
+   * At the end of each window of the adaptive policy, decide whether caching
+   * should be bypassed for the next one. The cache is emptied when bypassed,
+   * both to free its memory and because it is not kept up to date meanwhile.
+   */
+  private void adaptCaching() {
+    AdaptiveCachePolicy policy = adaptiveCachePolicy;
+    if (policy == null || !cacheUsage.isWindowComplete(policy.getWindowMillis())) {
+      return;
+    }
+    synchronized (cacheUsage) {
+      if (adaptiveCachePolicy == null || !cacheUsage.isWindowComplete(policy.getWindowMillis())) {
+        return;
+      }
+      boolean shouldCache = policy.shouldCache(getCacheStatistics());
+      if (!shouldCache && !cacheUsage.isBypassed()) {
+        useCache = false;
+        cachedById.clear();
+        clearForeignKeyCache();
+      } else if (shouldCache && cacheUsage.isBypassed()) {
+        useCache = true;
+      }
+      cacheUsage.startWindow(!shouldCache);
+    }
+  }
+
+  @Override
+  public void enableIdentityMap(IdentityMap.ValueStrength valueStrength) {
+    cachedById.setValueStrength(valueStrength);
+    if (valueStrength != IdentityMap.ValueStrength.STRONG) {
+      clearForeignKeyCache();
+    }
+    canonicalizeModels = true;
+  }
+
+  @Override
+  public void disableIdentityMap() {
+    canonicalizeModels = false;
+    cachedById.setValueStrength(IdentityMap.ValueStrength.STRONG);
+  }
+
+  @Override
+  public synchronized void enableRefreshAhead(long refreshAfterMillis) {
+    if (refreshAfterMillis <= 0) {
+      throw new IllegalArgumentException("Refresh-ahead age must be positive: " + refreshAfterMillis);
+    }
+    if (refreshAheadExecutor == null) {
+      openBackgroundConn();
+      refreshAheadExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("jack-refresh-" + tableName + "-%d")
+          .build());
+    }
+    refreshAheadMillis = refreshAfterMillis;
+  }
+
+  @Override
+  public synchronized void disableRefreshAhead() {
+    refreshAheadMillis = 0;
+    if (refreshAheadExecutor != null) {
+      refreshAheadExecutor.shutdownNow();
+      refreshAheadExecutor = null;
+      closeBackgroundConnIfUnused();
+    }
+  }
+
+  private void refreshAheadIfStale(long id) {
+    refreshAheadIfStale(id, findByIdLoads, getIdLoader(id));
+  }
+
+  private void refreshAheadIfStale(String foreignKey, long id) {
+    List<Object> key = Arrays.<Object>asList(foreignKey, id);
+    refreshAheadIfStale(key, findByForeignKeyLoads, getForeignKeyLoader(foreignKey, id));
+  }
+
+  /**
+   * Reload a cached entry in the background once it is older than the
+   * refresh-ahead age. The caller keeps being served the current value.
+   */
+  private <K, V> void refreshAheadIfStale(final K key, final SingleFlight<K, V> loads, final SingleFlight.Loader<V> loader) {
+    if (refreshAheadMillis <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Long lastLoaded = loadedAt.get(key);
+    if (lastLoaded == null) {
+      // loaded by a bulk query: start counting from now
+      loadedAt.put(key, now);
+      return;
+    }
+    if (now - lastLoaded < refreshAheadMillis || loads.isInFlight(key)) {
+      return;
+    }
+    loadedAt.put(key, now);
+    synchronized (this) {
+      if (refreshAheadExecutor == null) {
+        return;
+      }
+      refreshAheadExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            loadInBackground(new ShardedDatabaseConnection.ShardOperation<V>() {
+              @Override
+              public V run() throws IOException {
+                return loads.get(key, loader);
+              }
+            });
+          } catch (IOException e) {
+            // the stale entry stays cached and will be refreshed on a later hit
+          } catch (RuntimeException e) {
+            // same as above
+          }
+        }
+      });
     }
   }
 
   @Override
-  public void clearCacheById(long id) throws IOException {
-    cachedById.remove(id);
+  public void enableRevalidation() {
+    enableRevalidation(DEFAULT_REVALIDATE_AFTER_MILLIS);
   }
 
   @Override
-  public void clearForeignKeyCache() {
-    cachedByForeignKey.clear();
+  public void enableRevalidation(long revalidateAfterMillis) {
+    if (!fieldNames.contains(UPDATED_AT)) {
+      throw new UnsupportedOperationException("Table " + tableName + " has no " + UPDATED_AT + " column to revalidate against.");
+    }
+    this.revalidateAfterMillis = revalidateAfterMillis;
+    revalidateCache = true;
   }
 
   @Override
-  public Set<T> findAllByForeignKey(String foreignKey, long id)
-      throws IOException {
-    Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
-    Set<T> ret;
-    if (foreignKeyCache != null && useCache) {
-      ret = foreignKeyCache.get(id);
-      if (ret != null) {
-        return ret;
+  public void disableRevalidation() {
+    revalidateCache = false;
+  }
+
+  @Override
+  public int revalidate(Collection<Long> ids) throws IOException {
+    Map<Long, T> cachedModels = new HashMap<Long, T>();
+    for (Long id : ids) {
+      T model = cachedById.get(id);
+      if (model != null || cachedById.containsKey(id)) {
+        cachedModels.put(id, model);
       }
-    } else if (useCache) {
-      foreignKeyCache = new HashMap<Long, Set<T>>();
-      cachedByForeignKey.put(foreignKey, foreignKeyCache);
+    }
+    if (cachedModels.isEmpty()) {
+      return 0;
+    }
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      return sum(onShardsOfIds(sharded, cachedModels.keySet(), new IdsOperation<Integer>() {
+        @Override
+        public Integer run(Set<Long> shardIds) throws IOException {
+          return revalidate(shardIds);
+        }
+      }));
     }
 
+    // only the versions are read, and the records whose version changed
+    // are reloaded afterwards
+    Set<Long> changedIds = new HashSet<Long>();
+    Set<Long> storedIds = new HashSet<Long>();
     int retryCount = 0;
 
     PreparedStatement stmt = null;
@@ -505,26 +2803,19 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
     while (true) {
       try {
-        stmt = conn.getPreparedStatement(String.format(
-            "SELECT * FROM %s WHERE %s = %d;", tableName, foreignKey, id));
+        stmt = prepareStatement("SELECT id, " + UPDATED_AT + " FROM " + tableName
+            + " WHERE " + getIdSetCondition(cachedModels.keySet()));
         rs = stmt.executeQuery();
-        ret = new HashSet<T>();
         while (rs.next()) {
-          T inst = instanceFromResultSet(rs);
-          inst.setCreated(true);
-          if (useCache) {
-            if (cachedById.containsKey(inst.getId())) {
-              inst = cachedById.get(inst.getId());
-            } else {
-              cachedById.put(inst.getId(), inst);
-            }
+          long id = rs.getLong("id");
+          storedIds.add(id);
+          T model = cachedModels.get(id);
+          // a cached null means the record did not exist when it was looked up
+          if (model == null || !isSameVersion((Long)model.getField(UPDATED_AT), getDateAsLong(rs, UPDATED_AT))) {
+            changedIds.add(id);
           }
-          ret.add(inst);
-        }
-        if (useCache) {
-          foreignKeyCache.put(id, ret);
         }
-        return ret;
+        break;
       } catch (SQLRecoverableException e) {
         conn.resetConnection();
         if (++retryCount > MAX_CONNECTION_RETRIES) {
@@ -546,191 +2837,449 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
         }
       }
     }
-  }
 
-  @Override
-  public Set<T> findAllByForeignKey(String foreignKey, Set<Long> ids)
-      throws IOException {
-    Map<Long, Set<T>> foreignKeyCache = cachedByForeignKey.get(foreignKey);
-    Set<T> foundSet = new HashSet<T>();
-    Set<Long> notCachedIds = new HashSet<Long>();
-    if (foreignKeyCache != null && useCache) {
-      for (Long id : ids) {
-        Set<T> results = foreignKeyCache.get(id);
-        if (results != null) {
-          foundSet.addAll(results);
-        } else {
-          notCachedIds.add(id);
-        }
+    int stale = 0;
+    if (!changedIds.isEmpty()) {
+      // a record deleted in between is not found again
+      storedIds.removeAll(changedIds);
+      for (T model : loadFromPrimary(changedIds)) {
+        cacheVersion(model.getId(), model);
+        storedIds.add(model.getId());
+        stale++;
       }
-    } else {
-      notCachedIds = ids;
-      if (useCache) {
-        foreignKeyCache = new HashMap<Long, Set<T>>();
-        cachedByForeignKey.put(foreignKey, foreignKeyCache);
+    }
+    for (Map.Entry<Long, T> entry : cachedModels.entrySet()) {
+      // deleted since it was cached
+      if (entry.getValue() != null && !storedIds.contains(entry.getKey())) {
+        cachedById.put(entry.getKey(), null);
+        stale++;
       }
     }
+    markValidated(cachedModels.keySet());
+    if (stale > 0) {
+      clearForeignKeyCache();
+    }
+    return stale;
+  }
 
-    if (!notCachedIds.isEmpty()) {
-      StringBuilder statementString = new StringBuilder();
-      statementString.append("SELECT * FROM ");
-      statementString.append(tableName);
-      statementString.append(" WHERE " + foreignKey + " in (");
-      Iterator<Long> iter = notCachedIds.iterator();
-      while (iter.hasNext()) {
-        Long obj = iter.next();
-        statementString.append(obj.toString());
-        if (iter.hasNext()) {
-          statementString.append(",");
-        }
+  private boolean needsRevalidation(long id) {
+    Long lastValidated = validatedAt.get(id);
+    return lastValidated == null || System.currentTimeMillis() - lastValidated >= revalidateAfterMillis;
+  }
+
+  private void markValidated(Collection<Long> ids) {
+    if (revalidateCache) {
+      long now = System.currentTimeMillis();
+      for (Long id : ids) {
+        validatedAt.put(id, now);
       }
-      statementString.append(")");
+    }
+  }
 
-      int retryCount = 0;
+  /**
+   * Caches the latest version of a record, or null if it does not exist.
+   * With the identity map, the instance already handed out is updated
+   * instead, so that it stays the only one.
+   *
+   * @return the instance cached for the id
+   */
+  private T cacheVersion(long id, T version) {
+    T cached = canonicalizeModels ? cachedById.get(id) : null;
+    if (cached == null || version == null) {
+      cachedById.put(id, version);
+      return version;
+    }
+    if (cached == version) {
+      return cached;
+    }
+    for (Object field : version.getFieldSet()) {
+      String name = ((Enum)field).name();
+      cached.setField(name, version.getField(name));
+    }
+    cached.setCreated(true);
+    return cached;
+  }
+
+  /**
+   * handleRailsUpdatedAt keeps milliseconds in the model, while columns
+   * without sub-second precision store whole seconds, truncated or rounded
+   * depending on the server. A stored time of whole seconds is taken to come
+   * from such a column, and the cached time is compared to the second.
+   */
+  private static boolean isSameVersion(Long cachedUpdatedAt, Long storedUpdatedAt) {
+    if (cachedUpdatedAt == null || storedUpdatedAt == null) {
+      return cachedUpdatedAt == storedUpdatedAt;
+    }
+    if (storedUpdatedAt % 1000 != 0) {
+      return storedUpdatedAt.equals(cachedUpdatedAt);
+    }
+    long truncated = cachedUpdatedAt - cachedUpdatedAt % 1000;
+    long rounded = cachedUpdatedAt % 1000 < 500 ? truncated : truncated + 1000;
+    return storedUpdatedAt == truncated || storedUpdatedAt == rounded;
+  }
 
-      PreparedStatement stmt = null;
-      ResultSet rs = null;
+  @Override
+  public void enableInMemoryQueries() {
+    evaluateQueriesInCache = true;
+  }
 
-      while (true) {
+  @Override
+  public void disableInMemoryQueries() {
+    evaluateQueriesInCache = false;
+  }
+
+  @Override
+  public void enableQueryCache(long maxEntries, long expirationMillis) {
+    queryCache = new QueryResultCache(maxEntries, expirationMillis);
+  }
+
+  @Override
+  public void disableQueryCache() {
+    queryCache = null;
+  }
+
+  @Override
+  public boolean isQueryCaching() {
+    return queryCache != null;
+  }
+
+  @Override
+  public synchronized void enableReplication(long refreshPeriodMillis) throws IOException {
+    if (refreshPeriodMillis <= 0) {
+      throw new IllegalArgumentException("Replica refresh period must be positive: " + refreshPeriodMillis);
+    }
+    disableReplication();
+    replica = loadSnapshot();
+    openBackgroundConn();
+    replicaRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("jack-replica-" + tableName + "-%d")
+        .build());
+    replicaRefresher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
         try {
-          stmt = conn.getPreparedStatement(statementString.toString());
-          rs = stmt.executeQuery();
-          while (rs.next()) {
-            T inst = instanceFromResultSet(rs);
-            inst.setCreated(true);
-            foundSet.add(inst);
-            if (useCache) {
-              cachedById.put(inst.getId(), inst);
-            }
-          }
-          break;
-        } catch (SQLRecoverableException e) {
-          conn.resetConnection();
-          if (++retryCount > MAX_CONNECTION_RETRIES) {
-            throw new IOException(e);
-          }
-        } catch (SQLException e) {
-          throw new IOException(e);
-        } finally {
-          try {
-            if (rs != null) {
-              rs.close();
-            }
-            if (stmt != null) {
-              stmt.close();
+          loadInBackground(new ShardedDatabaseConnection.ShardOperation<Boolean>() {
+            @Override
+            public Boolean run() throws IOException {
+              return tryRefreshReplica();
             }
-          } catch (SQLRecoverableException e) {
-            conn.resetConnection();
-          } catch (SQLException e) {
-          }
+          });
+        } catch (IOException e) {
+          // keep serving the previous snapshot until the next refresh succeeds
+        } catch (RuntimeException e) {
+          // same as above
         }
       }
-    }
-    return foundSet;
+    }, refreshPeriodMillis, refreshPeriodMillis, TimeUnit.MILLISECONDS);
   }
 
-  protected abstract void setAttrs(T model, PreparedStatement stmt)
-      throws SQLException;
+  @Override
+  public synchronized void disableReplication() {
+    if (replicaRefresher != null) {
+      replicaRefresher.shutdownNow();
+      replicaRefresher = null;
+      closeBackgroundConnIfUnused();
+    }
+    replica = null;
+  }
 
   @Override
-  public boolean save(T model) throws IOException {
-    Long oldUpdatedAt = handleRailsUpdatedAt(model);
-    if (model.isCreated()) {
-      PreparedStatement saveStmt = getSaveStmt();
-      try {
-        setAttrs(model, saveStmt);
-        saveStmt.execute();
-        boolean success = saveStmt.getUpdateCount() == 1;
-        saveStmt.close();
-        if (success && useCache) {
-          cachedById.put(model.getId(), model);
-        }
-        clearForeignKeyCache();
-        return success;
-      } catch (SQLException e) {
-        revertRailsUpdatedAt(model, oldUpdatedAt);
-        throw new IOException(e);
+  public boolean isReplicated() {
+    return replica != null;
+  }
+
+  /**
+   * Load the whole table and atomically swap it in as the new replica. Does
+   * nothing if replication is not enabled.
+   */
+  public void refreshReplica() throws IOException {
+    while (replica != null && !tryRefreshReplica()) {
+      // writes were applied to the replica during the load: load again
+    }
+  }
+
+  /**
+   * Returns false, and keeps the current replica, if writes were applied to
+   * it while the table was loaded, since the new snapshot may not have them.
+   */
+  private boolean tryRefreshReplica() throws IOException {
+    long changes;
+    synchronized (this) {
+      changes = replicaChanges;
+    }
+    TableSnapshot<T> snapshot = loadSnapshot();
+    synchronized (this) {
+      if (replica == null) {
+        return true;
       }
-    } else {
-      PreparedStatement insertStmt = conn.getPreparedStatement(getInsertWithIdStatement(fieldNames));
-      try {
-        setAttrs(model, insertStmt);
-        insertStmt.setLong(fieldNames.size() + 1, model.getId());
-        insertStmt.execute();
-        boolean success = insertStmt.getUpdateCount() == 1;
-        insertStmt.close();
-        if (success && useCache) {
-          cachedById.put(model.getId(), model);
-        }
-        clearForeignKeyCache();
-        model.setCreated(true);
-        return success;
-      } catch (SQLException e) {
-        revertRailsUpdatedAt(model, oldUpdatedAt);
-        throw new IOException(e);
+      if (replicaChanges != changes) {
+        return false;
       }
+      replica = snapshot;
+      return true;
     }
   }
 
-  private static String qmarks(int size) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < size; i++) {
-      if (i != 0) {
-        sb.append(", ");
+  /**
+   * Applies a write made through this persistence to the replica, without
+   * reloading the table, once its transaction commits. The saved models are
+   * copied right away, so that later changes to them are not seen before
+   * they are saved.
+   */
+  private void updateReplica(Collection<T> saved, final Collection<Long> deleted) throws IOException {
+    if (replica == null) {
+      return;
+    }
+    final List<T> copies = new ArrayList<T>();
+    for (T model : saved) {
+      copies.add(getCopy(model));
+    }
+    conn.runOnCommit(new BaseDatabaseConnection.CommitAction() {
+      @Override
+      public void run() {
+        applyToReplica(copies, deleted);
       }
-      sb.append("?");
+    });
+  }
+
+  // the generated models return a copy of their own class
+  @SuppressWarnings("unchecked")
+  private T getCopy(T model) {
+    return (T)model.getCopy();
+  }
+
+  private synchronized void applyToReplica(Collection<T> saved, Collection<Long> deleted) {
+    if (replica == null) {
+      return;
     }
-    return sb.toString();
+    replica = replica.withChanges(saved, deleted);
+    replicaChanges++;
   }
 
-  public String getTableName() {
-    return tableName;
+  private synchronized void clearReplica() {
+    if (replica != null) {
+      replica = new TableSnapshot<T>(Collections.<T>emptySet());
+      replicaChanges++;
+    }
   }
 
-  @Override
-  public boolean delete(long id) throws IOException {
-    PreparedStatement stmt = conn.getPreparedStatement(String.format(
-        "DELETE FROM %s WHERE id=%d", tableName, id));
-    try {
-      boolean success = stmt.executeUpdate() == 1;
-      stmt.close();
-      if (success) {
-        cachedById.remove(id);
+  /**
+   * Runs a change to the replica that reads the table once the transaction
+   * of the write commits, so that it reads the committed records.
+   */
+  private void updateReplicaOnCommit(BaseDatabaseConnection.CommitAction action) throws IOException {
+    if (replica != null) {
+      conn.runOnCommit(action);
+    }
+  }
+
+  /**
+   * Reads the records of the ids again and applies them to the replica, for
+   * writes whose new values are only known to the database. The ids with no
+   * record left are removed.
+   */
+  private void reloadIntoReplica(Set<Long> ids) throws IOException {
+    if (replica == null) {
+      return;
+    }
+    List<T> models = loadFromPrimary(ids);
+    Set<Long> deleted = new HashSet<Long>(ids);
+    for (T model : models) {
+      deleted.remove(model.getId());
+    }
+    applyToReplica(models, deleted);
+  }
+
+  /**
+   * The connection of the background loads is opened with the first of
+   * them, and closed when neither is enabled any more.
+   */
+  private synchronized void openBackgroundConn() {
+    if (backgroundConn == null) {
+      backgroundConn = conn.newDedicatedConnection();
+    }
+  }
+
+  private synchronized void closeBackgroundConnIfUnused() {
+    if (backgroundConn != null && replicaRefresher == null && refreshAheadExecutor == null) {
+      backgroundConn.discardConnection();
+    }
+  }
+
+  /**
+   * Called after writing the record with the given id, or the whole table
+   * if id is null. The model is the written record when it is known.
+   */
+  private void afterWrite(Long id, T model) throws IOException {
+    cacheUsage.recordWrite();
+    QueryResultCache resultCache = queryCache;
+    if (resultCache != null) {
+      resultCache.invalidateAll();
+    }
+    InvalidationBus bus = invalidationBus;
+    if (bus != null) {
+      conn.publishOnCommit(bus, new InvalidationEvent(invalidationSourceId, tableName, id,
+          model == null ? null : getIntegerFieldValues(model)));
+    }
+  }
+
+  private Map<String, Long> getIntegerFieldValues(T model) {
+    Map<String, Long> values = new HashMap<String, Long>();
+    for (String fieldName : fieldNames) {
+      Object value = model.getField(fieldName);
+      if (value instanceof Integer || value instanceof Long) {
+        values.put(fieldName, ((Number)value).longValue());
       }
-      clearForeignKeyCache();
-      return success;
-    } catch (SQLException e) {
-      throw new IOException(e);
     }
+    return values;
   }
 
   @Override
-  public boolean delete(T model) throws IOException {
-    return delete(model.getId());
+  public synchronized void setInvalidationBus(InvalidationBus bus) {
+    if (invalidationBus != null) {
+      invalidationBus.unsubscribe(tableName, invalidationListener);
+    }
+    invalidationBus = bus;
+    if (bus != null) {
+      bus.subscribe(tableName, invalidationListener);
+    }
   }
 
   @Override
-  public boolean deleteAll() throws IOException {
-    PreparedStatement stmt = conn.getPreparedStatement(String.format(
-        "TRUNCATE TABLE %s", tableName));
-    try {
-      boolean success = stmt.executeUpdate() >= 0;
-      stmt.close();
-      cachedById.clear();
-      clearForeignKeyCache();
-      return success;
-    } catch (SQLException e) {
-      throw new IOException(e);
+  public synchronized void setCounterBuffer(CounterBuffer buffer) {
+    if (buffer != null && conn instanceof ShardedDatabaseConnection) {
+      throw new UnsupportedOperationException("Counter buffers are not supported on the sharded table " + tableName);
+    }
+    if (counterBuffer != null) {
+      counterBuffer.unsubscribe(tableName, invalidationListener);
+    }
+    counterBuffer = buffer;
+    if (buffer != null) {
+      buffer.subscribe(tableName, invalidationListener);
     }
   }
 
   @Override
-  public Set<T> findAll() throws IOException {
-    return findAll("1=1");
+  public void incrementBuffered(long id, Enum field, long delta) throws IOException {
+    CounterBuffer buffer = counterBuffer;
+    if (buffer == null) {
+      throw new IllegalStateException("No counter buffer is set for " + tableName);
+    }
+    if (!fieldNames.contains(field.name())) {
+      throw new IllegalArgumentException("Unknown field " + field + " for " + tableName);
+    }
+    buffer.increment(tableName, field.name(), id, delta);
   }
 
   @Override
-  public Set<T> findAll(String conditions) throws IOException {
+  public void setHedgingPolicy(HedgingPolicy policy) {
+    hedgingPolicy = policy;
+  }
+
+  /**
+   * Events are received on the transport's thread and only queued there; the
+   * caches are updated by the next call to this persistence.
+   */
+  private class QueueingInvalidationListener implements IInvalidationListener, Serializable {
+    @Override
+    public void onInvalidation(InvalidationEvent event) {
+      if (!invalidationSourceId.equals(event.getSourceId())) {
+        pendingInvalidations.add(event);
+      }
+    }
+  }
+
+  private void applyPendingInvalidations() throws IOException {
+    if (pendingInvalidations.isEmpty()) {
+      return;
+    }
+    Set<Long> changedIds = new HashSet<Long>();
+    boolean wholeTable = false;
+    InvalidationEvent event;
+    while ((event = pendingInvalidations.poll()) != null) {
+      evict(event);
+      if (event.isWholeTable()) {
+        wholeTable = true;
+      } else {
+        changedIds.add(event.getId());
+      }
+    }
+    QueryResultCache resultCache = queryCache;
+    if (resultCache != null) {
+      resultCache.invalidateAll();
+    }
+    if (wholeTable) {
+      refreshReplica();
+    } else {
+      reloadIntoReplica(changedIds);
+    }
+  }
+
+  private void evict(InvalidationEvent event) {
+    if (event.isWholeTable()) {
+      cachedById.clear();
+      clearForeignKeyCache();
+      return;
+    }
+    long id = event.getId();
+    cachedById.remove(id);
+    synchronized (cachedByForeignKey) {
+      for (Map.Entry<String, Map<Long, Set<T>>> entry : cachedByForeignKey.entrySet()) {
+        Map<Long, Set<T>> foreignKeyCache = entry.getValue();
+        Long foreignKeyValue = event.getFieldValues().get(entry.getKey());
+        synchronized (foreignKeyCache) {
+          if (foreignKeyValue != null) {
+            foreignKeyCache.remove(foreignKeyValue);
+          }
+          // the record may have moved away from a previous foreign key value
+          Iterator<Set<T>> iter = foreignKeyCache.values().iterator();
+          while (iter.hasNext()) {
+            for (T model : iter.next()) {
+              if (model.getId() == id) {
+                iter.remove();
+                break;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private TableSnapshot<T> loadSnapshot() throws IOException {
+    return new TableSnapshot<T>(loadFromPrimary(null));
+  }
+
+  /**
+   * Reads the records of the given ids, or the whole table if ids is null,
+   * from the primary rather than from a read replica.
+   */
+  private List<T> loadFromPrimary(Set<Long> ids) throws IOException {
+    ShardedDatabaseConnection sharded = getShardRouting();
+    if (sharded != null) {
+      Collection<List<T>> shardModels;
+      if (ids == null) {
+        shardModels = onAllShards(sharded, new ShardedDatabaseConnection.ShardOperation<List<T>>() {
+          @Override
+          public List<T> run() throws IOException {
+            return loadFromPrimary(null);
+          }
+        });
+      } else {
+        shardModels = onShardsOfIds(sharded, ids, new IdsOperation<List<T>>() {
+          @Override
+          public List<T> run(Set<Long> shardIds) throws IOException {
+            return loadFromPrimary(shardIds);
+          }
+        });
+      }
+      List<T> models = new ArrayList<T>();
+      for (List<T> shardFound : shardModels) {
+        models.addAll(shardFound);
+      }
+      return models;
+    }
     int retryCount = 0;
 
     PreparedStatement stmt = null;
@@ -738,27 +3287,17 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
     while (true) {
       try {
-        stmt = conn.getPreparedStatement("SELECT * FROM "
-            + getTableName() + " WHERE " + conditions + ";");
-
+        stmt = prepareStatement("SELECT * FROM " + tableName + (ids == null ? "" : " WHERE " + getIdSetCondition(ids)));
         rs = stmt.executeQuery();
-
-        Set<T> results = new HashSet<T>();
+        List<T> models = new ArrayList<T>();
         while (rs.next()) {
           T inst = instanceFromResultSet(rs);
           inst.setCreated(true);
-          if (useCache) {
-            if (cachedById.containsKey(inst.getId())) {
-              inst = cachedById.get(inst.getId());
-            } else {
-              cachedById.put(inst.getId(), inst);
-            }
-          }
-          results.add(inst);
+          models.add(inst);
         }
-        return results;
+        return models;
       } catch (SQLRecoverableException e) {
-        conn.resetConnection();
+        getLoadConn().resetConnection();
         if (++retryCount > MAX_CONNECTION_RETRIES) {
           throw new IOException(e);
         }
@@ -773,37 +3312,16 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
             stmt.close();
           }
         } catch (SQLRecoverableException e) {
-          conn.resetConnection();
+          getLoadConn().resetConnection();
         } catch (SQLException e) {
         }
       }
     }
   }
 
-  @Override
-  public Set<T> findAll(String conditions, RecordSelector<T> selector)
-      throws IOException {
-    return findAll(conditions);
-  }
-
-  @Override
-  public boolean isCaching() {
-    return useCache;
-  }
-
-  @Override
-  public void enableCaching() {
-    useCache = true;
-  }
-
-  @Override
-  public void disableCaching() {
-    useCache = false;
-  }
-
   private boolean updatedAtCanBeHandled(T model) {
-    if (model.hasField("updated_at")) {
-      Object field = model.getField("updated_at");
+    if (model.hasField(UPDATED_AT)) {
+      Object field = model.getField(UPDATED_AT);
       return (field != null && field.getClass().equals(Long.class));
     }
     return false;
@@ -811,8 +3329,8 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
   private long handleRailsUpdatedAt(T model) {
     if (updatedAtCanBeHandled(model)) {
-      long oldUpdatedAt = (Long)model.getField("updated_at");
-      model.setField("updated_at", System.currentTimeMillis());
+      long oldUpdatedAt = (Long)model.getField(UPDATED_AT);
+      model.setField(UPDATED_AT, System.currentTimeMillis());
       // return old value in case save fails and we need to reset
       return oldUpdatedAt;
     }
@@ -821,7 +3339,7 @@ public abstract class AbstractDatabaseModel<T extends ModelWithId> implements
 
   private void revertRailsUpdatedAt(T model, long oldUpdatedAt) {
     if (updatedAtCanBeHandled(model)) {
-      model.setField("updated_at", oldUpdatedAt);
+      model.setField(UPDATED_AT, oldUpdatedAt);
     }
   }
 }
@@ -4,6 +4,7 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -13,7 +14,10 @@ import java.util.Set;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import com.rapleaf.jack.invalidation.InvalidationBus;
 import com.rapleaf.jack.queries.LimitCriterion;
 import com.rapleaf.jack.queries.ModelQuery;
 import com.rapleaf.jack.queries.WhereConstraint;
@@ -301,6 +305,34 @@ public abstract class AbstractMockDatabaseModel<T extends ModelWithId<T, D>, D e
     return findAll(conditions, getRecordSelector(conditions));
   }
 
+  @Override
+  public Set<T> findAll(String conditions, int fetchSize) throws IOException {
+    return findAll(conditions);
+  }
+
+  @Override
+  public Set<T> findAllStreaming(String conditions) throws IOException {
+    return findAll(conditions);
+  }
+
+  @Override
+  public void findAllStreaming(String conditions, RecordVisitor<T> visitor) throws IOException {
+    visit(findAll(conditions), visitor);
+  }
+
+  @Override
+  public void findStreaming(ModelQuery query, RecordVisitor<T> visitor) throws IOException {
+    visit(findWithOrder(query), visitor);
+  }
+
+  private static <T extends ModelWithId> void visit(Collection<T> records, RecordVisitor<T> visitor) throws IOException {
+    for (T record : records) {
+      if (!visitor.visitRecord(record)) {
+        return;
+      }
+    }
+  }
+
   @Override
   public Set<T> findAll(String conditions, RecordSelector<T> selector) {
     Set<T> results = new HashSet<T>();
@@ -330,4 +362,228 @@ public abstract class AbstractMockDatabaseModel<T extends ModelWithId<T, D>, D e
   public void disableCaching() {
     useCache = false;
   }
+
+  public void enableAdaptiveCaching(AdaptiveCachePolicy policy) {
+    useCache = true;
+  }
+
+  public void disableAdaptiveCaching() {
+    // No cache to adapt
+  }
+
+  public CacheStatistics getCacheStatistics() {
+    return new CacheStatistics(null, 0, 0, 0, 0, 0, false, 0);
+  }
+
+  public void enableIdentityMap(IdentityMap.ValueStrength valueStrength) {
+    // Records are always held by the mock database
+  }
+
+  public void disableIdentityMap() {
+    // Records are always held by the mock database
+  }
+
+  public void enableBatching(long windowMillis, int maxBatchSize) {
+    // Records are found without queries
+  }
+
+  public void disableBatching() {
+    // Records are found without queries
+  }
+
+  public ListenableFuture<T> findAsync(long id) {
+    try {
+      return Futures.immediateFuture(find(id));
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
+  public void enableRefreshAhead(long refreshAfterMillis) {
+    // Records are never stale
+  }
+
+  public void disableRefreshAhead() {
+    // Records are never stale
+  }
+
+  public void enableRevalidation() {
+    // Records are never stale
+  }
+
+  public void enableRevalidation(long revalidateAfterMillis) {
+    // Records are never stale
+  }
+
+  public void disableRevalidation() {
+    // Records are never stale
+  }
+
+  public int revalidate(Collection<Long> ids) {
+    return 0;
+  }
+
+  public void enableInMemoryQueries() {
+    // Queries are always evaluated in memory
+  }
+
+  public void disableInMemoryQueries() {
+    // Queries are always evaluated in memory
+  }
+
+  private boolean queryCaching = false;
+
+  public void enableQueryCache(long maxEntries, long expirationMillis) {
+    // Queries are evaluated in memory
+    queryCaching = true;
+  }
+
+  public void disableQueryCache() {
+    queryCaching = false;
+  }
+
+  public boolean isQueryCaching() {
+    return queryCaching;
+  }
+
+  public void setInvalidationBus(InvalidationBus bus) {
+    // Records are not cached
+  }
+
+  public void setIdAllocator(IdAllocator idAllocator) {
+    // Ids are assigned in memory
+  }
+
+  public void setCounterBuffer(CounterBuffer buffer) {
+    // Increments are applied right away
+  }
+
+  public void incrementBuffered(long id, Enum field, long delta) {
+    increment(id, field, delta);
+  }
+
+  public void setHedgingPolicy(HedgingPolicy policy) {
+    // Records are read from memory
+  }
+
+  public int delete(Collection<Long> ids) throws IOException {
+    int deleted = 0;
+    for (Long id : new HashSet<Long>(ids)) {
+      if (records.containsKey(id)) {
+        delete(id);
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  public int deleteWhere(ModelQuery query) throws IOException {
+    AbstractDatabaseModel.requireWhereClause(query, "deleteAll()");
+    Set<Long> ids = new HashSet<Long>();
+    for (T record : find(query)) {
+      ids.add(record.getId());
+    }
+    return delete(ids);
+  }
+
+  public int deleteWhere(ModelQuery query, int chunkSize) throws IOException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+    }
+    // Records are deleted at once
+    return deleteWhere(query);
+  }
+
+  public int updateWhere(ModelQuery query, Map<Enum, Object> values) throws IOException {
+    if (values.isEmpty()) {
+      throw new IllegalArgumentException("No field to update");
+    }
+    AbstractDatabaseModel.requireWhereClause(query, "an UPDATE of your own");
+    Set<T> matching = find(query);
+    for (T match : matching) {
+      T record = records.get(match.getId());
+      for (Map.Entry<Enum, Object> entry : values.entrySet()) {
+        record.setField(entry.getKey().name(), entry.getValue());
+      }
+    }
+    clearForeignKeyCache();
+    return matching.size();
+  }
+
+  public boolean upsert(T model) throws IOException {
+    return save(model);
+  }
+
+  public int upsertAll(Collection<T> models) throws IOException {
+    for (T model : models) {
+      save(model);
+    }
+    return models.size();
+  }
+
+  public boolean increment(long id, Enum field, long delta) {
+    T record = records.get(id);
+    if (record == null) {
+      return false;
+    }
+    Number value = (Number)record.getField(field.name());
+    long sum = (value == null ? 0 : value.longValue()) + delta;
+    if (value instanceof Integer) {
+      record.setField(field.name(), (int)sum);
+    } else {
+      try {
+        record.setField(field.name(), sum);
+      } catch (ClassCastException e) {
+        // a NULL int field
+        record.setField(field.name(), (int)sum);
+      }
+    }
+    clearForeignKeyCache();
+    return true;
+  }
+
+  public int increment(Collection<Long> ids, Enum field, long delta) {
+    int updated = 0;
+    for (Long id : new HashSet<Long>(ids)) {
+      if (increment(id, field, delta)) {
+        updated++;
+      }
+    }
+    return updated;
+  }
+
+  public boolean updateField(long id, Enum field, Object value) {
+    T record = records.get(id);
+    if (record == null) {
+      return false;
+    }
+    record.setField(field.name(), value);
+    clearForeignKeyCache();
+    return true;
+  }
+
+  public int updateField(Collection<Long> ids, Enum field, Object value) {
+    int updated = 0;
+    for (Long id : new HashSet<Long>(ids)) {
+      if (updateField(id, field, value)) {
+        updated++;
+      }
+    }
+    return updated;
+  }
+
+  private boolean replicated = false;
+
+  public void enableReplication(long refreshPeriodMillis) {
+    // Records are already in memory
+    replicated = true;
+  }
+
+  public void disableReplication() {
+    replicated = false;
+  }
+
+  public boolean isReplicated() {
+    return replicated;
+  }
 }
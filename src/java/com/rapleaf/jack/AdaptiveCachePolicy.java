@@ -0,0 +1,54 @@
+package com.rapleaf.jack;
+
+import java.io.Serializable;
+
+/**
+ * Decides, at the end of each statistics window, whether a table's cache is
+ * worth keeping. Caching is bypassed when writes clearly outnumber cache
+ * hits, since every write flushes the cached foreign key lookups and
+ * queries, or when too few lookups hit the cache. While caching is bypassed,
+ * the hit rate it would have had is estimated from recently looked up ids,
+ * and caching comes back once that estimate clears the same thresholds.
+ */
+public class AdaptiveCachePolicy implements Serializable {
+
+  private final long windowMillis;
+  private final long minLookups;
+  private final double minHitRate;
+  private final double maxWritesPerHit;
+
+  public AdaptiveCachePolicy() {
+    this(60 * 1000L, 100, 0.2, 1.0);
+  }
+
+  /**
+   * @param windowMillis    length of each statistics window
+   * @param minLookups      below this many lookups in a window, the hit rate
+   *                        is not trusted and the previous decision stands
+   * @param minHitRate      lowest acceptable fraction of lookups served from the cache
+   * @param maxWritesPerHit highest acceptable number of writes per cache hit
+   */
+  public AdaptiveCachePolicy(long windowMillis, long minLookups, double minHitRate, double maxWritesPerHit) {
+    if (windowMillis <= 0) {
+      throw new IllegalArgumentException("Window must be positive: " + windowMillis);
+    }
+    this.windowMillis = windowMillis;
+    this.minLookups = minLookups;
+    this.minHitRate = minHitRate;
+    this.maxWritesPerHit = maxWritesPerHit;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  public boolean shouldCache(CacheStatistics window) {
+    if (window.getWrites() > maxWritesPerHit * Math.max(window.getHits(), 1)) {
+      return false;
+    }
+    if (window.getLookups() < minLookups) {
+      return !window.isBypassed();
+    }
+    return window.getHitRate() >= minHitRate;
+  }
+}
@@ -1,14 +1,31 @@
 package com.rapleaf.jack;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.rapleaf.jack.invalidation.InvalidationBus;
+import com.rapleaf.jack.invalidation.InvalidationEvent;
 
 public abstract class BaseDatabaseConnection implements Serializable {
 
   protected transient Connection conn = null;
+  private transient UnitOfWork unitOfWork = null;
+  private transient volatile GroupCommitExecutor groupCommitExecutor = null;
+  private transient List<CommitAction> pendingCommitActions = null;
+
+  /**
+   * Something to do once the writes made through a connection are
+   * committed, such as publishing them to other caches.
+   */
+  interface CommitAction {
+    void run() throws IOException;
+  }
   
   /**
    * Get a Connection to a database.
@@ -34,6 +51,20 @@ public abstract class BaseDatabaseConnection implements Serializable {
     return getConnection();
   }
 
+  /**
+   * Closes the connection whatever state it is in, so that the next call to
+   * getConnection() opens a new one.
+   */
+  void discardConnection() {
+    if (conn != null) {
+      try {
+        conn.close();
+      } catch (SQLException e) {
+      }
+    }
+    conn = null;
+  }
+
   /**
    * Creates a connection using the argument credentials. Useful for when 
    * MapReduce workers machines need to make database connections, as they 
@@ -48,6 +79,14 @@ public abstract class BaseDatabaseConnection implements Serializable {
       return false;
   }
 
+  /**
+   * Whether a single statement may contain several queries separated by
+   * semicolons, returning one result set each.
+   */
+  public boolean supportsMultipleStatements() {
+    return false;
+  }
+
   /**
    * Creates a Statement object that can be used to send SQL queries to the RapLeaf 
    * database.
@@ -72,6 +111,23 @@ public abstract class BaseDatabaseConnection implements Serializable {
     }
   }
 
+  /**
+   * Creates a PreparedStatement for a query that only reads. Connections
+   * to replicated databases may send it to a replica; by default it is sent
+   * like any other statement.
+   */
+  public PreparedStatement getReadPreparedStatement(String statement) {
+    return getPreparedStatement(statement);
+  }
+
+  /**
+   * Same as getReadPreparedStatement(String), with reads hedged across
+   * replicas according to the policy when there are several of them.
+   */
+  public PreparedStatement getReadPreparedStatement(String statement, HedgingPolicy hedgingPolicy) {
+    return getReadPreparedStatement(statement);
+  }
+
   public PreparedStatement getPreparedStatement(String statement, int options) {
     try {
       return getConnection().prepareStatement(statement, options);
@@ -90,11 +146,21 @@ public abstract class BaseDatabaseConnection implements Serializable {
    * @param autoCommit
    */
   public void setAutoCommit(boolean autoCommit) {
+    if (!autoCommit && groupCommitExecutor != null) {
+      throw new IllegalStateException("Transactions cannot be opened on a connection in group-commit mode");
+    }
+    boolean committing;
     try {
-      getConnection().setAutoCommit(autoCommit);
+      Connection connection = getConnection();
+      committing = autoCommit && !connection.getAutoCommit();
+      connection.setAutoCommit(autoCommit);
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
+    // turning autocommit back on commits the open transaction
+    if (committing) {
+      runPendingCommitActions();
+    }
   }
 
   /**
@@ -115,10 +181,19 @@ public abstract class BaseDatabaseConnection implements Serializable {
    */
   public void commit() {
     try {
+      if (unitOfWork != null) {
+        unitOfWork.flush();
+      }
       getConnection().commit();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
+    runPendingCommitActions();
+    if (unitOfWork != null) {
+      unitOfWork.end(true);
+    }
   }
 
   /**
@@ -132,5 +207,139 @@ public abstract class BaseDatabaseConnection implements Serializable {
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
+    synchronized (this) {
+      pendingCommitActions = null;
+    }
+    if (unitOfWork != null) {
+      unitOfWork.end(false);
+    }
+  }
+
+  /**
+   * Publishes the event of a write made through this connection once its
+   * transaction commits, or right away in autocommit mode. Other caches
+   * would otherwise evict the record and read its old version again before
+   * the commit, and would hear of writes that are rolled back.
+   */
+  void publishOnCommit(final InvalidationBus bus, final InvalidationEvent event) throws IOException {
+    runOnCommit(new CommitAction() {
+      @Override
+      public void run() throws IOException {
+        bus.publish(event);
+      }
+    });
+  }
+
+  /**
+   * Runs the action once the transaction of this connection commits, or
+   * right away in autocommit mode. It is dropped if the transaction rolls
+   * back.
+   */
+  void runOnCommit(CommitAction action) throws IOException {
+    if (getAutoCommit()) {
+      action.run();
+      return;
+    }
+    synchronized (this) {
+      if (pendingCommitActions == null) {
+        pendingCommitActions = new ArrayList<CommitAction>();
+      }
+      pendingCommitActions.add(action);
+    }
+  }
+
+  private void runPendingCommitActions() {
+    List<CommitAction> pending;
+    synchronized (this) {
+      pending = pendingCommitActions;
+      pendingCommitActions = null;
+    }
+    if (pending == null) {
+      return;
+    }
+    IOException failure = null;
+    for (CommitAction action : pending) {
+      try {
+        action.run();
+      } catch (IOException e) {
+        // the others still run
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw new RuntimeException("Committed, but could not apply every write to the caches", failure);
+    }
+  }
+
+  /**
+   * Returns the unit of work recording the writes made through this
+   * connection, or null if writes are sent right away.
+   */
+  public UnitOfWork getUnitOfWork() {
+    return unitOfWork;
+  }
+
+  void setUnitOfWork(UnitOfWork unitOfWork) {
+    this.unitOfWork = unitOfWork;
+  }
+
+  /**
+   * In group-commit mode, the autocommit writes made through this connection
+   * from any number of threads are collected for up to lingerMillis, or
+   * until maxBatchSize are pending, and committed together in a single
+   * transaction. Each write returns once its group is committed. The
+   * connection cannot be used for other transactions in this mode.
+   *
+   * The groups are committed on a second connection to the same database,
+   * so that the reads made through this one never run inside a group.
+   */
+  public synchronized void enableGroupCommit(long lingerMillis, int maxBatchSize) {
+    enableGroupCommit(newDedicatedConnection(), lingerMillis, maxBatchSize);
+  }
+
+  /**
+   * Same as enableGroupCommit(long, int), with the groups committed on
+   * groupConnection, which must be dedicated to them. It is closed when
+   * group commit is disabled.
+   */
+  public synchronized void enableGroupCommit(BaseDatabaseConnection groupConnection, long lingerMillis, int maxBatchSize) {
+    if (groupConnection == this) {
+      throw new IllegalArgumentException("Groups need a connection of their own");
+    }
+    if (!getAutoCommit()) {
+      throw new IllegalStateException("Group commit requires auto-commit mode");
+    }
+    disableGroupCommit();
+    groupCommitExecutor = new GroupCommitExecutor(groupConnection, lingerMillis, maxBatchSize);
+  }
+
+  /**
+   * Opens another connection to the same database, for work that must not
+   * share this one: the groups of enableGroupCommit(long, int), and the
+   * loads persistences make in the background.
+   */
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    throw new UnsupportedOperationException(getClass().getSimpleName()
+        + " cannot open a dedicated connection");
+  }
+
+  /**
+   * Writes already submitted are still committed.
+   */
+  public synchronized void disableGroupCommit() {
+    if (groupCommitExecutor != null) {
+      groupCommitExecutor.close();
+      groupCommitExecutor = null;
+    }
+  }
+
+  /**
+   * Returns the executor committing the writes made through this connection
+   * in groups, or null if they are committed one by one.
+   */
+  public GroupCommitExecutor getGroupCommitExecutor() {
+    return groupCommitExecutor;
   }
 }
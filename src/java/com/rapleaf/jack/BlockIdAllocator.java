@@ -0,0 +1,55 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reserves ids blockSize at a time and hands them out from memory, so that
+ * only one id in blockSize costs a call to allocateBlock. Ids left in a
+ * block when the process stops are never used.
+ */
+public abstract class BlockIdAllocator implements IdAllocator {
+
+  private static class Block {
+    private long next;
+    private final long end;
+
+    private Block(long start, long end) {
+      this.next = start;
+      this.end = end;
+    }
+  }
+
+  private final int blockSize;
+  private final Map<String, Block> blocks = new HashMap<String, Block>();
+
+  protected BlockIdAllocator(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    this.blockSize = blockSize;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  @Override
+  public synchronized long allocateId(String tableName) throws IOException {
+    Block block = blocks.get(tableName);
+    if (block == null || block.next == block.end) {
+      long start = allocateBlock(tableName, blockSize);
+      block = new Block(start, start + blockSize);
+      blocks.put(tableName, block);
+    }
+    return block.next++;
+  }
+
+  /**
+   * Reserves blockSize consecutive ids for the table and returns the first
+   * of them. No id of the block may have been reserved before, by this
+   * process or any other.
+   */
+  protected abstract long allocateBlock(String tableName, int blockSize) throws IOException;
+}
@@ -0,0 +1,95 @@
+package com.rapleaf.jack;
+
+import java.io.Serializable;
+
+/**
+ * Cache usage of a single table over a window of time. While caching is
+ * bypassed, hits are the lookups the cache would have served.
+ */
+public class CacheStatistics implements Serializable {
+
+  private final String tableName;
+  private final long windowMillis;
+  private final long hits;
+  private final long misses;
+  private final long writes;
+  private final long cachedEntries;
+  private final boolean bypassed;
+  private final long bypassCount;
+
+  public CacheStatistics(String tableName, long windowMillis, long hits, long misses, long writes,
+                         long cachedEntries, boolean bypassed, long bypassCount) {
+    this.tableName = tableName;
+    this.windowMillis = windowMillis;
+    this.hits = hits;
+    this.misses = misses;
+    this.writes = writes;
+    this.cachedEntries = cachedEntries;
+    this.bypassed = bypassed;
+    this.bypassCount = bypassCount;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getLookups() {
+    return hits + misses;
+  }
+
+  public double getHitRate() {
+    return getLookups() == 0 ? 0 : (double)hits / getLookups();
+  }
+
+  public long getWrites() {
+    return writes;
+  }
+
+  public double getWritesPerSecond() {
+    return windowMillis == 0 ? 0 : writes * 1000.0 / windowMillis;
+  }
+
+  /**
+   * Number of records and foreign key lookups currently cached.
+   */
+  public long getCachedEntries() {
+    return cachedEntries;
+  }
+
+  public boolean isBypassed() {
+    return bypassed;
+  }
+
+  /**
+   * Number of times caching has been bypassed since statistics started.
+   */
+  public long getBypassCount() {
+    return bypassCount;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics{" +
+        "tableName='" + tableName + '\'' +
+        ", windowMillis=" + windowMillis +
+        ", hits=" + hits +
+        ", misses=" + misses +
+        ", writes=" + writes +
+        ", cachedEntries=" + cachedEntries +
+        ", bypassed=" + bypassed +
+        ", bypassCount=" + bypassCount +
+        '}';
+  }
+}
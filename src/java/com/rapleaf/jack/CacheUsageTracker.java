@@ -0,0 +1,90 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Counts cache hits, misses and writes of a table over the current window.
+ * While caching is bypassed, the ids looked up recently are remembered so
+ * that a repeated lookup can be counted as the hit it would have been.
+ */
+public class CacheUsageTracker implements Serializable {
+
+  private static final int MAX_BYPASSED_IDS = 10000;
+
+  private final String tableName;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong bypassCount = new AtomicLong();
+  private volatile long windowStart = System.currentTimeMillis();
+  private volatile boolean bypassed = false;
+  private transient Cache<Long, Boolean> bypassedIds = newBypassedIds();
+
+  public CacheUsageTracker(String tableName) {
+    this.tableName = tableName;
+  }
+
+  public void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  /**
+   * Records a lookup of the id that the cache did not serve.
+   */
+  public void recordMiss(long id) {
+    if (bypassed && bypassedIds.asMap().put(id, Boolean.TRUE) != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+  }
+
+  public void recordWrite() {
+    writes.incrementAndGet();
+  }
+
+  public boolean isBypassed() {
+    return bypassed;
+  }
+
+  public boolean isWindowComplete(long windowMillis) {
+    return System.currentTimeMillis() - windowStart >= windowMillis;
+  }
+
+  public CacheStatistics getStatistics(long cachedEntries) {
+    return new CacheStatistics(tableName, System.currentTimeMillis() - windowStart,
+        hits.get(), misses.get(), writes.get(), cachedEntries, bypassed, bypassCount.get());
+  }
+
+  /**
+   * Starts a new window, with caching bypassed or not for its duration.
+   */
+  public void startWindow(boolean bypassed) {
+    if (bypassed && !this.bypassed) {
+      bypassCount.incrementAndGet();
+    }
+    if (!bypassed) {
+      bypassedIds.invalidateAll();
+    }
+    this.bypassed = bypassed;
+    hits.set(0);
+    misses.set(0);
+    writes.set(0);
+    windowStart = System.currentTimeMillis();
+  }
+
+  private static Cache<Long, Boolean> newBypassedIds() {
+    return CacheBuilder.newBuilder().maximumSize(MAX_BYPASSED_IDS).build();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    bypassedIds = newBypassedIds();
+  }
+}
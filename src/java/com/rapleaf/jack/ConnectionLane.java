@@ -0,0 +1,295 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A fixed set of connections to a database reserved for one kind of work,
+ * such as interactive requests or batch jobs, so that a heavy batch cannot
+ * take the connections the requests need.
+ *
+ * A thread takes one of the connections of the lane for each statement,
+ * and gives it back when the statement is closed. It keeps the connection
+ * for as long as a transaction or unit of work is open on it, and a
+ * Connection taken with getConnection() until the end of run() or a call
+ * to release(). While every connection is taken, up to maxQueued threads
+ * wait for one; the threads beyond that are rejected with a
+ * RejectedExecutionException rather than left to pile up.
+ */
+public class ConnectionLane extends BaseDatabaseConnection {
+
+  public static interface Operation<R> {
+    public R run() throws IOException;
+  }
+
+  private static class Lease {
+    private final BaseDatabaseConnection connection;
+    private int openStatements = 0;
+
+    private Lease(BaseDatabaseConnection connection) {
+      this.connection = connection;
+    }
+  }
+
+  private final String name;
+  private final int maxQueued;
+  private final LinkedList<BaseDatabaseConnection> free;
+  // dedicated connections are made like it
+  private final BaseDatabaseConnection template;
+  private int queued = 0;
+  private transient ThreadLocal<Lease> leases;
+
+  /**
+   * A lane of size connections made from the config of dbname_key.
+   */
+  public ConnectionLane(String name, String dbname_key, int size, int maxQueued) {
+    this(name, newConnections(dbname_key, size), maxQueued);
+  }
+
+  public ConnectionLane(String name, List<? extends BaseDatabaseConnection> connections, int maxQueued) {
+    if (connections.isEmpty() || maxQueued < 0) {
+      throw new IllegalArgumentException("Invalid size " + connections.size() + " or queue limit " + maxQueued + " for lane " + name);
+    }
+    this.name = name;
+    this.maxQueued = maxQueued;
+    this.free = new LinkedList<BaseDatabaseConnection>(connections);
+    this.template = connections.get(0);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Runs the operation, and then gives back the connection of this thread
+   * unless a statement or transaction still uses it.
+   */
+  public <R> R run(Operation<R> operation) throws IOException {
+    try {
+      return operation.run();
+    } finally {
+      releaseIfIdle();
+    }
+  }
+
+  /**
+   * Gives the connection of this thread back to the lane, for another thread
+   * to use.
+   */
+  public void release() {
+    Lease lease = getLeases().get();
+    if (lease == null) {
+      return;
+    }
+    if (!lease.connection.getAutoCommit()) {
+      throw new IllegalStateException("Cannot release a connection of lane " + name + " in the middle of a transaction");
+    }
+    giveBack(lease);
+  }
+
+  @Override
+  public Connection getConnection() {
+    return lease().connection.getConnection();
+  }
+
+  @Override
+  public Connection resetConnection() {
+    return lease().connection.resetConnection();
+  }
+
+  @Override
+  public boolean connect() {
+    try {
+      return lease().connection.connect();
+    } finally {
+      releaseIfIdle();
+    }
+  }
+
+  @Override
+  public Statement getStatement() {
+    Lease lease = lease();
+    return track(lease, lease.connection.getStatement(), Statement.class);
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement) {
+    Lease lease = lease();
+    return track(lease, lease.connection.getPreparedStatement(statement), PreparedStatement.class);
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement, int options) {
+    Lease lease = lease();
+    return track(lease, lease.connection.getPreparedStatement(statement, options), PreparedStatement.class);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement) {
+    Lease lease = lease();
+    return track(lease, lease.connection.getReadPreparedStatement(statement), PreparedStatement.class);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement, HedgingPolicy hedgingPolicy) {
+    Lease lease = lease();
+    return track(lease, lease.connection.getReadPreparedStatement(statement, hedgingPolicy), PreparedStatement.class);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) {
+    try {
+      super.setAutoCommit(autoCommit);
+    } finally {
+      releaseIfIdle();
+    }
+  }
+
+  /**
+   * The connections that are not taken are all in autocommit mode.
+   */
+  @Override
+  public boolean getAutoCommit() {
+    Lease lease = getLeases().get();
+    return lease == null || lease.connection.getAutoCommit();
+  }
+
+  @Override
+  public void commit() {
+    try {
+      super.commit();
+    } finally {
+      releaseIfIdle();
+    }
+  }
+
+  @Override
+  public void rollback() {
+    try {
+      super.rollback();
+    } finally {
+      releaseIfIdle();
+    }
+  }
+
+  /**
+   * A connection of its own to the database of the lane, outside of the
+   * lane: it does not take one of the connections of the lane.
+   */
+  @Override
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    return template.newDedicatedConnection();
+  }
+
+  private Lease lease() {
+    Lease lease = getLeases().get();
+    if (lease != null) {
+      return lease;
+    }
+    BaseDatabaseConnection connection;
+    synchronized (free) {
+      if (free.isEmpty()) {
+        if (queued >= maxQueued) {
+          throw new RejectedExecutionException("Lane " + name + " has no connection left and " + queued + " threads waiting");
+        }
+        queued++;
+        try {
+          while (free.isEmpty()) {
+            free.wait();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while waiting for a connection of lane " + name, e);
+        } finally {
+          queued--;
+        }
+      }
+      // the connection used last is the most likely to still be open
+      connection = free.removeFirst();
+    }
+    lease = new Lease(connection);
+    getLeases().set(lease);
+    return lease;
+  }
+
+  /**
+   * Gives back the connection of this thread unless a statement or
+   * transaction still uses it.
+   */
+  void releaseIfIdle() {
+    Lease lease = getLeases().get();
+    if (lease == null || lease.openStatements > 0 || getUnitOfWork() != null) {
+      return;
+    }
+    boolean autoCommit;
+    try {
+      autoCommit = lease.connection.getAutoCommit();
+    } catch (RuntimeException e) {
+      // a connection that cannot tell is given back, to be reset by its next user
+      autoCommit = true;
+    }
+    if (autoCommit) {
+      giveBack(lease);
+    }
+  }
+
+  private void giveBack(Lease lease) {
+    getLeases().remove();
+    synchronized (free) {
+      free.addFirst(lease.connection);
+      free.notify();
+    }
+  }
+
+  /**
+   * Returns a statement that gives the connection back to the lane when it
+   * is closed, if nothing else uses the connection.
+   */
+  private <S extends Statement> S track(final Lease lease, final S statement, Class<S> type) {
+    lease.openStatements++;
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+      private boolean closed = false;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        try {
+          return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        } finally {
+          if (method.getName().equals("close") && !closed) {
+            closed = true;
+            lease.openStatements--;
+            releaseIfIdle();
+          }
+        }
+      }
+    }));
+  }
+
+  private synchronized ThreadLocal<Lease> getLeases() {
+    // not serialized with the lane
+    if (leases == null) {
+      leases = new ThreadLocal<Lease>();
+    }
+    return leases;
+  }
+
+  private static List<BaseDatabaseConnection> newConnections(String dbname_key, int size) {
+    List<BaseDatabaseConnection> connections = new ArrayList<BaseDatabaseConnection>();
+    for (int i = 0; i < size; i++) {
+      connections.add(new DatabaseConnection(dbname_key));
+    }
+    return connections;
+  }
+}
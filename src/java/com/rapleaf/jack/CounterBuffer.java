@@ -0,0 +1,439 @@
+package com.rapleaf.jack;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.rapleaf.jack.invalidation.IInvalidationListener;
+import com.rapleaf.jack.invalidation.InvalidationEvent;
+
+/**
+ * Accumulates increments of counter-like fields in memory, and applies them
+ * periodically as batches of "UPDATE t SET f = f + ? WHERE id = ?", in one
+ * transaction, instead of rewriting the whole row for every change. Until
+ * then the increments are not visible in the database; once they are, the
+ * subscribed persistences evict the records from their caches.
+ *
+ * Every increment is also appended to a journal file before it is
+ * acknowledged, and increments found in the journal are applied when the
+ * buffer is created, so that a crash of the process loses nothing. With a
+ * sync period of 0, the default, the journal is also synced to disk before
+ * the increment is acknowledged, so that a crash of the machine loses
+ * nothing either; increments made at the same time share one sync. With a
+ * longer period, the journal is synced that often, and a crash of the
+ * machine may lose the increments of the last period. Only lines ending
+ * with a newline are read back from the journal: the last one may have been
+ * cut by the crash. The journal is compacted after each flush; a crash
+ * between the commit of a flush and the compaction applies the flushed
+ * increments a second time.
+ *
+ * The connection should be dedicated to the buffer.
+ */
+public class CounterBuffer {
+
+  private static class Counter {
+    private final String tableName;
+    private final String fieldName;
+    private final long id;
+
+    private Counter(String tableName, String fieldName, long id) {
+      this.tableName = tableName;
+      this.fieldName = fieldName;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Counter)) {
+        return false;
+      }
+      Counter that = (Counter)o;
+      return id == that.id && tableName.equals(that.tableName) && fieldName.equals(that.fieldName);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * tableName.hashCode() + fieldName.hashCode()) + (int)(id ^ (id >>> 32));
+    }
+  }
+
+  private final BaseDatabaseConnection conn;
+  private final File journalFile;
+  private final String sourceId = UUID.randomUUID().toString();
+  private final ConcurrentMap<String, List<IInvalidationListener>> listenersByTable = new ConcurrentHashMap<String, List<IInvalidationListener>>();
+  private final ScheduledExecutorService flusher;
+  private final Object flushLock = new Object();
+  private final Object syncLock = new Object();
+  private final long syncPeriodMillis;
+
+  private Map<Counter, Long> deltas = new LinkedHashMap<Counter, Long>();
+  private Map<Counter, Long> flushing = new HashMap<Counter, Long>();
+  private FileOutputStream journalOut;
+  private Writer journal;
+  // lines written to the journal, and how many of them are on disk
+  private long journaledCount = 0;
+  private long syncedCount = 0;
+
+  public CounterBuffer(BaseDatabaseConnection conn, File journalFile, long flushPeriodMillis) throws IOException {
+    this(conn, journalFile, flushPeriodMillis, 0);
+  }
+
+  public CounterBuffer(BaseDatabaseConnection conn, File journalFile, long flushPeriodMillis, long syncPeriodMillis) throws IOException {
+    if (flushPeriodMillis <= 0) {
+      throw new IllegalArgumentException("Invalid flush period " + flushPeriodMillis);
+    }
+    if (syncPeriodMillis < 0) {
+      throw new IllegalArgumentException("Invalid sync period " + syncPeriodMillis);
+    }
+    this.conn = conn;
+    this.journalFile = journalFile;
+    this.syncPeriodMillis = syncPeriodMillis;
+    if (journalFile.exists()) {
+      readJournal();
+    }
+    // drops a line left incomplete by a crash, which new lines would extend
+    rewriteJournal();
+    openJournal();
+    try {
+      flush();
+    } catch (IOException e) {
+      // the periodic flushes try again
+    }
+
+    this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("jack-counter-buffer-%d")
+        .build());
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (IOException e) {
+          // the increments are kept, and the next flush tries again
+        }
+      }
+    }, flushPeriodMillis, flushPeriodMillis, TimeUnit.MILLISECONDS);
+    if (syncPeriodMillis > 0) {
+      flusher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            syncJournal();
+          } catch (IOException e) {
+            // the next sync tries again
+          }
+        }
+      }, syncPeriodMillis, syncPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void subscribe(String tableName, IInvalidationListener listener) {
+    List<IInvalidationListener> listeners = listenersByTable.get(tableName);
+    if (listeners == null) {
+      listenersByTable.putIfAbsent(tableName, new CopyOnWriteArrayList<IInvalidationListener>());
+      listeners = listenersByTable.get(tableName);
+    }
+    listeners.add(listener);
+  }
+
+  public void unsubscribe(String tableName, IInvalidationListener listener) {
+    List<IInvalidationListener> listeners = listenersByTable.get(tableName);
+    if (listeners != null) {
+      listeners.remove(listener);
+    }
+  }
+
+  /**
+   * If syncing the journal fails, the increment may still be applied.
+   */
+  public void increment(String tableName, String fieldName, long id, long delta) throws IOException {
+    long count;
+    synchronized (this) {
+      if (journal == null) {
+        throw new IllegalStateException("Counter buffer is closed");
+      }
+      journal.write(tableName + "\t" + fieldName + "\t" + id + "\t" + delta + "\n");
+      journal.flush();
+      count = ++journaledCount;
+      add(new Counter(tableName, fieldName, id), delta);
+    }
+    if (syncPeriodMillis == 0) {
+      syncJournal(count);
+    }
+  }
+
+  /**
+   * Returns the increment of the field that is not yet in the database.
+   */
+  public synchronized long getPendingDelta(String tableName, String fieldName, long id) {
+    Counter counter = new Counter(tableName, fieldName, id);
+    Long delta = deltas.get(counter);
+    Long flushingDelta = flushing.get(counter);
+    return (delta == null ? 0 : delta) + (flushingDelta == null ? 0 : flushingDelta);
+  }
+
+  public synchronized int getPendingCount() {
+    return deltas.size();
+  }
+
+  /**
+   * Applies the pending increments to the database. If that fails, they are
+   * kept for the next flush.
+   */
+  public void flush() throws IOException {
+    // flushes run one at a time
+    synchronized (flushLock) {
+      Map<Counter, Long> flushed;
+      synchronized (this) {
+        if (deltas.isEmpty()) {
+          return;
+        }
+        flushed = deltas;
+        flushing = flushed;
+        deltas = new LinkedHashMap<Counter, Long>();
+      }
+      try {
+        apply(flushed);
+      } catch (IOException e) {
+        restore(flushed);
+        throw e;
+      } catch (RuntimeException e) {
+        restore(flushed);
+        throw e;
+      }
+      synchronized (this) {
+        flushing = new HashMap<Counter, Long>();
+        compactJournal();
+      }
+
+      for (Counter counter : flushed.keySet()) {
+        List<IInvalidationListener> listeners = listenersByTable.get(counter.tableName);
+        if (listeners != null) {
+          InvalidationEvent event = new InvalidationEvent(sourceId, counter.tableName, counter.id, null);
+          for (IInvalidationListener listener : listeners) {
+            listener.onInvalidation(event);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Flushes the pending increments and stops the periodic flushes.
+   */
+  public void close() throws IOException {
+    flusher.shutdown();
+    flush();
+    syncJournal();
+    synchronized (this) {
+      if (journal != null) {
+        journal.close();
+        journal = null;
+      }
+    }
+  }
+
+  private void apply(Map<Counter, Long> flushed) throws IOException {
+    // one statement, and one batch, per field
+    Map<String, List<Counter>> byStatement = new LinkedHashMap<String, List<Counter>>();
+    try {
+      String quote = conn.getConnection().getMetaData().getIdentifierQuoteString();
+      for (Counter counter : flushed.keySet()) {
+        String field = quote + counter.fieldName + quote;
+        // as in the models, a NULL counter counts as 0
+        String statement = "UPDATE " + counter.tableName + " SET " + field + " = COALESCE(" + field + ", 0) + ? WHERE id = ?";
+        List<Counter> counters = byStatement.get(statement);
+        if (counters == null) {
+          counters = new ArrayList<Counter>();
+          byStatement.put(statement, counters);
+        }
+        counters.add(counter);
+      }
+
+      Connection connection = conn.getConnection();
+      connection.setAutoCommit(false);
+      try {
+        for (Map.Entry<String, List<Counter>> entry : byStatement.entrySet()) {
+          PreparedStatement stmt = connection.prepareStatement(entry.getKey());
+          try {
+            for (Counter counter : entry.getValue()) {
+              stmt.setLong(1, flushed.get(counter));
+              stmt.setLong(2, counter.id);
+              stmt.addBatch();
+            }
+            stmt.executeBatch();
+          } finally {
+            stmt.close();
+          }
+        }
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void syncJournal() throws IOException {
+    long count;
+    synchronized (this) {
+      count = journaledCount;
+    }
+    syncJournal(count);
+  }
+
+  /**
+   * Syncs the journal to disk up to the given line at least. The increments
+   * that wait for a sync are all covered by the next one, rather than each
+   * syncing in turn.
+   */
+  private void syncJournal(long count) throws IOException {
+    synchronized (syncLock) {
+      FileOutputStream out;
+      long target;
+      synchronized (this) {
+        if (syncedCount >= count || journal == null) {
+          return;
+        }
+        out = journalOut;
+        target = journaledCount;
+      }
+      try {
+        out.getFD().sync();
+      } catch (IOException e) {
+        synchronized (this) {
+          // a compaction closed the journal, and synced what it kept of it
+          if (syncedCount >= count) {
+            return;
+          }
+        }
+        throw e;
+      }
+      synchronized (this) {
+        syncedCount = Math.max(syncedCount, target);
+      }
+    }
+  }
+
+  private synchronized void restore(Map<Counter, Long> flushed) {
+    Map<Counter, Long> newDeltas = deltas;
+    deltas = flushed;
+    flushing = new HashMap<Counter, Long>();
+    for (Map.Entry<Counter, Long> entry : newDeltas.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void add(Counter counter, long delta) {
+    Long current = deltas.get(counter);
+    long sum = current == null ? delta : current + delta;
+    if (sum == 0) {
+      deltas.remove(counter);
+    } else {
+      deltas.put(counter, sum);
+    }
+  }
+
+  /**
+   * Rewrites the journal with only the increments that are still pending.
+   */
+  private void compactJournal() throws IOException {
+    if (journal == null) {
+      return;
+    }
+    journal.close();
+    try {
+      rewriteJournal();
+      syncedCount = journaledCount;
+    } finally {
+      openJournal();
+    }
+  }
+
+  private void rewriteJournal() throws IOException {
+    File compacted = new File(journalFile.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(compacted);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+    try {
+      for (Map.Entry<Counter, Long> entry : deltas.entrySet()) {
+        Counter counter = entry.getKey();
+        writer.write(counter.tableName + "\t" + counter.fieldName + "\t" + counter.id + "\t" + entry.getValue() + "\n");
+      }
+      // on disk before it replaces the journal
+      writer.flush();
+      out.getFD().sync();
+    } finally {
+      writer.close();
+    }
+    if (!compacted.renameTo(journalFile)) {
+      throw new IOException("Could not replace " + journalFile + " with " + compacted);
+    }
+  }
+
+  private void openJournal() throws IOException {
+    journalOut = new FileOutputStream(journalFile, true);
+    journal = new BufferedWriter(new OutputStreamWriter(journalOut, "UTF-8"));
+  }
+
+  private void readJournal() throws IOException {
+    Map<Counter, Long> journaled = new HashMap<Counter, Long>();
+    Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+    try {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = reader.read()) != -1) {
+        if (c != '\n') {
+          line.append((char)c);
+          continue;
+        }
+        String[] parts = line.toString().split("\t");
+        line.setLength(0);
+        if (parts.length != 4) {
+          continue;
+        }
+        try {
+          Counter counter = new Counter(parts[0], parts[1], Long.parseLong(parts[2]));
+          Long current = journaled.get(counter);
+          long delta = Long.parseLong(parts[3]);
+          journaled.put(counter, current == null ? delta : current + delta);
+        } catch (NumberFormatException e) {
+          continue;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    for (Map.Entry<Counter, Long> entry : journaled.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+}
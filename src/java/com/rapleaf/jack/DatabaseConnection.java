@@ -18,6 +18,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.jvyaml.YAML;
@@ -29,35 +34,62 @@ import org.jvyaml.YAML;
  * 
  * All public methods methods of DatabaseConnection throw RuntimeExceptions
  * (rather than IO or SQL exceptions).
+ *
+ * With the mysql_replication adapter, the hosts listed under "replicas"
+ * (as "host" or "host:port", in a list or separated by commas) serve the
+ * reads of the models, in turn. Reads go to the primary instead while a
+ * transaction or unit of work is open, and for read_your_writes_millis
+ * (1000 by default) after any other statement, so that a replica lagging
+ * behind does not hide a write just made through this connection. A
+ * replica that cannot be reached is skipped for replica_retry_millis (1000
+ * by default), twice as long after each further failure, up to a minute.
  */
 public class DatabaseConnection extends BaseDatabaseConnection {
   private static final String PARTITION_NUM_ENV_VARIABLE_NAME = "TLB_PARTITION_NUMBER";
 
+  private final String dbname_key;
   private final String connectionString;
   private final String username;
   private final String password;
   private final String driverClass;
+  private final boolean multipleStatements;
+  private final String dbName;
+  private final String serverKey;
   private long expiresAt;
   private long expiration;
+  private final List<String> replicaConnectionStrings = new ArrayList<String>();
+  private transient Connection[] replicaConns;
+  private transient long[] replicaExpiresAt;
+  private transient long[] replicaRetryAt;
+  private transient long[] replicaBackoffMillis;
+  private int nextReplica = 0;
+  private long readYourWritesMillis = DEFAULT_READ_YOUR_WRITES_MILLIS;
+  private long readFromPrimaryUntil = 0;
+  private long replicaRetryMillis = DEFAULT_REPLICA_RETRY_MILLIS;
 
   private static final long DEFAULT_EXPIRATION = 14400000; // 4 hours
+  private static final long DEFAULT_READ_YOUR_WRITES_MILLIS = 1000;
+  private static final long DEFAULT_REPLICA_RETRY_MILLIS = 1000;
+  private static final long MAX_REPLICA_RETRY_MILLIS = 60000;
 
   public DatabaseConnection(String dbname_key) throws RuntimeException {
     this(dbname_key, DEFAULT_EXPIRATION);
   }
   
   public DatabaseConnection(String dbname_key, long expiration) {
-    Map<String, String> db_info = null;
-    Map<String, Object> env_info = null;
-    try {
-      // load database info from config folder
-      env_info = (Map<String, Object>)YAML.load(new FileReader("config/environment.yml"));
-      String db_info_name = (String)env_info.get(dbname_key);
-      Map db_info_container = (Map)YAML.load(new FileReader("config/database.yml"));
-      db_info = (Map<String, String>)db_info_container.get(db_info_name);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    this(dbname_key, loadEnvironment(), expiration);
+  }
+
+  private DatabaseConnection(String dbname_key, Map<String, Object> env_info, long expiration) {
+    this(dbname_key, loadDatabaseInfo(env_info, dbname_key), (Boolean)env_info.get("enable_parallel_tests"), expiration);
+  }
+
+  /**
+   * Connects with the given database info rather than the one in the config
+   * folder.
+   */
+  DatabaseConnection(String dbname_key, Map<String, String> db_info, Boolean parallelTests, long expiration) {
+    this.dbname_key = dbname_key;
 
     // get server credentials from database info
     String adapter = db_info.get("adapter");
@@ -72,20 +104,63 @@ public class DatabaseConnection extends BaseDatabaseConnection {
       driverClass = null;
       throw new IllegalArgumentException("Don't know the driver for adapter '" + adapter + "'!");
     }
-    StringBuilder connectionStringBuilder = new StringBuilder("jdbc:");
-    connectionStringBuilder.append(driver).append("://").append(db_info.get("host"));
+    dbName = getDbName(db_info.get("database"), parallelTests);
+    String options = "";
+    if (driver.equals("postgresql")) {
+      multipleStatements = true;
+    } else {
+      // MySQL only accepts several queries per statement when asked to
+      multipleStatements = Boolean.parseBoolean(String.valueOf(db_info.get("allow_multi_queries")));
+      if (multipleStatements) {
+        options = "?allowMultiQueries=true";
+      }
+    }
+    String hostAndPort = db_info.get("host");
     if (db_info.containsKey("port")) {
-      connectionStringBuilder.append(":").append(Integer.parseInt(db_info.get("port")));
+      hostAndPort += ":" + Integer.parseInt(String.valueOf(db_info.get("port")));
     }
-    connectionStringBuilder.append("/").append(getDbName(db_info.get("database"), (Boolean)env_info.get("enable_parallel_tests")));
-    connectionString = connectionStringBuilder.toString();
+    connectionString = "jdbc:" + driver + "://" + hostAndPort + "/" + dbName + options;
     username = db_info.get("username");
     password = db_info.get("password");
+    // PostgreSQL cannot switch databases on a connection
+    serverKey = driver.equals("mysql") ? "jdbc:" + driver + "://" + hostAndPort + "/" + options + " " + username : null;
+
+    if (adapter.equals("mysql_replication")) {
+      // a list in the YAML file is not a String
+      for (String replica : getReplicas(((Map)db_info).get("replicas"))) {
+        replicaConnectionStrings.add("jdbc:" + driver + "://" + replica + "/" + dbName + options);
+      }
+      if (db_info.containsKey("read_your_writes_millis")) {
+        readYourWritesMillis = Long.parseLong(String.valueOf(db_info.get("read_your_writes_millis")));
+      }
+      if (db_info.containsKey("replica_retry_millis")) {
+        replicaRetryMillis = Long.parseLong(String.valueOf(db_info.get("replica_retry_millis")));
+      }
+    }
 
     this.expiration = expiration;
     updateExpiration();
   }
 
+  private static Map<String, Object> loadEnvironment() {
+    try {
+      return (Map<String, Object>)YAML.load(new FileReader("config/environment.yml"));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Map<String, String> loadDatabaseInfo(Map<String, Object> env_info, String dbname_key) {
+    try {
+      // load database info from config folder
+      String db_info_name = (String)env_info.get(dbname_key);
+      Map db_info_container = (Map)YAML.load(new FileReader("config/database.yml"));
+      return (Map<String, String>)db_info_container.get(db_info_name);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Get a Connection to a database. If there is no connection, create a new one.
    * If the connection hasn't been used in a long time, close it and create a new one.
@@ -94,8 +169,7 @@ public class DatabaseConnection extends BaseDatabaseConnection {
   public Connection getConnection() {
     try {
       if(conn == null) {
-        Class.forName(driverClass);
-        conn = DriverManager.getConnection(connectionString, username, password);
+        conn = openConnection(connectionString);
       } else if (isExpired() || conn.isClosed()) {
         resetConnection();
       }
@@ -106,6 +180,200 @@ public class DatabaseConnection extends BaseDatabaseConnection {
     }
   }
 
+  /**
+   * Statements made through this method may write, so reads stay on the
+   * primary for a while after them.
+   */
+  @Override
+  public PreparedStatement getPreparedStatement(String statement) {
+    afterPrimaryStatement();
+    return super.getPreparedStatement(statement);
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement, int options) {
+    afterPrimaryStatement();
+    return super.getPreparedStatement(statement, options);
+  }
+
+  @Override
+  public Statement getStatement() {
+    afterPrimaryStatement();
+    return super.getStatement();
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement) {
+    return getReadPreparedStatement(statement, null);
+  }
+
+  /**
+   * A hedged read starts on one replica and, if it is slow, goes to the next
+   * one as well.
+   */
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement, HedgingPolicy hedgingPolicy) {
+    Connection replica = getReplicaConnection();
+    try {
+      if (replica == null) {
+        return getConnection().prepareStatement(statement);
+      }
+      Connection hedgeReplica = hedgingPolicy == null ? null : getReplicaConnection();
+      if (hedgeReplica == null || hedgeReplica == replica) {
+        return replica.prepareStatement(statement);
+      }
+      return HedgedStatement.create(replica, hedgeReplica, statement, hedgingPolicy);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Closes the connections to the replicas too, as the caller cannot tell
+   * which server failed.
+   */
+  @Override
+  public Connection resetConnection() {
+    closeReplicaConnections();
+    return super.resetConnection();
+  }
+
+  /**
+   * Sets how long reads stay on the primary after a statement that may
+   * write.
+   */
+  public void setReadYourWritesWindow(long millis) {
+    readYourWritesMillis = millis;
+  }
+
+  public boolean hasReplicas() {
+    return !replicaConnectionStrings.isEmpty();
+  }
+
+  String getDatabaseName() {
+    return dbName;
+  }
+
+  /**
+   * Returns the same key for the connections to databases of the same server
+   * and user, or null if the connection cannot be shared with another
+   * database.
+   */
+  String getServerKey() {
+    // the replicas would be left reading the database they connected to
+    return hasReplicas() ? null : serverKey;
+  }
+
+  private void afterPrimaryStatement() {
+    if (hasReplicas()) {
+      readFromPrimaryUntil = System.currentTimeMillis() + readYourWritesMillis;
+    }
+  }
+
+  /**
+   * Returns a connection to the next replica that can be reached, or null if
+   * the read must go to the primary.
+   */
+  private Connection getReplicaConnection() {
+    if (!hasReplicas() || getUnitOfWork() != null || System.currentTimeMillis() < readFromPrimaryUntil) {
+      return null;
+    }
+    try {
+      // reads inside a transaction must see its writes
+      if (conn != null && !conn.getAutoCommit()) {
+        return null;
+      }
+    } catch (SQLException e) {
+      return null;
+    }
+    if (replicaConns == null) {
+      replicaConns = new Connection[replicaConnectionStrings.size()];
+      replicaExpiresAt = new long[replicaConnectionStrings.size()];
+      replicaRetryAt = new long[replicaConnectionStrings.size()];
+      replicaBackoffMillis = new long[replicaConnectionStrings.size()];
+    }
+    for (int attempt = 0; attempt < replicaConns.length; attempt++) {
+      int index = nextReplica;
+      nextReplica = (nextReplica + 1) % replicaConns.length;
+      if (replicaConns[index] == null && System.currentTimeMillis() < replicaRetryAt[index]) {
+        // the replica could not be reached a moment ago
+        continue;
+      }
+      try {
+        if (replicaConns[index] != null && (replicaExpiresAt[index] < System.currentTimeMillis() || replicaConns[index].isClosed())) {
+          closeQuietly(replicaConns[index]);
+          replicaConns[index] = null;
+        }
+        if (replicaConns[index] == null) {
+          replicaConns[index] = openConnection(replicaConnectionStrings.get(index));
+        }
+        replicaExpiresAt[index] = System.currentTimeMillis() + expiration;
+        replicaBackoffMillis[index] = 0;
+        return replicaConns[index];
+      } catch (Exception e) { //ClassNotFoundEx., SQLEx.
+        // the next replica, or the primary, serves the read
+        replicaConns[index] = null;
+        replicaBackoffMillis[index] = replicaBackoffMillis[index] == 0
+            ? replicaRetryMillis
+            : Math.min(2 * replicaBackoffMillis[index], MAX_REPLICA_RETRY_MILLIS);
+        replicaRetryAt[index] = System.currentTimeMillis() + replicaBackoffMillis[index];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Opens a connection to the primary or to a replica.
+   */
+  Connection openConnection(String connectionString) throws ClassNotFoundException, SQLException {
+    Class.forName(driverClass);
+    return DriverManager.getConnection(connectionString, username, password);
+  }
+
+  private void closeReplicaConnections() {
+    if (replicaConns != null) {
+      for (int i = 0; i < replicaConns.length; i++) {
+        closeQuietly(replicaConns[i]);
+        replicaConns[i] = null;
+      }
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+      }
+    }
+  }
+
+  private static List<String> getReplicas(Object replicas) {
+    List<String> hosts = new ArrayList<String>();
+    if (replicas instanceof List) {
+      for (Object replica : (List)replicas) {
+        hosts.add(String.valueOf(replica).trim());
+      }
+    } else if (replicas != null) {
+      for (String replica : String.valueOf(replicas).split(",")) {
+        if (!replica.trim().isEmpty()) {
+          hosts.add(replica.trim());
+        }
+      }
+    }
+    return hosts;
+  }
+
+  @Override
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    return new DatabaseConnection(dbname_key, expiration);
+  }
+
+  @Override
+  public boolean supportsMultipleStatements() {
+    return multipleStatements;
+  }
+
   /**
    * When using a parallel test environment, we append an integer that lives in
    * an environment variable to the database name.
@@ -0,0 +1,90 @@
+package com.rapleaf.jack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes the connections of the databases of a project. When sharing, the
+ * MySQL databases on the same server and user get SharedDatabaseConnections
+ * over a single DatabaseConnection, so that the connections to a server
+ * grow with the number of threads rather than threads times databases.
+ * Databases with replicas, and PostgreSQL databases, keep a connection of
+ * their own.
+ *
+ * The lanes of connections listed under "lanes" in config/environment.yml,
+ * each with a size and a max_queued, are made once per database and shared
+ * by every DatabasesImpl of the process.
+ */
+public class DatabaseConnections {
+
+  private static final Map<String, ConnectionLane> LANES = new HashMap<String, ConnectionLane>();
+
+  private final boolean share;
+  private final Map laneConfigs;
+  private final Map<String, DatabaseConnection> servers = new HashMap<String, DatabaseConnection>();
+
+  public DatabaseConnections(boolean share) {
+    this(share, null);
+  }
+
+  public DatabaseConnections(Map env_info) {
+    this(Boolean.TRUE.equals(env_info.get("share_connections")), (Map)env_info.get("lanes"));
+  }
+
+  private DatabaseConnections(boolean share, Map laneConfigs) {
+    this.share = share;
+    this.laneConfigs = laneConfigs;
+  }
+
+  public BaseDatabaseConnection get(String dbname_key) {
+    DatabaseConnection connection = new DatabaseConnection(dbname_key);
+    String serverKey = connection.getServerKey();
+    if (!share || serverKey == null) {
+      return connection;
+    }
+    // the connection is only opened when first used, so an unused one costs nothing
+    DatabaseConnection server = servers.get(serverKey);
+    if (server == null) {
+      server = connection;
+      servers.put(serverKey, server);
+    }
+    return new SharedDatabaseConnection(server, connection.getDatabaseName());
+  }
+
+  /**
+   * Returns a connection over the lanes of the database, on the named lane
+   * unless a query is sent to another one.
+   */
+  public BaseDatabaseConnection get(String dbname_key, String lane) {
+    if (laneConfigs == null || !laneConfigs.containsKey(lane)) {
+      throw new IllegalArgumentException("No lane " + lane + " in config/environment.yml");
+    }
+    List<ConnectionLane> lanes = new ArrayList<ConnectionLane>();
+    for (Object name : laneConfigs.keySet()) {
+      lanes.add(getLane(dbname_key, (String)name));
+    }
+    return new LanedDatabaseConnection(lanes, lane);
+  }
+
+  private ConnectionLane getLane(String dbname_key, String name) {
+    synchronized (LANES) {
+      String key = dbname_key + "/" + name;
+      ConnectionLane lane = LANES.get(key);
+      if (lane == null) {
+        Map config = (Map)laneConfigs.get(name);
+        lane = new ConnectionLane(name, dbname_key, toInt(config.get("size")), toInt(config.get("max_queued")));
+        LANES.put(key, lane);
+      }
+      return lane;
+    }
+  }
+
+  private static int toInt(Object value) {
+    if (value == null) {
+      throw new IllegalArgumentException("A lane needs a size and a max_queued");
+    }
+    return ((Number)value).intValue();
+  }
+}
@@ -0,0 +1,85 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.SQLTimeoutException;
+
+/**
+ * A time by which the persistence calls of a thread must be done, such as
+ * the end of the budget of a request. Every statement made by a persistence
+ * within within() gets the time left as its query timeout, and fails right
+ * away once there is none left. A deadline set within another one cannot
+ * extend it.
+ *
+ * JDBC query timeouts are in whole seconds, so a statement may run for up
+ * to a second past the deadline.
+ */
+public final class Deadline {
+
+  public static interface Operation<R> {
+    public R run() throws IOException;
+  }
+
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+  private Deadline() {
+  }
+
+  /**
+   * Runs the operation with the persistence calls of this thread due within
+   * timeoutMillis.
+   */
+  public static <R> R within(long timeoutMillis, Operation<R> operation) throws IOException {
+    if (timeoutMillis < 0) {
+      throw new IllegalArgumentException("Invalid timeout " + timeoutMillis);
+    }
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    Long current = DEADLINE.get();
+    return at(current == null ? deadline : Math.min(current, deadline), operation);
+  }
+
+  /**
+   * Returns the number of milliseconds left to this thread, or
+   * Long.MAX_VALUE if it has no deadline.
+   */
+  public static long getRemainingMillis() {
+    Long deadline = DEADLINE.get();
+    return deadline == null ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the deadline of this thread, for an operation handed to another
+   * thread to run at, or null if there is none.
+   */
+  static Long get() {
+    return DEADLINE.get();
+  }
+
+  static <R> R at(Long deadline, Operation<R> operation) throws IOException {
+    Long previous = DEADLINE.get();
+    DEADLINE.set(deadline);
+    try {
+      return operation.run();
+    } finally {
+      if (previous == null) {
+        DEADLINE.remove();
+      } else {
+        DEADLINE.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Returns the query timeout of a statement made now, in seconds, or 0 if
+   * this thread has no deadline.
+   */
+  static int getQueryTimeoutSeconds() throws SQLTimeoutException {
+    long remaining = getRemainingMillis();
+    if (remaining == Long.MAX_VALUE) {
+      return 0;
+    }
+    if (remaining <= 0) {
+      throw new SQLTimeoutException("The deadline passed " + -remaining + " ms ago");
+    }
+    return (int)Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000);
+  }
+}
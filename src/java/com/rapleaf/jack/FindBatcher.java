@@ -0,0 +1,228 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.SQLTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Collects the ids requested within a short window, and loads them all with a
+ * single query once the window is over or enough ids are pending. Requests
+ * for an id that is already pending share its future.
+ *
+ * Ids requested on different lanes are loaded in separate batches, each on
+ * its lane. A batch runs with the latest deadline of the threads waiting for
+ * it, or none if one of them has none, and each thread stops waiting at its
+ * own deadline.
+ */
+public class FindBatcher<T> {
+
+  public static interface BatchLoader<T> {
+    /**
+     * Returns the models found for the ids, loading them on the named lane,
+     * or on the default connection if lane is null. Ids with no model may be
+     * left out.
+     */
+    public Map<Long, T> load(Set<Long> ids, String lane) throws IOException;
+  }
+
+  private class Batch {
+    private final String lane;
+    private final Map<Long, SettableFuture<T>> futures = new HashMap<Long, SettableFuture<T>>();
+    private boolean hasDeadline = true;
+    private long deadline = 0;
+    private boolean dispatched = false;
+
+    private Batch(String lane) {
+      this.lane = lane;
+    }
+
+    private void addDeadline(Long threadDeadline) {
+      if (threadDeadline == null) {
+        hasDeadline = false;
+      } else {
+        deadline = Math.max(deadline, threadDeadline);
+      }
+    }
+  }
+
+  private final long windowMillis;
+  private final int maxBatchSize;
+  private final BatchLoader<T> loader;
+  private final ScheduledExecutorService executor;
+
+  private final Map<String, Batch> pending = new HashMap<String, Batch>();
+
+  public FindBatcher(String name, long windowMillis, int maxBatchSize, BatchLoader<T> loader) {
+    if (windowMillis < 0 || maxBatchSize <= 0) {
+      throw new IllegalArgumentException("Invalid batching window " + windowMillis + " or size " + maxBatchSize);
+    }
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+    this.loader = loader;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("jack-batch-" + name + "-%d")
+        .build());
+  }
+
+  public ListenableFuture<T> submit(long id) {
+    return submit(id, null);
+  }
+
+  /**
+   * Adds the id to the next batch of the lane. Once the batcher is closed,
+   * the future fails with a RejectedExecutionException.
+   */
+  public ListenableFuture<T> submit(long id, String lane) {
+    Long deadline = Deadline.get();
+    Batch batch;
+    SettableFuture<T> future;
+    boolean firstInBatch = false;
+    boolean full;
+    synchronized (this) {
+      batch = pending.get(lane);
+      if (batch == null) {
+        batch = new Batch(lane);
+        pending.put(lane, batch);
+        firstInBatch = true;
+      }
+      batch.addDeadline(deadline);
+      future = batch.futures.get(id);
+      if (future != null) {
+        return future;
+      }
+      future = SettableFuture.create();
+      batch.futures.put(id, future);
+      full = batch.futures.size() >= maxBatchSize;
+      if (full) {
+        pending.remove(lane);
+      }
+    }
+    try {
+      if (full) {
+        executor.execute(new Dispatch(batch));
+      } else if (firstInBatch) {
+        executor.schedule(new Dispatch(batch), windowMillis, TimeUnit.MILLISECONDS);
+      }
+    } catch (RejectedExecutionException e) {
+      if (take(batch)) {
+        fail(batch, e);
+      }
+    }
+    return future;
+  }
+
+  public T get(long id) throws IOException {
+    return get(id, null);
+  }
+
+  /**
+   * Waits for the id to be loaded, for no longer than the deadline of this
+   * thread.
+   */
+  public T get(long id, String lane) throws IOException {
+    ListenableFuture<T> future = submit(id, lane);
+    long remaining = Deadline.getRemainingMillis();
+    try {
+      if (remaining == Long.MAX_VALUE) {
+        return Uninterruptibles.getUninterruptibly(future);
+      }
+      return Uninterruptibles.getUninterruptibly(future, Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new IOException(new SQLTimeoutException("The deadline passed while waiting for a batch"));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new IOException(cause);
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Stops batching. The batches already pending are still loaded.
+   */
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Same as close(), running onClosed on the thread of the batcher once the
+   * pending batches are loaded.
+   */
+  public void close(Runnable onClosed) {
+    try {
+      // runs after the dispatches scheduled so far
+      executor.schedule(onClosed, windowMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // already closed
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Returns true if the caller is the one to load or fail the batch.
+   */
+  private synchronized boolean take(Batch batch) {
+    if (batch.dispatched) {
+      return false;
+    }
+    batch.dispatched = true;
+    if (pending.get(batch.lane) == batch) {
+      pending.remove(batch.lane);
+    }
+    return true;
+  }
+
+  private void fail(Batch batch, Throwable t) {
+    for (SettableFuture<T> future : batch.futures.values()) {
+      future.setException(t);
+    }
+  }
+
+  private class Dispatch implements Runnable {
+    private final Batch batch;
+
+    private Dispatch(Batch batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void run() {
+      // the batch may already have been dispatched once full
+      if (!take(batch)) {
+        return;
+      }
+      Long deadline;
+      synchronized (FindBatcher.this) {
+        deadline = batch.hasDeadline ? batch.deadline : null;
+      }
+      try {
+        Map<Long, T> models = Deadline.at(deadline, new Deadline.Operation<Map<Long, T>>() {
+          @Override
+          public Map<Long, T> run() throws IOException {
+            return loader.load(batch.futures.keySet(), batch.lane);
+          }
+        });
+        for (Map.Entry<Long, SettableFuture<T>> entry : batch.futures.entrySet()) {
+          entry.getValue().set(models.get(entry.getKey()));
+        }
+      } catch (Throwable t) {
+        fail(batch, t);
+      }
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package com.rapleaf.jack;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Collects the autocommit writes made through a connection within a short
+ * linger time, and runs them on a single thread in one transaction once the
+ * linger time is over or enough writes are pending. Each caller is
+ * completed only after the transaction commits, so a write that returns is
+ * as durable as it would be on its own, while the server syncs its log once
+ * per group instead of once per write.
+ *
+ * The groups run on a connection of their own, so that the statements of
+ * other threads never end up in a group's transaction: the statements a
+ * write makes through its persistence go to that connection.
+ *
+ * If a write fails, the transaction is rolled back, that write alone fails,
+ * and the others are run again in a new transaction. If the connection is
+ * lost or the commit fails, every write of the group fails.
+ */
+public class GroupCommitExecutor {
+
+  public static interface Write<R> {
+    /**
+     * Sends the write on the connection. It may be run more than once if
+     * another write of its group fails, so it must not have other effects.
+     */
+    public R execute() throws SQLException;
+  }
+
+  private static class PendingWrite<R> {
+    private final Write<R> write;
+    private final SettableFuture<R> future = SettableFuture.create();
+    private R result;
+
+    private PendingWrite(Write<R> write) {
+      this.write = write;
+    }
+
+    private void execute() throws SQLException {
+      result = write.execute();
+    }
+
+    private void complete() {
+      future.set(result);
+    }
+
+    private void fail(Throwable t) {
+      future.setException(t);
+    }
+  }
+
+  // the executor whose group this thread is running
+  private static final ThreadLocal<GroupCommitExecutor> RUNNING = new ThreadLocal<GroupCommitExecutor>();
+
+  private final BaseDatabaseConnection conn;
+  private final long lingerMillis;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService executor;
+
+  private List<PendingWrite<?>> pending = new ArrayList<PendingWrite<?>>();
+
+  public GroupCommitExecutor(BaseDatabaseConnection conn, long lingerMillis, int maxBatchSize) {
+    if (lingerMillis < 0 || maxBatchSize <= 0) {
+      throw new IllegalArgumentException("Invalid linger time " + lingerMillis + " or batch size " + maxBatchSize);
+    }
+    this.conn = conn;
+    this.lingerMillis = lingerMillis;
+    this.maxBatchSize = maxBatchSize;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("jack-group-commit-%d")
+        .build());
+  }
+
+  public <R> ListenableFuture<R> submit(Write<R> write) {
+    PendingWrite<R> pendingWrite = new PendingWrite<R>(write);
+    boolean firstInBatch;
+    boolean full;
+    synchronized (this) {
+      firstInBatch = pending.isEmpty();
+      pending.add(pendingWrite);
+      full = pending.size() >= maxBatchSize;
+    }
+    if (full) {
+      executor.execute(new Dispatch());
+    } else if (firstInBatch) {
+      executor.schedule(new Dispatch(), lingerMillis, TimeUnit.MILLISECONDS);
+    }
+    return pendingWrite.future;
+  }
+
+  /**
+   * Waits until the write is committed with its group, and returns its
+   * result.
+   */
+  public <R> R execute(Write<R> write) throws SQLException {
+    try {
+      return Uninterruptibles.getUninterruptibly(submit(write));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        throw (SQLException)cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Returns the connection the groups are committed on.
+   */
+  public BaseDatabaseConnection getConnection() {
+    return conn;
+  }
+
+  /**
+   * Whether this thread is running a group of this executor, whose
+   * statements must go to its connection.
+   */
+  public boolean isRunningGroup() {
+    return RUNNING.get() == this;
+  }
+
+  /**
+   * Waits for the pending writes to be committed, and closes the connection.
+   */
+  public void close() {
+    executor.shutdown();
+    boolean interrupted = false;
+    try {
+      while (!executor.isTerminated()) {
+        try {
+          executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      conn.discardConnection();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private class Dispatch implements Runnable {
+    @Override
+    public void run() {
+      List<PendingWrite<?>> batch;
+      synchronized (GroupCommitExecutor.this) {
+        // an earlier dispatch may already have taken the batch
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = pending;
+        pending = new ArrayList<PendingWrite<?>>();
+      }
+      RUNNING.set(GroupCommitExecutor.this);
+      try {
+        while (!batch.isEmpty()) {
+          batch = commitGroup(batch);
+        }
+      } catch (RuntimeException e) {
+        // no connection could be opened; writes already completed keep their result
+        for (PendingWrite<?> write : batch) {
+          write.fail(e);
+        }
+      } finally {
+        RUNNING.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the writes to run again after one of the group failed.
+   */
+  private List<PendingWrite<?>> commitGroup(List<PendingWrite<?>> writes) {
+    Connection connection = conn.getConnection();
+    boolean connectionLost = false;
+    boolean committed = false;
+    try {
+      connection.setAutoCommit(false);
+      for (int i = 0; i < writes.size(); i++) {
+        PendingWrite<?> write = writes.get(i);
+        try {
+          write.execute();
+        } catch (SQLRecoverableException e) {
+          throw e;
+        } catch (Throwable t) {
+          rollbackQuietly(connection);
+          write.fail(t);
+          List<PendingWrite<?>> others = new ArrayList<PendingWrite<?>>(writes);
+          others.remove(i);
+          return others;
+        }
+      }
+      connection.commit();
+      committed = true;
+    } catch (SQLException e) {
+      connectionLost = e instanceof SQLRecoverableException;
+      rollbackQuietly(connection);
+      for (PendingWrite<?> write : writes) {
+        write.fail(e);
+      }
+    } finally {
+      try {
+        connection.setAutoCommit(true);
+      } catch (SQLException e) {
+        connectionLost = true;
+      }
+      if (connectionLost) {
+        conn.discardConnection();
+      }
+    }
+    // completed once the connection is back in autocommit mode
+    if (committed) {
+      for (PendingWrite<?> write : writes) {
+        write.complete();
+      }
+    }
+    return new ArrayList<PendingWrite<?>>();
+  }
+
+  private static void rollbackQuietly(Connection connection) {
+    try {
+      connection.rollback();
+    } catch (SQLException e) {
+      // the transaction is abandoned either way
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A PreparedStatement whose executeQuery() is sent to a second connection
+ * as well if the first has not answered within the delay of the hedging
+ * policy. The first result is returned, and the other query is cancelled
+ * with Statement.cancel(). Parameters set on the statement are replayed on
+ * the second one. Every other method goes to the statement of the first
+ * connection, or to the one that answered once a query was hedged.
+ */
+class HedgedStatement implements InvocationHandler {
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("jack-hedged-read-%d")
+      .build());
+
+  private static class Call {
+    private final Method method;
+    private final Object[] args;
+
+    private Call(Method method, Object[] args) {
+      this.method = method;
+      this.args = args;
+    }
+  }
+
+  private final Connection hedgeConnection;
+  private final String sql;
+  private final HedgingPolicy policy;
+  private final List<Call> parameterCalls = new ArrayList<Call>();
+
+  private PreparedStatement statement;
+
+  private HedgedStatement(PreparedStatement statement, Connection hedgeConnection, String sql, HedgingPolicy policy) {
+    this.statement = statement;
+    this.hedgeConnection = hedgeConnection;
+    this.sql = sql;
+    this.policy = policy;
+  }
+
+  static PreparedStatement create(Connection connection, Connection hedgeConnection, String sql, HedgingPolicy policy)
+      throws SQLException {
+    return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class[]{PreparedStatement.class},
+        new HedgedStatement(connection.prepareStatement(sql), hedgeConnection, sql, policy));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (name.equals("executeQuery") && (args == null || args.length == 0)) {
+      return executeQuery();
+    }
+    if (name.startsWith("set") || name.equals("clearParameters")) {
+      parameterCalls.add(new Call(method, args));
+    }
+    try {
+      return method.invoke(statement, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private ResultSet executeQuery() throws SQLException {
+    CompletionService<ResultSet> race = new ExecutorCompletionService<ResultSet>(EXECUTOR);
+    PreparedStatement first = statement;
+    Future<ResultSet> firstResult = race.submit(query(first));
+    PreparedStatement hedge = null;
+    Future<ResultSet> hedgeResult = null;
+    try {
+      Future<ResultSet> done = race.poll(policy.getDelayMillis(), TimeUnit.MILLISECONDS);
+      if (done == null) {
+        hedge = prepareHedge();
+        if (hedge != null) {
+          hedgeResult = race.submit(query(hedge));
+        }
+        done = race.take();
+      }
+
+      ExecutionException failure = null;
+      int pending = hedgeResult == null ? 1 : 2;
+      while (true) {
+        try {
+          ResultSet rs = done.get();
+          statement = done == firstResult ? first : hedge;
+          if (pending == 2) {
+            cancel(statement == first ? hedge : first, statement == first ? hedgeResult : firstResult);
+          } else if (hedge != null) {
+            closeQuietly(statement == first ? hedge : first);
+          }
+          return rs;
+        } catch (ExecutionException e) {
+          // an error is not a slow answer, so a query that fails before the delay is not hedged
+          if (failure == null) {
+            failure = e;
+          }
+          if (--pending == 0) {
+            throw asSQLException(failure.getCause());
+          }
+          done = race.take();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel(first, firstResult);
+      if (hedge != null) {
+        cancel(hedge, hedgeResult);
+      }
+      throw new SQLException("Interrupted while waiting for a hedged read", e);
+    }
+  }
+
+  /**
+   * Returns null if the second connection cannot take the query, in which
+   * case only the first one is waited for.
+   */
+  private PreparedStatement prepareHedge() {
+    PreparedStatement hedge = null;
+    try {
+      hedge = hedgeConnection.prepareStatement(sql);
+      for (Call call : parameterCalls) {
+        call.method.invoke(hedge, call.args);
+      }
+      return hedge;
+    } catch (Exception e) { //SQLEx., InvocationTargetEx.
+      closeQuietly(hedge);
+      return null;
+    }
+  }
+
+  private Callable<ResultSet> query(final PreparedStatement stmt) {
+    return new Callable<ResultSet>() {
+      @Override
+      public ResultSet call() throws SQLException {
+        long start = System.currentTimeMillis();
+        try {
+          return stmt.executeQuery();
+        } finally {
+          // a cancelled query still tells how long it was at least
+          policy.recordLatency(System.currentTimeMillis() - start);
+        }
+      }
+    };
+  }
+
+  /**
+   * Cancels the query that lost, and closes its statement once it returns.
+   */
+  private static void cancel(final PreparedStatement stmt, final Future<ResultSet> result) {
+    try {
+      stmt.cancel();
+    } catch (SQLException e) {
+      // the query is left to finish on its own
+    }
+    EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.get();
+        } catch (Exception e) {
+          // the result is not used
+        }
+        closeQuietly(stmt);
+      }
+    });
+  }
+
+  private static void closeQuietly(PreparedStatement stmt) {
+    if (stmt != null) {
+      try {
+        stmt.close();
+      } catch (SQLException e) {
+      }
+    }
+  }
+
+  private static SQLException asSQLException(Throwable t) {
+    if (t instanceof SQLException) {
+      return (SQLException)t;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException)t;
+    }
+    return new SQLException(t);
+  }
+}
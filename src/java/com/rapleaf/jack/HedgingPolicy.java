@@ -0,0 +1,66 @@
+package com.rapleaf.jack;
+
+import java.util.Arrays;
+
+/**
+ * Decides how long a read waits for its replica before the same query is
+ * sent to another one: the given percentile of the latencies of the last
+ * reads, but never less than minDelayMillis. With the 95th percentile,
+ * about one read in twenty is hedged, and those are the ones that would
+ * otherwise make the tail latency.
+ */
+public class HedgingPolicy {
+
+  private static final int DEFAULT_WINDOW_SIZE = 1000;
+  // the delay is recomputed every so many latencies
+  private static final int UPDATE_INTERVAL = 10;
+
+  private final double percentile;
+  private final long minDelayMillis;
+  private final long[] latencies;
+
+  private int count = 0;
+  private int next = 0;
+  private int sinceUpdate = 0;
+  private long delayMillis;
+
+  public HedgingPolicy(double percentile, long minDelayMillis) {
+    this(percentile, minDelayMillis, DEFAULT_WINDOW_SIZE);
+  }
+
+  public HedgingPolicy(double percentile, long minDelayMillis, int windowSize) {
+    if (percentile <= 0 || percentile > 100) {
+      throw new IllegalArgumentException("Invalid percentile " + percentile);
+    }
+    if (minDelayMillis < 0 || windowSize <= 0) {
+      throw new IllegalArgumentException("Invalid minimum delay " + minDelayMillis + " or window size " + windowSize);
+    }
+    this.percentile = percentile;
+    this.minDelayMillis = minDelayMillis;
+    this.latencies = new long[windowSize];
+    this.delayMillis = minDelayMillis;
+  }
+
+  /**
+   * Records how long a query took, or how long it ran before it was
+   * cancelled.
+   */
+  public synchronized void recordLatency(long millis) {
+    latencies[next] = millis;
+    next = (next + 1) % latencies.length;
+    if (count < latencies.length) {
+      count++;
+    }
+    if (++sinceUpdate >= UPDATE_INTERVAL || count < UPDATE_INTERVAL) {
+      sinceUpdate = 0;
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      int index = (int)Math.ceil(percentile / 100 * count) - 1;
+      delayMillis = Math.max(minDelayMillis, sorted[Math.max(index, 0)]);
+    }
+  }
+
+  public synchronized long getDelayMillis() {
+    return delayMillis;
+  }
+}
@@ -0,0 +1,135 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+
+/**
+ * Allocates blocks of ids with the hi/lo algorithm: a sequence table holds,
+ * for each table, the next "hi" value, and the block of a hi value is
+ * [hi * blockSize, (hi + 1) * blockSize). The first block of a table starts
+ * above its largest existing id. The sequence table needs two columns:
+ *
+ *   CREATE TABLE jack_id_sequences (
+ *     table_name VARCHAR(255) NOT NULL PRIMARY KEY,
+ *     next_hi BIGINT NOT NULL
+ *   )
+ *
+ * Every process allocating ids for a table must use the same block size,
+ * and records of that table must no longer be created with generated keys,
+ * or the two kinds of ids will eventually collide.
+ *
+ * The connection should be dedicated to the allocator and left in
+ * autocommit mode, so that a block stays reserved even if the transaction
+ * that first used it is rolled back.
+ */
+public class HiLoIdAllocator extends BlockIdAllocator {
+
+  public static final String DEFAULT_SEQUENCE_TABLE = "jack_id_sequences";
+
+  private static final int MAX_ATTEMPTS = 10;
+
+  private final BaseDatabaseConnection conn;
+  private final String sequenceTable;
+
+  public HiLoIdAllocator(BaseDatabaseConnection conn, int blockSize) {
+    this(conn, blockSize, DEFAULT_SEQUENCE_TABLE);
+  }
+
+  public HiLoIdAllocator(BaseDatabaseConnection conn, int blockSize, String sequenceTable) {
+    super(blockSize);
+    this.conn = conn;
+    this.sequenceTable = sequenceTable;
+  }
+
+  @Override
+  protected long allocateBlock(String tableName, int blockSize) throws IOException {
+    int retryCount = 0;
+    int attempts = 0;
+    while (true) {
+      try {
+        Long hi = reserveHi(tableName, blockSize);
+        if (hi != null) {
+          return hi * blockSize;
+        }
+        // another process reserved the same hi value first
+        if (++attempts >= MAX_ATTEMPTS) {
+          throw new IOException("Could not reserve a block of ids for " + tableName + " after " + attempts + " attempts");
+        }
+      } catch (SQLRecoverableException e) {
+        conn.resetConnection();
+        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the reserved hi value, or null if a concurrent reservation won.
+   */
+  private Long reserveHi(String tableName, int blockSize) throws SQLException {
+    PreparedStatement select = conn.getPreparedStatement("SELECT next_hi FROM " + sequenceTable + " WHERE table_name = ?");
+    Long hi = null;
+    try {
+      select.setString(1, tableName);
+      ResultSet rs = select.executeQuery();
+      if (rs.next()) {
+        hi = rs.getLong(1);
+      }
+      rs.close();
+    } finally {
+      select.close();
+    }
+
+    if (hi != null) {
+      PreparedStatement update = conn.getPreparedStatement("UPDATE " + sequenceTable + " SET next_hi = ? WHERE table_name = ? AND next_hi = ?");
+      try {
+        update.setLong(1, hi + 1);
+        update.setString(2, tableName);
+        update.setLong(3, hi);
+        return update.executeUpdate() == 1 ? hi : null;
+      } finally {
+        update.close();
+      }
+    }
+
+    hi = getLargestId(tableName) / blockSize + 1;
+    PreparedStatement insert = conn.getPreparedStatement("INSERT INTO " + sequenceTable + " (table_name, next_hi) VALUES (?, ?)");
+    try {
+      insert.setString(1, tableName);
+      insert.setLong(2, hi + 1);
+      insert.executeUpdate();
+      return hi;
+    } catch (SQLException e) {
+      if (isDuplicateKey(e)) {
+        // the row was inserted by another process in the meantime
+        return null;
+      }
+      throw e;
+    } finally {
+      insert.close();
+    }
+  }
+
+  // 23000 on MySQL, 23505 on PostgreSQL
+  private static boolean isDuplicateKey(SQLException e) {
+    return "23000".equals(e.getSQLState()) || "23505".equals(e.getSQLState());
+  }
+
+  private long getLargestId(String tableName) throws SQLException {
+    PreparedStatement stmt = conn.getPreparedStatement("SELECT MAX(id) FROM " + tableName);
+    try {
+      ResultSet rs = stmt.executeQuery();
+      long largestId = rs.next() ? rs.getLong(1) : 0;
+      rs.close();
+      return largestId;
+    } finally {
+      stmt.close();
+    }
+  }
+}
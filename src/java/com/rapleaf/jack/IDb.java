@@ -17,6 +17,8 @@ package com.rapleaf.jack;
 import java.io.IOException;
 import java.io.Serializable;
 
+import com.rapleaf.jack.invalidation.InvalidationBus;
+
 public interface IDb extends Serializable {
   
   /**
@@ -29,7 +31,48 @@ public interface IDb extends Serializable {
   public boolean deleteAll() throws IOException;
 
   public void disableCaching();
+
+  /**
+   * Let the policy enable or bypass caching of each persistence of this
+   * database based on its own usage.
+   */
+  public void enableAdaptiveCaching(AdaptiveCachePolicy policy);
+
+  /**
+   * Have every persistence of this database take the ids of new records
+   * from the allocator. Pass null to use generated keys again.
+   */
+  public void setIdAllocator(IdAllocator idAllocator);
+
+  /**
+   * Send the buffered increments of every persistence of this database
+   * through the buffer.
+   */
+  public void setCounterBuffer(CounterBuffer buffer);
+
+  /**
+   * Hedge the reads of every persistence of this database across replicas
+   * according to the policy. Pass null to stop hedging.
+   */
+  public void setHedgingPolicy(HedgingPolicy policy);
+
+  /**
+   * Attach every persistence of this database to the invalidation bus.
+   */
+  public void setInvalidationBus(InvalidationBus bus);
+
+  /**
+   * Returns a new batch of reads against the persistences of this database,
+   * to be sent together in as few round trips as possible.
+   */
+  public ReadBatch readBatch();
   
+  /**
+   * Opens a transaction in which saves and deletes are recorded, and sent
+   * in batches when it is committed.
+   */
+  public UnitOfWork beginUnitOfWork();
+
   public void setAutoCommit(boolean autoCommit);
   
   public boolean getAutoCommit();
@@ -17,10 +17,14 @@ package com.rapleaf.jack;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.List;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.rapleaf.jack.invalidation.InvalidationBus;
 import com.rapleaf.jack.queries.ModelQuery;
 
 public interface IModelPersistence<T extends ModelWithId> extends Serializable {
@@ -29,6 +33,21 @@ public interface IModelPersistence<T extends ModelWithId> extends Serializable {
     public boolean selectRecord(T record);
   }
 
+  /**
+   * Receives the records of a streamed read one at a time, while the rows
+   * are still being read from the server. Returning false ends the read.
+   *
+   * On MySQL the rows are streamed over the connection of the persistence,
+   * which cannot run any other statement until the read is over: the visitor
+   * must not read or write through any persistence on that connection, and
+   * should collect what it needs to do so until the read returns. On
+   * PostgreSQL a read in autocommit mode streams over a connection of its
+   * own, and the visitor is free to use the persistences.
+   */
+  public interface RecordVisitor<T extends ModelWithId> {
+    public boolean visitRecord(T record) throws IOException;
+  }
+
   public ModelWithId create(Map<Enum, Object> fieldsMap) throws IOException;
 
   /**
@@ -59,6 +78,14 @@ public interface IModelPersistence<T extends ModelWithId> extends Serializable {
   
   public List<T> findWithOrder(ModelQuery query) throws IOException;
 
+  /**
+   * Hands the records of the query to the visitor in the order of the query,
+   * each as soon as its row is read, instead of collecting them. On a
+   * sharded table the shards are read one after the other, and the query
+   * cannot be ordered, limited or aggregated.
+   */
+  public void findStreaming(ModelQuery query, RecordVisitor<T> visitor) throws IOException;
+
   public void clearCacheById(long id) throws IOException;
 
   public Set<T> findAllByForeignKey(String foreignKey, long id) throws IOException;
@@ -101,6 +128,26 @@ public interface IModelPersistence<T extends ModelWithId> extends Serializable {
 
   public Set<T> findAll(String conditions, RecordSelector<T> selector) throws IOException;
 
+  /**
+   * Same as findAll(String), with the rows fetched from the server fetchSize
+   * at a time. PostgreSQL only does so within a transaction: in autocommit
+   * mode, the read runs in a transaction of its own on a connection opened
+   * for it.
+   */
+  public Set<T> findAll(String conditions, int fetchSize) throws IOException;
+
+  /**
+   * Same as findAll(String), with the rows streamed from the server rather
+   * than all buffered by the driver before the first one is read.
+   */
+  public Set<T> findAllStreaming(String conditions) throws IOException;
+
+  /**
+   * Same as findAllStreaming(String), with each record handed to the visitor
+   * as soon as its row is read instead of collected.
+   */
+  public void findAllStreaming(String conditions, RecordVisitor<T> visitor) throws IOException;
+
   /**
    * Caching is on by default, and is toggled with enableCaching() and disableCaching().
    * <p/>
@@ -113,4 +160,261 @@ public interface IModelPersistence<T extends ModelWithId> extends Serializable {
   public void enableCaching();
 
   public void disableCaching();
+
+  /**
+   * With adaptive caching, cache hits, misses and writes of lookups by id are
+   * counted over windows of time, and at the end of each window the policy
+   * decides whether caching is enabled or bypassed for the next one.
+   * Caching is enabled when this is called. disableCaching() also turns
+   * adaptive caching off.
+   */
+  public void enableAdaptiveCaching(AdaptiveCachePolicy policy);
+
+  /**
+   * Stops adapting, re-enabling caching if it is currently bypassed.
+   */
+  public void disableAdaptiveCaching();
+
+  /**
+   * Cache usage over the current window, whether or not adaptive caching is on.
+   */
+  public CacheStatistics getCacheStatistics();
+
+  /**
+   * In identity map mode, every lookup returns the instance already cached
+   * for an id rather than a fresh copy, so that a record is represented by a
+   * single object. With WEAK or SOFT values, cached models can be reclaimed
+   * by the garbage collector once the application stops referencing them;
+   * foreign key lookups are then no longer cached, since their results would
+   * keep the models reachable.
+   */
+  public void enableIdentityMap(IdentityMap.ValueStrength valueStrength);
+
+  public void disableIdentityMap();
+
+  /**
+   * With batching, ids that miss the cache are not loaded one by one:
+   * lookups arriving within windowMillis of each other are collected, up to
+   * maxBatchSize ids, and loaded with a single query. find(long) waits for
+   * the batch of its id, while findAsync(long) lets a single thread request
+   * many ids before waiting on any of them. Lookups made while a transaction
+   * is open are not batched. Batches are loaded on another thread, on a
+   * connection of their own or of the lane of the callers, with the
+   * deadline of the callers.
+   */
+  public void enableBatching(long windowMillis, int maxBatchSize);
+
+  public void disableBatching();
+
+  /**
+   * Same as find(long), except that with batching enabled the lookup joins
+   * the current batch instead of blocking.
+   */
+  public ListenableFuture<T> findAsync(long id);
+
+  /**
+   * With refresh-ahead, a cached record or foreign key lookup that was loaded
+   * more than refreshAfterMillis ago is reloaded in the background on its next
+   * hit, on a connection of its own, while the caller still gets the cached
+   * value. Concurrent misses for the same id or foreign key value always
+   * share a single query.
+   */
+  public void enableRefreshAhead(long refreshAfterMillis);
+
+  public void disableRefreshAhead();
+
+  /**
+   * In revalidation mode, cached models returned by find(id) and find(ids) are
+   * checked against the database once they were last checked, or loaded,
+   * more than revalidateAfterMillis ago. A single
+   * SELECT id, updated_at ... WHERE id IN (...) compares their versions, and
+   * only the rows whose updated_at changed are reloaded. Rows that were
+   * deleted are evicted. Requires an updated_at column.
+   */
+  public void enableRevalidation(long revalidateAfterMillis);
+
+  /**
+   * Same as enableRevalidation(long), checking cached models at most once a
+   * second.
+   */
+  public void enableRevalidation();
+
+  public void disableRevalidation();
+
+  /**
+   * Reload the cached models among ids whose updated_at no longer matches
+   * the database, whatever the time they were last checked. With the
+   * identity map, the cached instances are updated in place.
+   *
+   * @return the number of reloaded models
+   */
+  public int revalidate(Collection<Long> ids) throws IOException;
+
+  /**
+   * When a ModelQuery is restricted to a set of ids, its constraints, order and
+   * limit are evaluated in memory against the cached models, and only the ids
+   * missing from the cache are queried. Off by default; it only applies while
+   * caching is enabled.
+   *
+   * The answer may differ from the database's. Values are compared with Java
+   * semantics, so strings compare case sensitively and LIKE patterns match
+   * whatever the column collation. The cached instances are the ones handed
+   * out by find, so changes made to them and not saved yet are seen too.
+   */
+  public void enableInMemoryQueries();
+
+  public void disableInMemoryQueries();
+
+  /**
+   * The query cache remembers the ids returned by find(ModelQuery) and
+   * findWithOrder(ModelQuery), keyed by the query's SQL and parameters, and
+   * resolves repeated queries through the id cache. It is off by default, only
+   * used while caching is enabled, and emptied by every write made through this
+   * persistence. Entries expire after expirationMillis (never if 0), and at most
+   * maxEntries queries are remembered.
+   */
+  public void enableQueryCache(long maxEntries, long expirationMillis);
+
+  public void disableQueryCache();
+
+  public boolean isQueryCaching();
+
+  /**
+   * Publish every write made through this persistence on the bus, and evict
+   * the cached records written by other persistences of the same table on
+   * that bus. Received events are applied on the next call to this
+   * persistence. Pass null to detach from the current bus.
+   */
+  public void setInvalidationBus(InvalidationBus bus);
+
+  /**
+   * Have create() take the ids of new records from the allocator and insert
+   * them with their id, rather than having the database generate one. Inside
+   * a unit of work, the inserts are then deferred and batched like saves.
+   * Columns left out of create() are inserted as NULL instead of taking
+   * their database default. Pass null to use generated keys again.
+   */
+  public void setIdAllocator(IdAllocator idAllocator);
+
+  /**
+   * Deletes the records with a single DELETE ... WHERE id IN statement.
+   * Returns the number of records deleted.
+   */
+  public int delete(Collection<Long> ids) throws IOException;
+
+  /**
+   * Deletes the records matching the where constraints and ids of the query
+   * with a single DELETE statement, and returns how many were deleted. A
+   * limit on the query caps the number of records deleted (MySQL only);
+   * order criteria are ignored. The id cache of the persistence is cleared.
+   * A query without any constraint is rejected with an
+   * IllegalArgumentException; use deleteAll() to empty the table.
+   */
+  public int deleteWhere(ModelQuery query) throws IOException;
+
+  /**
+   * Same as deleteWhere(ModelQuery), in statements deleting at most
+   * chunkSize records each until none match, so that no single statement
+   * holds locks on a huge number of rows.
+   */
+  public int deleteWhere(ModelQuery query, int chunkSize) throws IOException;
+
+  /**
+   * Sets the fields to the given values, with a single UPDATE statement, in
+   * the records matching the where constraints and ids of the query, and
+   * returns how many were updated. updated_at is bumped as by save(). A
+   * limit on the query caps the number of records updated (MySQL only);
+   * order criteria are ignored. The id cache of the persistence is cleared.
+   * A query without any constraint is rejected with an
+   * IllegalArgumentException.
+   */
+  public int updateWhere(ModelQuery query, Map<Enum, Object> values) throws IOException;
+
+  /**
+   * Inserts the record with its id, or overwrites every field of the
+   * existing record with that id, in a single statement. On PostgreSQL this
+   * needs version 9.5 or later, for INSERT ... ON CONFLICT; older servers
+   * throw an UnsupportedOperationException. With the identity map, a cached
+   * instance of the record is updated with the values of the model.
+   */
+  public boolean upsert(T model) throws IOException;
+
+  /**
+   * Same as upsert(T), with one JDBC batch for all the records. Returns the
+   * number of records written.
+   */
+  public int upsertAll(Collection<T> models) throws IOException;
+
+  /**
+   * Adds delta to an integer field of the record with a single UPDATE,
+   * without reading or rewriting the rest of the row. Returns whether the
+   * record exists. Cached copies of the record are evicted.
+   */
+  public boolean increment(long id, Enum field, long delta) throws IOException;
+
+  /**
+   * Same as increment(long, Enum, long), with one UPDATE for all the ids.
+   * Returns the number of records updated.
+   */
+  public int increment(Collection<Long> ids, Enum field, long delta) throws IOException;
+
+  /**
+   * Sets one field of the record with a single UPDATE, without rewriting the
+   * rest of the row. Returns whether the record exists. Cached copies of the
+   * record are evicted.
+   */
+  public boolean updateField(long id, Enum field, Object value) throws IOException;
+
+  /**
+   * Same as updateField(long, Enum, Object), with one UPDATE for all the
+   * ids. Returns the number of records updated.
+   */
+  public int updateField(Collection<Long> ids, Enum field, Object value) throws IOException;
+
+  /**
+   * Send the increments made with incrementBuffered through the buffer. Pass
+   * null to detach from the current buffer.
+   *
+   * The buffer journals the increments so that a crash does not lose them,
+   * at the cost of counting some twice: a crash after a flush commits but
+   * before its increments leave the journal applies them again when the
+   * buffer is created anew. Buffered counters suit values that may be off
+   * by the increments of one flush period after a crash, such as view or
+   * post counts, and not values that must be exact.
+   */
+  public void setCounterBuffer(CounterBuffer buffer);
+
+  /**
+   * Adds delta to an integer field of the record without reading or
+   * rewriting the row. The increment reaches the database with the next
+   * flush of the counter buffer, and cached copies of the record are
+   * evicted then.
+   */
+  public void incrementBuffered(long id, Enum field, long delta) throws IOException;
+
+  /**
+   * When the connection reads from several replicas, a read of find,
+   * findAll, find(ModelQuery) or findAllByForeignKey that a replica has not
+   * answered within the delay of the policy is sent to another replica as
+   * well, and the first answer is used. Pass null to stop hedging.
+   */
+  public void setHedgingPolicy(HedgingPolicy policy);
+
+  /**
+   * In replicated mode, the whole table is kept in memory and find, findAll(),
+   * find(ModelQuery) and findAllByForeignKey are answered from that copy without
+   * touching the database. The copy is reloaded in the background every
+   * refreshPeriodMillis, on a connection of its own. Each write reported by
+   * its invalidation bus is applied to it as it is received, and each write
+   * made through this persistence once it is committed: writes made in a
+   * transaction or unit of work are not seen by the reads made in it, and
+   * are dropped if it rolls back. Writes by a condition (updateWhere,
+   * deleteWhere) reload the whole copy. Only meant for small, mostly-read
+   * tables.
+   */
+  public void enableReplication(long refreshPeriodMillis) throws IOException;
+
+  public void disableReplication();
+
+  public boolean isReplicated();
 }
@@ -0,0 +1,17 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+
+/**
+ * Hands out ids for new records before they are inserted, so that a
+ * persistence can build them locally and insert them with their id instead
+ * of asking the database for a generated key.
+ */
+public interface IdAllocator {
+
+  /**
+   * Returns an id that has never been returned for the table and is not
+   * used by any of its existing rows.
+   */
+  public long allocateId(String tableName) throws IOException;
+}
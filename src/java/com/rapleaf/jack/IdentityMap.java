@@ -0,0 +1,159 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Thread-safe cache of models by id. Null values are allowed and record that
+ * no row exists for an id.
+ *
+ * With WEAK or SOFT values, a model stays in the map only as long as it is
+ * reachable from elsewhere (or, for SOFT, until the garbage collector needs
+ * the memory), after which its id simply disappears from the map. Ids known
+ * not to exist are always held strongly.
+ *
+ * Use get() before containsKey(): a weakly held model can be reclaimed
+ * between the two calls, but a reclaimed id never reappears, so a null from
+ * get() followed by a true from containsKey() always means a missing row.
+ */
+public class IdentityMap<T> extends AbstractMap<Long, T> implements Serializable {
+
+  public static enum ValueStrength {
+    STRONG,
+    WEAK,
+    SOFT
+  }
+
+  // Stands in for null values, which concurrent maps do not accept
+  private static final Object MISSING = new Object();
+
+  private transient volatile ValueStrength valueStrength;
+  private transient volatile ConcurrentMap<Long, Object> map;
+
+  public IdentityMap() {
+    this(ValueStrength.STRONG);
+  }
+
+  public IdentityMap(ValueStrength valueStrength) {
+    this.valueStrength = valueStrength;
+    this.map = newMap(valueStrength);
+  }
+
+  public ValueStrength getValueStrength() {
+    return valueStrength;
+  }
+
+  /**
+   * Moves the current entries to a map holding its values with the given
+   * strength.
+   */
+  public synchronized void setValueStrength(ValueStrength valueStrength) {
+    if (valueStrength == this.valueStrength) {
+      return;
+    }
+    ConcurrentMap<Long, Object> newMap = newMap(valueStrength);
+    newMap.putAll(map);
+    this.map = newMap;
+    this.valueStrength = valueStrength;
+  }
+
+  /**
+   * Returns the model already mapped to the id if there is one, otherwise
+   * maps the id to the given model and returns it.
+   */
+  public T canonicalize(long id, T model) {
+    while (true) {
+      Object existing = map.putIfAbsent(id, model == null ? MISSING : model);
+      if (existing == null) {
+        return model;
+      }
+      if (existing != MISSING || model == null) {
+        return unmask(existing);
+      }
+      // the row did not exist when last looked up
+      if (map.replace(id, MISSING, model)) {
+        return model;
+      }
+    }
+  }
+
+  @Override
+  public T get(Object id) {
+    return unmask(map.get(id));
+  }
+
+  @Override
+  public boolean containsKey(Object id) {
+    return map.containsKey(id);
+  }
+
+  @Override
+  public T put(Long id, T model) {
+    return unmask(map.put(id, model == null ? MISSING : model));
+  }
+
+  @Override
+  public T remove(Object id) {
+    return unmask(map.remove(id));
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public Set<Map.Entry<Long, T>> entrySet() {
+    Set<Map.Entry<Long, T>> entries = new HashSet<Map.Entry<Long, T>>();
+    for (Map.Entry<Long, Object> entry : map.entrySet()) {
+      entries.add(new SimpleImmutableEntry<Long, T>(entry.getKey(), unmask(entry.getValue())));
+    }
+    return entries;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T unmask(Object value) {
+    return value == MISSING ? null : (T)value;
+  }
+
+  private static ConcurrentMap<Long, Object> newMap(ValueStrength valueStrength) {
+    switch (valueStrength) {
+      case WEAK:
+        return new MapMaker().weakValues().makeMap();
+      case SOFT:
+        return new MapMaker().softValues().makeMap();
+      default:
+        return new ConcurrentHashMap<Long, Object>();
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(valueStrength);
+    out.writeObject(new HashMap<Long, T>(this));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    valueStrength = (ValueStrength)in.readObject();
+    map = newMap(valueStrength);
+    putAll((Map<Long, T>)in.readObject());
+  }
+}
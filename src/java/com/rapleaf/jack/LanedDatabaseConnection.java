@@ -0,0 +1,210 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the statements of each thread to one of several lanes of
+ * connections to the same database: to the first lane by default, and to
+ * the named lane within onLane(). A DatabasesImpl built on it serves
+ * requests on the default lane, while a batch job runs its queries with
+ * onLane("batch", ...) without taking the connections of the requests.
+ *
+ * A query builder sends its query to a lane with onLane(String), and a
+ * DatabasesImpl built with the name of a lane serves everything on it by
+ * default.
+ */
+public class LanedDatabaseConnection extends BaseDatabaseConnection {
+
+  private final Map<String, ConnectionLane> lanes = new LinkedHashMap<String, ConnectionLane>();
+  private final ConnectionLane defaultLane;
+  private transient ThreadLocal<ConnectionLane> currentLane;
+
+  public LanedDatabaseConnection(List<ConnectionLane> lanes) {
+    this(lanes, lanes.isEmpty() ? null : lanes.get(0).getName());
+  }
+
+  public LanedDatabaseConnection(List<ConnectionLane> lanes, String defaultLane) {
+    if (lanes.isEmpty()) {
+      throw new IllegalArgumentException("A laned connection needs at least one lane");
+    }
+    for (ConnectionLane lane : lanes) {
+      this.lanes.put(lane.getName(), lane);
+    }
+    this.defaultLane = getLane(defaultLane);
+  }
+
+  /**
+   * Runs the operation with the statements the persistence makes from this
+   * thread going to the named lane. Mock persistences have no connections,
+   * and run it as is.
+   */
+  public static <R> R onLane(IModelPersistence<?> persistence, String name, ConnectionLane.Operation<R> operation) throws IOException {
+    if (!(persistence instanceof AbstractDatabaseModel)) {
+      return operation.run();
+    }
+    BaseDatabaseConnection conn = ((AbstractDatabaseModel<?>)persistence).getConn();
+    if (conn instanceof LanedDatabaseConnection) {
+      return ((LanedDatabaseConnection)conn).onLane(name, operation);
+    }
+    if (conn instanceof ConnectionLane && ((ConnectionLane)conn).getName().equals(name)) {
+      return ((ConnectionLane)conn).run(operation);
+    }
+    throw new IllegalStateException("The connection of " + persistence.getClass().getSimpleName() + " has no lane " + name);
+  }
+
+  public ConnectionLane getLane(String name) {
+    ConnectionLane lane = lanes.get(name);
+    if (lane == null) {
+      throw new IllegalArgumentException("Unknown lane " + name);
+    }
+    return lane;
+  }
+
+  /**
+   * Runs the operation with the statements of this thread going to a
+   * connection of the named lane.
+   */
+  public <R> R onLane(String name, ConnectionLane.Operation<R> operation) throws IOException {
+    ConnectionLane lane = getLane(name);
+    ThreadLocal<ConnectionLane> current = getCurrentLaneHolder();
+    ConnectionLane previous = current.get();
+    current.set(lane);
+    try {
+      return lane.run(operation);
+    } finally {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Gives the connections this thread holds back to their lanes.
+   */
+  public void release() {
+    for (ConnectionLane lane : lanes.values()) {
+      lane.release();
+    }
+  }
+
+  @Override
+  public Connection getConnection() {
+    return getCurrentLane().getConnection();
+  }
+
+  @Override
+  public Connection resetConnection() {
+    return getCurrentLane().resetConnection();
+  }
+
+  @Override
+  public boolean connect() {
+    return getCurrentLane().connect();
+  }
+
+  // the lane keeps the connection of a thread for as long as a transaction is open on it
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) {
+    ConnectionLane lane = getCurrentLane();
+    try {
+      super.setAutoCommit(autoCommit);
+    } finally {
+      lane.releaseIfIdle();
+    }
+  }
+
+  @Override
+  public boolean getAutoCommit() {
+    return getCurrentLane().getAutoCommit();
+  }
+
+  @Override
+  public void commit() {
+    ConnectionLane lane = getCurrentLane();
+    try {
+      super.commit();
+    } finally {
+      lane.releaseIfIdle();
+    }
+  }
+
+  @Override
+  public void rollback() {
+    ConnectionLane lane = getCurrentLane();
+    try {
+      super.rollback();
+    } finally {
+      lane.releaseIfIdle();
+    }
+  }
+
+  @Override
+  public Statement getStatement() {
+    return getCurrentLane().getStatement();
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement) {
+    return getCurrentLane().getPreparedStatement(statement);
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement, int options) {
+    return getCurrentLane().getPreparedStatement(statement, options);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement) {
+    return getCurrentLane().getReadPreparedStatement(statement);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement, HedgingPolicy hedgingPolicy) {
+    return getCurrentLane().getReadPreparedStatement(statement, hedgingPolicy);
+  }
+
+  /**
+   * A connection of its own to the database of the lane of this thread.
+   */
+  @Override
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    return getCurrentLane().newDedicatedConnection();
+  }
+
+  /**
+   * Gives back the connection this thread holds on its lane unless a
+   * statement or transaction still uses it.
+   */
+  void releaseIfIdle() {
+    getCurrentLane().releaseIfIdle();
+  }
+
+  /**
+   * Returns the name of the lane the statements of this thread go to.
+   */
+  String getCurrentLaneName() {
+    return getCurrentLane().getName();
+  }
+
+  private ConnectionLane getCurrentLane() {
+    ConnectionLane lane = getCurrentLaneHolder().get();
+    return lane == null ? defaultLane : lane;
+  }
+
+  private synchronized ThreadLocal<ConnectionLane> getCurrentLaneHolder() {
+    // not serialized with the connection
+    if (currentLane == null) {
+      currentLane = new ThreadLocal<ConnectionLane>();
+    }
+    return currentLane;
+  }
+}
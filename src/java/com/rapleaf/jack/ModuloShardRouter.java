@@ -0,0 +1,19 @@
+package com.rapleaf.jack;
+
+/**
+ * Spreads the records of every table over the shards by id modulo the
+ * number of shards. Records with the same foreign key value may be on any
+ * shard.
+ */
+public class ModuloShardRouter implements ShardRouter {
+
+  @Override
+  public int getShard(String tableName, long id, int shardCount) {
+    return (int)(Math.abs(id % shardCount));
+  }
+
+  @Override
+  public int getShardOfForeignKey(String tableName, String foreignKey, long value, int shardCount) {
+    return -1;
+  }
+}
@@ -0,0 +1,79 @@
+package com.rapleaf.jack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.rapleaf.jack.queries.ModelQuery;
+import com.rapleaf.jack.queries.WhereConstraint;
+
+/**
+ * Caches the ids returned by a query, keyed by the query's SQL and its bound
+ * parameters. Models themselves stay in the persistence's id cache; entries
+ * only remember which ids matched. The owning persistence invalidates every
+ * entry whenever it writes to the table.
+ */
+public class QueryResultCache {
+
+  private final Cache<List<Object>, List<Long>> cache;
+  // Bumped on every invalidation so that results read before a write are not cached after it
+  private final AtomicLong generation = new AtomicLong();
+
+  public QueryResultCache(long maxEntries, long expirationMillis) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maxEntries);
+    if (expirationMillis > 0) {
+      builder.expireAfterWrite(expirationMillis, TimeUnit.MILLISECONDS);
+    }
+    this.cache = builder.build();
+  }
+
+  public static List<Object> getKey(String statement, ModelQuery query) {
+    List<Object> key = new ArrayList<Object>();
+    key.add(statement.trim());
+    for (WhereConstraint constraint : query.getWhereConstraints()) {
+      for (Object parameter : constraint.getParameters()) {
+        // arrays do not implement value equality
+        key.add(parameter instanceof byte[] ? ByteBuffer.wrap((byte[])parameter) : parameter);
+      }
+    }
+    return key;
+  }
+
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Returns the ids matched by the query, in result order, or null if the
+   * query is not cached.
+   */
+  public List<Long> get(List<Object> key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void put(List<Object> key, Collection<? extends ModelWithId> results, long readGeneration) {
+    List<Long> ids = new ArrayList<Long>(results.size());
+    for (ModelWithId result : results) {
+      ids.add(result.getId());
+    }
+    if (generation.get() == readGeneration) {
+      cache.put(key, Collections.unmodifiableList(ids));
+    }
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+}
@@ -0,0 +1,228 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.rapleaf.jack.queries.AbstractQueryBuilder;
+import com.rapleaf.jack.queries.ModelQuery;
+
+/**
+ * Collects independent reads, possibly from different persistences of the
+ * same database, and executes them together. Reads that can be answered from
+ * a persistence's caches, or that target a mock persistence, are resolved as
+ * soon as they are added. The others are sent on execute(): in a single round
+ * trip when the connection accepts several statements at once (see
+ * BaseDatabaseConnection.supportsMultipleStatements()), and one after the
+ * other otherwise.
+ */
+public class ReadBatch {
+
+  public static class Result<R> {
+    private R value;
+    private boolean done = false;
+
+    public R get() {
+      if (!done) {
+        throw new IllegalStateException("The batch has not been executed yet");
+      }
+      return value;
+    }
+
+    void set(R value) {
+      this.value = value;
+      this.done = true;
+    }
+  }
+
+  /**
+   * A read that needs the database: its statement, and how to turn the
+   * statement's result set into the read's value.
+   */
+  static abstract class Read<R> {
+    private final Result<R> result = new Result<R>();
+
+    abstract String getStatement();
+
+    int getParameterCount() {
+      return 0;
+    }
+
+    void setParameters(PreparedStatement statement, int index) throws IOException {
+    }
+
+    abstract R read(ResultSet rs) throws SQLException;
+
+    Result<R> getResult() {
+      return result;
+    }
+  }
+
+  /**
+   * A read answered without the database.
+   */
+  static class ResolvedRead<R> extends Read<R> {
+    ResolvedRead(R value) {
+      getResult().set(value);
+    }
+
+    @Override
+    String getStatement() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    R read(ResultSet rs) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final BaseDatabaseConnection conn;
+  private final List<Read<?>> reads = new ArrayList<Read<?>>();
+
+  /**
+   * @param conn the connection of the database the persistences belong to,
+   *             or null for a mock database
+   */
+  public ReadBatch(BaseDatabaseConnection conn) {
+    this.conn = conn;
+  }
+
+  public <T extends ModelWithId> Result<T> find(IModelPersistence<T> persistence, long id) throws IOException {
+    AbstractDatabaseModel<T> model = getBatchedPersistence(persistence);
+    if (model == null) {
+      return resolved(persistence.find(id));
+    }
+    return add(model.getFindRead(id));
+  }
+
+  public <T extends ModelWithId> Result<Set<T>> findAllByForeignKey(IModelPersistence<T> persistence, String foreignKey, long id) throws IOException {
+    AbstractDatabaseModel<T> model = getBatchedPersistence(persistence);
+    if (model == null) {
+      return resolved(persistence.findAllByForeignKey(foreignKey, id));
+    }
+    return add(model.getFindAllByForeignKeyRead(foreignKey, id));
+  }
+
+  public <T extends ModelWithId> Result<List<T>> findWithOrder(IModelPersistence<T> persistence, ModelQuery query) throws IOException {
+    AbstractDatabaseModel<T> model = getBatchedPersistence(persistence);
+    if (model == null) {
+      return resolved(persistence.findWithOrder(query));
+    }
+    return add(model.getFindWithOrderRead(query));
+  }
+
+  public <T extends ModelWithId> Result<List<T>> findWithOrder(AbstractQueryBuilder<T> queryBuilder) throws IOException {
+    return findWithOrder(queryBuilder.getCaller(), queryBuilder.getQuery());
+  }
+
+  public int size() {
+    return reads.size();
+  }
+
+  /**
+   * Executes the reads added since the last execution.
+   */
+  public void execute() throws IOException {
+    List<Read<?>> pending = new ArrayList<Read<?>>(reads);
+    reads.clear();
+    if (pending.size() > 1 && conn.supportsMultipleStatements()) {
+      execute(pending);
+    } else {
+      for (Read<?> read : pending) {
+        execute(Collections.<Read<?>>singletonList(read));
+      }
+    }
+  }
+
+  private void execute(List<Read<?>> pending) throws IOException {
+    StringBuilder statementString = new StringBuilder();
+    for (Read<?> read : pending) {
+      if (statementString.length() > 0) {
+        statementString.append(";\n");
+      }
+      statementString.append(read.getStatement());
+    }
+
+    int retryCount = 0;
+    PreparedStatement stmt = null;
+
+    while (true) {
+      try {
+        int timeout = Deadline.getQueryTimeoutSeconds();
+        stmt = conn.getReadPreparedStatement(statementString.toString());
+        if (timeout > 0) {
+          stmt.setQueryTimeout(timeout);
+        }
+        int index = 0;
+        for (Read<?> read : pending) {
+          read.setParameters(stmt, index);
+          index += read.getParameterCount();
+        }
+        stmt.execute();
+        // each SELECT produces one result set, in statement order
+        for (Read<?> read : pending) {
+          ResultSet rs = stmt.getResultSet();
+          try {
+            complete(read, rs);
+          } finally {
+            rs.close();
+          }
+          stmt.getMoreResults();
+        }
+        return;
+      } catch (SQLRecoverableException e) {
+        conn.resetConnection();
+        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
+          throw new IOException(e);
+        }
+      } catch (SQLException e) {
+        throw new IOException(e);
+      } finally {
+        try {
+          if (stmt != null) {
+            stmt.close();
+          }
+        } catch (SQLRecoverableException e) {
+          conn.resetConnection();
+        } catch (SQLException e) {
+        }
+      }
+    }
+  }
+
+  private static <R> void complete(Read<R> read, ResultSet rs) throws SQLException {
+    read.getResult().set(read.read(rs));
+  }
+
+  <R> Result<R> add(Read<R> read) {
+    if (!(read instanceof ResolvedRead)) {
+      reads.add(read);
+    }
+    return read.getResult();
+  }
+
+  private static <R> Result<R> resolved(R value) {
+    return new ResolvedRead<R>(value).getResult();
+  }
+
+  /**
+   * Returns the persistence if its reads can be sent with the others of this
+   * batch, or null if they must be executed right away.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends ModelWithId> AbstractDatabaseModel<T> getBatchedPersistence(IModelPersistence<T> persistence) {
+    // the reads of a sharded table go to several connections
+    if (conn == null || conn instanceof ShardedDatabaseConnection || !(persistence instanceof AbstractDatabaseModel)) {
+      return null;
+    }
+    AbstractDatabaseModel<T> model = (AbstractDatabaseModel<T>)persistence;
+    return model.getConn() == conn ? model : null;
+  }
+}
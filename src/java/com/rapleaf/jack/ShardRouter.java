@@ -0,0 +1,19 @@
+package com.rapleaf.jack;
+
+/**
+ * Decides which shard of a sharded database holds each record.
+ */
+public interface ShardRouter {
+
+  /**
+   * Returns the shard, between 0 and shardCount - 1, of the record of the
+   * table with the given id. The same id must always map to the same shard.
+   */
+  public int getShard(String tableName, long id, int shardCount);
+
+  /**
+   * Returns the shard holding every record of the table whose foreign key
+   * has the given value, or -1 if they may be on any shard.
+   */
+  public int getShardOfForeignKey(String tableName, String foreignKey, long value, int shardCount);
+}
@@ -0,0 +1,293 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Spreads the tables of a database over several connections, one per shard,
+ * each holding the same schema. A persistence built on a sharded connection
+ * finds, saves and deletes a record on the shard the router gives for its
+ * id; it reads several ids or foreign key values from their shards in
+ * parallel, and runs queries on every shard in parallel, merging the
+ * results and applying the order and limit of the query to them again.
+ *
+ * Sharded tables have no generated keys: their persistences need an id
+ * allocator whose ids are unique across shards, such as a HiLoIdAllocator
+ * on its own connection to one shard, with its sequence table seeded above
+ * the largest id of every shard. Transactions, units of work, group commit
+ * and queries with GROUP BY or aggregates are not supported, as they would
+ * span several servers.
+ *
+ * Any statement made outside of a persistence goes to the first shard.
+ */
+public class ShardedDatabaseConnection extends BaseDatabaseConnection {
+
+  public static interface ShardOperation<R> {
+    public R run() throws IOException;
+  }
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("jack-shard-%d")
+      .build());
+
+  private final List<BaseDatabaseConnection> shards;
+  private final ShardRouter router;
+  private transient ThreadLocal<Integer> currentShard;
+
+  public ShardedDatabaseConnection(List<? extends BaseDatabaseConnection> shards, ShardRouter router) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("A sharded database needs at least one shard");
+    }
+    this.shards = new ArrayList<BaseDatabaseConnection>(shards);
+    this.router = router;
+  }
+
+  public int getShardCount() {
+    return shards.size();
+  }
+
+  public BaseDatabaseConnection getShardConnection(int shard) {
+    return shards.get(shard);
+  }
+
+  public int getShard(String tableName, long id) {
+    return checkShard(router.getShard(tableName, id, shards.size()));
+  }
+
+  /**
+   * Returns -1 if the records with this foreign key value may be on any
+   * shard.
+   */
+  public int getShardOfForeignKey(String tableName, String foreignKey, long value) {
+    int shard = router.getShardOfForeignKey(tableName, foreignKey, value, shards.size());
+    return shard < 0 ? -1 : checkShard(shard);
+  }
+
+  /**
+   * Whether this thread is running an operation on one shard.
+   */
+  public boolean isOnShard() {
+    return getCurrentShard().get() != null;
+  }
+
+  /**
+   * Runs the operation with the statements of this thread going to the
+   * given shard.
+   */
+  public <R> R onShard(int shard, ShardOperation<R> operation) throws IOException {
+    ThreadLocal<Integer> current = getCurrentShard();
+    Integer previous = current.get();
+    current.set(checkShard(shard));
+    try {
+      return operation.run();
+    } finally {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Runs each operation on its shard, in parallel, and returns their results
+   * by shard once they are all done.
+   */
+  public <R> Map<Integer, R> onShards(Map<Integer, ShardOperation<R>> operations) throws IOException {
+    Map<Integer, R> results = new LinkedHashMap<Integer, R>();
+    if (operations.size() == 1) {
+      Map.Entry<Integer, ShardOperation<R>> entry = operations.entrySet().iterator().next();
+      results.put(entry.getKey(), onShard(entry.getKey(), entry.getValue()));
+      return results;
+    }
+
+    Map<Integer, Future<R>> futures = new LinkedHashMap<Integer, Future<R>>();
+    // the operations are due by the deadline of the calling thread
+    final Long deadline = Deadline.get();
+    for (final Map.Entry<Integer, ShardOperation<R>> entry : operations.entrySet()) {
+      futures.put(entry.getKey(), EXECUTOR.submit(new Callable<R>() {
+        @Override
+        public R call() throws IOException {
+          return Deadline.at(deadline, new Deadline.Operation<R>() {
+            @Override
+            public R run() throws IOException {
+              return onShard(entry.getKey(), entry.getValue());
+            }
+          });
+        }
+      }));
+    }
+    // every operation is waited for, so that none still uses its shard once this returns
+    Throwable failure = null;
+    for (Map.Entry<Integer, Future<R>> entry : futures.entrySet()) {
+      try {
+        results.put(entry.getKey(), Uninterruptibles.getUninterruptibly(entry.getValue()));
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException)failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException)failure;
+    } else if (failure instanceof Error) {
+      throw (Error)failure;
+    } else if (failure != null) {
+      throw new IOException(failure);
+    }
+    return results;
+  }
+
+  /**
+   * Runs the operation on every shard, in parallel.
+   */
+  public <R> List<R> onAllShards(ShardOperation<R> operation) throws IOException {
+    Map<Integer, ShardOperation<R>> operations = new LinkedHashMap<Integer, ShardOperation<R>>();
+    for (int shard = 0; shard < shards.size(); shard++) {
+      operations.put(shard, operation);
+    }
+    return new ArrayList<R>(onShards(operations).values());
+  }
+
+  @Override
+  public Connection getConnection() {
+    return getCurrentConnection().getConnection();
+  }
+
+  /**
+   * Outside of an operation on one shard, every shard is reset.
+   */
+  @Override
+  public Connection resetConnection() {
+    if (isOnShard()) {
+      return getCurrentConnection().resetConnection();
+    }
+    for (BaseDatabaseConnection shard : shards) {
+      shard.resetConnection();
+    }
+    return getConnection();
+  }
+
+  @Override
+  void discardConnection() {
+    for (BaseDatabaseConnection shard : shards) {
+      shard.discardConnection();
+    }
+  }
+
+  /**
+   * Within an operation on one shard, a connection to that shard.
+   */
+  @Override
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    if (isOnShard()) {
+      return getCurrentConnection().newDedicatedConnection();
+    }
+    List<BaseDatabaseConnection> dedicated = new ArrayList<BaseDatabaseConnection>();
+    for (BaseDatabaseConnection shard : shards) {
+      dedicated.add(shard.newDedicatedConnection());
+    }
+    return new ShardedDatabaseConnection(dedicated, router);
+  }
+
+  @Override
+  public boolean connect() {
+    boolean connected = false;
+    for (BaseDatabaseConnection shard : shards) {
+      connected |= shard.connect();
+    }
+    return connected;
+  }
+
+  @Override
+  public Statement getStatement() {
+    return getCurrentConnection().getStatement();
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement) {
+    return getCurrentConnection().getPreparedStatement(statement);
+  }
+
+  @Override
+  public PreparedStatement getPreparedStatement(String statement, int options) {
+    return getCurrentConnection().getPreparedStatement(statement, options);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement) {
+    return getCurrentConnection().getReadPreparedStatement(statement);
+  }
+
+  @Override
+  public PreparedStatement getReadPreparedStatement(String statement, HedgingPolicy hedgingPolicy) {
+    return getCurrentConnection().getReadPreparedStatement(statement, hedgingPolicy);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) {
+    if (!autoCommit) {
+      throw new UnsupportedOperationException("Transactions cannot span the shards of a sharded database");
+    }
+    for (BaseDatabaseConnection shard : shards) {
+      shard.setAutoCommit(true);
+    }
+  }
+
+  @Override
+  public boolean getAutoCommit() {
+    return true;
+  }
+
+  @Override
+  public void commit() {
+    throw new UnsupportedOperationException("Transactions cannot span the shards of a sharded database");
+  }
+
+  @Override
+  public void rollback() {
+    throw new UnsupportedOperationException("Transactions cannot span the shards of a sharded database");
+  }
+
+  @Override
+  public synchronized void enableGroupCommit(BaseDatabaseConnection groupConnection, long lingerMillis, int maxBatchSize) {
+    throw new UnsupportedOperationException("Group commit is not supported on a sharded database");
+  }
+
+  private BaseDatabaseConnection getCurrentConnection() {
+    Integer shard = getCurrentShard().get();
+    return shards.get(shard == null ? 0 : shard);
+  }
+
+  private synchronized ThreadLocal<Integer> getCurrentShard() {
+    // not serialized with the connection
+    if (currentShard == null) {
+      currentShard = new ThreadLocal<Integer>();
+    }
+    return currentShard;
+  }
+
+  private int checkShard(int shard) {
+    if (shard < 0 || shard >= shards.size()) {
+      throw new IllegalArgumentException("Invalid shard " + shard + " of " + shards.size());
+    }
+    return shard;
+  }
+}
@@ -0,0 +1,68 @@
+package com.rapleaf.jack;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A database reached through the connection of another one on the same
+ * server: the catalog of the shared connection is switched to this database
+ * before each statement, so that several databases of a project cost a
+ * single connection to their server.
+ *
+ * Like the connection it shares, it is meant to be used by one thread at a
+ * time, and statements must be executed before a statement is made for
+ * another database. A transaction opened through any of the databases
+ * sharing the connection holds the writes made through all of them. Group
+ * commit runs on a connection of its own to the server.
+ */
+public class SharedDatabaseConnection extends BaseDatabaseConnection {
+
+  private final BaseDatabaseConnection server;
+  private final String catalog;
+
+  public SharedDatabaseConnection(BaseDatabaseConnection server, String catalog) {
+    this.server = server;
+    this.catalog = catalog;
+  }
+
+  public String getCatalog() {
+    return catalog;
+  }
+
+  @Override
+  public Connection getConnection() {
+    return useCatalog(server.getConnection());
+  }
+
+  @Override
+  public Connection resetConnection() {
+    return useCatalog(server.resetConnection());
+  }
+
+  @Override
+  public boolean connect() {
+    return server.connect();
+  }
+
+  @Override
+  void discardConnection() {
+    server.discardConnection();
+  }
+
+  @Override
+  protected BaseDatabaseConnection newDedicatedConnection() {
+    return new SharedDatabaseConnection(server.newDedicatedConnection(), catalog);
+  }
+
+  private Connection useCatalog(Connection connection) {
+    try {
+      // the JDBC driver knows the current catalog without asking the server
+      if (!catalog.equals(connection.getCatalog())) {
+        connection.setCatalog(catalog);
+      }
+      return connection;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
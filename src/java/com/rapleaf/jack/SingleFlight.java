@@ -0,0 +1,66 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller runs the
+ * loader, and callers arriving while it runs wait for and share its result.
+ */
+public class SingleFlight<K, V> implements Serializable {
+
+  public static interface Loader<V> {
+    public V load() throws IOException;
+  }
+
+  private transient ConcurrentMap<K, SettableFuture<V>> calls = new ConcurrentHashMap<K, SettableFuture<V>>();
+
+  public V get(K key, Loader<V> loader) throws IOException {
+    SettableFuture<V> call = SettableFuture.create();
+    SettableFuture<V> existingCall = calls.putIfAbsent(key, call);
+    if (existingCall != null) {
+      return await(existingCall);
+    }
+    try {
+      V value = loader.load();
+      call.set(value);
+      return value;
+    } catch (IOException e) {
+      call.setException(e);
+      throw e;
+    } catch (RuntimeException e) {
+      call.setException(e);
+      throw e;
+    } finally {
+      calls.remove(key, call);
+    }
+  }
+
+  public boolean isInFlight(K key) {
+    return calls.containsKey(key);
+  }
+
+  private V await(SettableFuture<V> call) throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(call);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new IOException(cause);
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    calls = new ConcurrentHashMap<K, SettableFuture<V>>();
+  }
+}
@@ -0,0 +1,130 @@
+package com.rapleaf.jack;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable copy of every row of a table, indexed by id. Indexes by foreign
+ * key are built the first time a given foreign key is looked up and are kept
+ * for the lifetime of the snapshot. Writes are applied by making a new
+ * snapshot with withChanges.
+ */
+public class TableSnapshot<T extends ModelWithId> {
+
+  private final Map<Long, T> byId;
+  private final ConcurrentMap<String, Map<Long, Set<T>>> byForeignKey = new ConcurrentHashMap<String, Map<Long, Set<T>>>();
+  private final long loadedAt;
+
+  public TableSnapshot(Collection<T> models) {
+    Map<Long, T> index = new HashMap<Long, T>();
+    for (T model : models) {
+      index.put(model.getId(), model);
+    }
+    this.byId = Collections.unmodifiableMap(index);
+    this.loadedAt = System.currentTimeMillis();
+  }
+
+  private TableSnapshot(Map<Long, T> byId, long loadedAt) {
+    this.byId = Collections.unmodifiableMap(byId);
+    this.loadedAt = loadedAt;
+  }
+
+  /**
+   * Returns a copy of this snapshot with the saved models added or replacing
+   * the ones with the same ids, and the records of the deleted ids removed.
+   * It keeps the load time of this snapshot.
+   */
+  public TableSnapshot<T> withChanges(Collection<T> saved, Collection<Long> deleted) {
+    Map<Long, T> index = new HashMap<Long, T>(byId);
+    for (Long id : deleted) {
+      index.remove(id);
+    }
+    for (T model : saved) {
+      index.put(model.getId(), model);
+    }
+    return new TableSnapshot<T>(index, loadedAt);
+  }
+
+  public T find(long id) {
+    return byId.get(id);
+  }
+
+  public Set<T> find(Set<Long> ids) {
+    Set<T> foundSet = new HashSet<T>();
+    for (Long id : ids) {
+      T model = byId.get(id);
+      if (model != null) {
+        foundSet.add(model);
+      }
+    }
+    return foundSet;
+  }
+
+  public Collection<T> findAll() {
+    return byId.values();
+  }
+
+  public Set<T> findAllByForeignKey(String foreignKey, long id) {
+    Set<T> models = getForeignKeyIndex(foreignKey).get(id);
+    return models == null ? new HashSet<T>() : new HashSet<T>(models);
+  }
+
+  public Set<T> findAllByForeignKey(String foreignKey, Set<Long> ids) {
+    Map<Long, Set<T>> index = getForeignKeyIndex(foreignKey);
+    Set<T> foundSet = new HashSet<T>();
+    for (Long id : ids) {
+      Set<T> models = index.get(id);
+      if (models != null) {
+        foundSet.addAll(models);
+      }
+    }
+    return foundSet;
+  }
+
+  public int size() {
+    return byId.size();
+  }
+
+  public long getLoadedAt() {
+    return loadedAt;
+  }
+
+  private Map<Long, Set<T>> getForeignKeyIndex(String foreignKey) {
+    Map<Long, Set<T>> index = byForeignKey.get(foreignKey);
+    if (index == null) {
+      index = buildForeignKeyIndex(foreignKey);
+      byForeignKey.putIfAbsent(foreignKey, index);
+    }
+    return index;
+  }
+
+  private Map<Long, Set<T>> buildForeignKeyIndex(String foreignKey) {
+    Map<Long, Set<T>> index = new HashMap<Long, Set<T>>();
+    for (T model : byId.values()) {
+      Object value = model.getField(foreignKey);
+      if (value == null) {
+        continue;
+      }
+      if (!(value instanceof Number)) {
+        throw new IllegalArgumentException("Foreign key is not a long or int: " + foreignKey);
+      }
+      long key = ((Number)value).longValue();
+      Set<T> models = index.get(key);
+      if (models == null) {
+        models = new HashSet<T>();
+        index.put(key, models);
+      }
+      models.add(model);
+    }
+    for (Map.Entry<Long, Set<T>> entry : index.entrySet()) {
+      entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(index);
+  }
+}
@@ -0,0 +1,221 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Defers the saves and deletes made through the persistences of a database
+ * until the transaction is committed, and then sends them as JDBC batches:
+ * saves first, parent tables before the tables that belong to them, then
+ * deletes, in the opposite order. Several saves of the same record are sent
+ * as one.
+ *
+ * While a unit of work is open, save() and delete() report success without
+ * knowing whether the record exists. Generated create() methods still insert
+ * right away, since the database assigns the id. Queries do not see the
+ * pending writes until they are flushed.
+ */
+public class UnitOfWork {
+
+  private final BaseDatabaseConnection conn;
+  // table name -> names of the tables it belongs to
+  private final Map<String, Set<String>> parentTables = new HashMap<String, Set<String>>();
+
+  private final Map<AbstractDatabaseModel<?>, Map<Long, ModelWithId>> saves =
+      new LinkedHashMap<AbstractDatabaseModel<?>, Map<Long, ModelWithId>>();
+  private final Map<AbstractDatabaseModel<?>, Set<Long>> deletes =
+      new LinkedHashMap<AbstractDatabaseModel<?>, Set<Long>>();
+  // every record saved since begin(), flushed or not
+  private final Map<AbstractDatabaseModel<?>, Set<Long>> savedIds =
+      new HashMap<AbstractDatabaseModel<?>, Set<Long>>();
+  private boolean previousAutoCommit;
+
+  /**
+   * @param conn the connection of the database, or null for a mock database,
+   *             whose writes are always applied right away
+   */
+  public UnitOfWork(BaseDatabaseConnection conn) {
+    this.conn = conn;
+  }
+
+  /**
+   * Declares that rows of the table reference rows of the parent table.
+   */
+  public void addDependency(String tableName, String parentTableName) {
+    Set<String> parents = parentTables.get(tableName);
+    if (parents == null) {
+      parents = new HashSet<String>();
+      parentTables.put(tableName, parents);
+    }
+    parents.add(parentTableName);
+  }
+
+  /**
+   * Opens a transaction and starts recording writes.
+   */
+  public void begin() {
+    if (conn == null) {
+      return;
+    }
+    previousAutoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+    conn.setUnitOfWork(this);
+  }
+
+  /**
+   * Flushes the pending writes and commits the transaction.
+   */
+  public void commit() {
+    if (conn != null) {
+      conn.commit();
+    }
+  }
+
+  /**
+   * Discards the pending writes and rolls back the transaction.
+   */
+  public void rollback() {
+    if (conn != null) {
+      conn.rollback();
+    }
+  }
+
+  public int getPendingCount() {
+    int count = 0;
+    for (Map<Long, ModelWithId> models : saves.values()) {
+      count += models.size();
+    }
+    for (Set<Long> ids : deletes.values()) {
+      count += ids.size();
+    }
+    return count;
+  }
+
+  <T extends ModelWithId> void registerSave(AbstractDatabaseModel<T> persistence, T model) {
+    Set<Long> deletedIds = deletes.get(persistence);
+    if (deletedIds != null) {
+      deletedIds.remove(model.getId());
+    }
+    Map<Long, ModelWithId> models = saves.get(persistence);
+    if (models == null) {
+      models = new LinkedHashMap<Long, ModelWithId>();
+      saves.put(persistence, models);
+    }
+    models.put(model.getId(), model);
+
+    Set<Long> ids = savedIds.get(persistence);
+    if (ids == null) {
+      ids = new HashSet<Long>();
+      savedIds.put(persistence, ids);
+    }
+    ids.add(model.getId());
+  }
+
+  void registerDelete(AbstractDatabaseModel<?> persistence, long id) {
+    Map<Long, ModelWithId> models = saves.get(persistence);
+    if (models != null) {
+      models.remove(id);
+    }
+    Set<Long> ids = deletes.get(persistence);
+    if (ids == null) {
+      ids = new LinkedHashSet<Long>();
+      deletes.put(persistence, ids);
+    }
+    ids.add(id);
+  }
+
+  /**
+   * Sends the pending writes without committing.
+   */
+  public void flush() throws IOException {
+    List<AbstractDatabaseModel<?>> persistences = new ArrayList<AbstractDatabaseModel<?>>(saves.keySet());
+    for (AbstractDatabaseModel<?> persistence : deletes.keySet()) {
+      if (!saves.containsKey(persistence)) {
+        persistences.add(persistence);
+      }
+    }
+    List<AbstractDatabaseModel<?>> parentsFirst = sortParentsFirst(persistences);
+
+    for (AbstractDatabaseModel<?> persistence : parentsFirst) {
+      Map<Long, ModelWithId> models = saves.remove(persistence);
+      if (models != null && !models.isEmpty()) {
+        flushSaves(persistence, models.values());
+      }
+    }
+    Collections.reverse(parentsFirst);
+    for (AbstractDatabaseModel<?> persistence : parentsFirst) {
+      Set<Long> ids = deletes.remove(persistence);
+      if (ids != null && !ids.isEmpty()) {
+        persistence.flushDeletes(ids);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends ModelWithId> void flushSaves(AbstractDatabaseModel<T> persistence, Collection<ModelWithId> models) throws IOException {
+    persistence.flushSaves((Collection<T>)(Collection)models);
+  }
+
+  /**
+   * Called by the connection once the transaction is over. The cached copies
+   * of records whose writes are discarded no longer match the database.
+   */
+  void end(boolean committed) {
+    if (!committed) {
+      for (Map.Entry<AbstractDatabaseModel<?>, Set<Long>> entry : savedIds.entrySet()) {
+        for (Long id : entry.getValue()) {
+          try {
+            entry.getKey().clearCacheById(id);
+          } catch (IOException e) {
+            // clearing the cache does not touch the database
+          }
+        }
+      }
+    }
+    saves.clear();
+    deletes.clear();
+    savedIds.clear();
+    conn.setUnitOfWork(null);
+    conn.setAutoCommit(previousAutoCommit);
+  }
+
+  private List<AbstractDatabaseModel<?>> sortParentsFirst(List<AbstractDatabaseModel<?>> persistences) {
+    Map<String, AbstractDatabaseModel<?>> byTableName = new LinkedHashMap<String, AbstractDatabaseModel<?>>();
+    for (AbstractDatabaseModel<?> persistence : persistences) {
+      byTableName.put(persistence.getTableName(), persistence);
+    }
+    List<AbstractDatabaseModel<?>> sorted = new ArrayList<AbstractDatabaseModel<?>>();
+    Set<String> visited = new HashSet<String>();
+    for (String tableName : byTableName.keySet()) {
+      visit(tableName, byTableName, visited, sorted);
+    }
+    return sorted;
+  }
+
+  private void visit(String tableName, Map<String, AbstractDatabaseModel<?>> byTableName,
+                     Set<String> visited, List<AbstractDatabaseModel<?>> sorted) {
+    // a table referencing itself, or a cycle, is left in registration order
+    if (!visited.add(tableName)) {
+      return;
+    }
+    Set<String> parents = parentTables.get(tableName);
+    if (parents != null) {
+      for (String parent : parents) {
+        visit(parent, byTableName, visited, sorted);
+      }
+    }
+    AbstractDatabaseModel<?> persistence = byTableName.get(tableName);
+    if (persistence != null) {
+      sorted.add(persistence);
+    }
+  }
+}
@@ -0,0 +1,6 @@
+package com.rapleaf.jack.invalidation;
+
+public interface IInvalidationListener {
+
+  public void onInvalidation(InvalidationEvent event);
+}
@@ -0,0 +1,17 @@
+package com.rapleaf.jack.invalidation;
+
+import java.io.IOException;
+
+/**
+ * Carries invalidation events between buses. Events published on a transport
+ * are delivered to every listener of every transport it is connected to,
+ * including its own.
+ */
+public interface IInvalidationTransport {
+
+  public void publish(InvalidationEvent event) throws IOException;
+
+  public void setListener(IInvalidationListener listener);
+
+  public void close();
+}
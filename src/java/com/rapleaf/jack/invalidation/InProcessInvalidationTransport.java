@@ -0,0 +1,43 @@
+package com.rapleaf.jack.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Connects buses living in the same JVM, e.g. several DatabasesImpl sharing a
+ * database. Use connect() to get one transport per bus.
+ */
+public class InProcessInvalidationTransport {
+
+  private final List<Endpoint> endpoints = new CopyOnWriteArrayList<Endpoint>();
+
+  public IInvalidationTransport connect() {
+    Endpoint endpoint = new Endpoint();
+    endpoints.add(endpoint);
+    return endpoint;
+  }
+
+  private class Endpoint implements IInvalidationTransport {
+    private volatile IInvalidationListener listener;
+
+    @Override
+    public void publish(InvalidationEvent event) {
+      for (Endpoint endpoint : endpoints) {
+        IInvalidationListener target = endpoint.listener;
+        if (target != null) {
+          target.onInvalidation(event);
+        }
+      }
+    }
+
+    @Override
+    public void setListener(IInvalidationListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+      endpoints.remove(this);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.rapleaf.jack.invalidation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes the writes made by the persistences of a database and dispatches
+ * the writes made elsewhere to the persistences of the same table. Table names
+ * are not qualified, so use one bus (and one transport channel) per logical
+ * database.
+ */
+public class InvalidationBus implements IInvalidationListener {
+
+  private final IInvalidationTransport transport;
+  private final ConcurrentMap<String, List<IInvalidationListener>> listenersByTable = new ConcurrentHashMap<String, List<IInvalidationListener>>();
+
+  public InvalidationBus(IInvalidationTransport transport) {
+    this.transport = transport;
+    transport.setListener(this);
+  }
+
+  public void subscribe(String tableName, IInvalidationListener listener) {
+    List<IInvalidationListener> listeners = listenersByTable.get(tableName);
+    if (listeners == null) {
+      listenersByTable.putIfAbsent(tableName, new CopyOnWriteArrayList<IInvalidationListener>());
+      listeners = listenersByTable.get(tableName);
+    }
+    listeners.add(listener);
+  }
+
+  public void unsubscribe(String tableName, IInvalidationListener listener) {
+    List<IInvalidationListener> listeners = listenersByTable.get(tableName);
+    if (listeners != null) {
+      listeners.remove(listener);
+    }
+  }
+
+  public void publish(InvalidationEvent event) throws IOException {
+    transport.publish(event);
+  }
+
+  @Override
+  public void onInvalidation(InvalidationEvent event) {
+    List<IInvalidationListener> listeners = listenersByTable.get(event.getTableName());
+    if (listeners != null) {
+      for (IInvalidationListener listener : listeners) {
+        listener.onInvalidation(event);
+      }
+    }
+  }
+
+  public void close() {
+    transport.close();
+  }
+}
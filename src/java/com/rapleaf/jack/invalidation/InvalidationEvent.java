@@ -0,0 +1,56 @@
+package com.rapleaf.jack.invalidation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Describes a write to one record of a table, or to the whole table when the
+ * id is absent. Integer-valued fields of the written record are included so
+ * that subscribers can evict the matching foreign key cache entries.
+ */
+public class InvalidationEvent {
+
+  private final String sourceId;
+  private final String tableName;
+  private final Long id;
+  private final Map<String, Long> fieldValues;
+
+  public InvalidationEvent(String sourceId, String tableName, Long id, Map<String, Long> fieldValues) {
+    this.sourceId = sourceId;
+    this.tableName = tableName;
+    this.id = id;
+    this.fieldValues = fieldValues == null ? Collections.<String, Long>emptyMap() : fieldValues;
+  }
+
+  public static InvalidationEvent forTable(String sourceId, String tableName) {
+    return new InvalidationEvent(sourceId, tableName, null, null);
+  }
+
+  /**
+   * Identifies the publisher, so that it can ignore its own events.
+   */
+  public String getSourceId() {
+    return sourceId;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public boolean isWholeTable() {
+    return id == null;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public Map<String, Long> getFieldValues() {
+    return fieldValues;
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidationEvent{table=" + tableName + ", id=" + id + ", fieldValues=" + fieldValues + "}";
+  }
+}
@@ -0,0 +1,155 @@
+package com.rapleaf.jack.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends invalidation events as datagrams to a multicast group, and delivers
+ * the events received from the group on a daemon thread. With a time to live
+ * of 0, packets never leave the machine, which is enough to test several
+ * processes (or several transports in one process) locally.
+ *
+ * Senders are not authenticated, so events are written in a fixed format of
+ * plain fields rather than with Java serialization, and a packet that does
+ * not parse as an event is dropped. At worst, a forged packet evicts cached
+ * records.
+ */
+public class MulticastInvalidationTransport implements IInvalidationTransport {
+
+  private static final int MAX_PACKET_SIZE = 65507;
+  private static final byte FORMAT_VERSION = 1;
+  private static final byte KIND_TABLE = 0;
+  private static final byte KIND_RECORD = 1;
+
+  private final InetAddress group;
+  private final int port;
+  private final MulticastSocket socket;
+  private final Thread receiver;
+  private volatile IInvalidationListener listener;
+
+  public MulticastInvalidationTransport(String groupAddress, int port, int timeToLive) throws IOException {
+    this.group = InetAddress.getByName(groupAddress);
+    this.port = port;
+    this.socket = new MulticastSocket(port);
+    socket.setTimeToLive(timeToLive);
+    // false enables the loopback of our own packets
+    socket.setLoopbackMode(false);
+    socket.joinGroup(group);
+
+    receiver = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        receive();
+      }
+    }, "jack-invalidation-" + groupAddress + ":" + port);
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  @Override
+  public void publish(InvalidationEvent event) throws IOException {
+    byte[] data = toBytes(event);
+    if (data.length > MAX_PACKET_SIZE) {
+      throw new IOException("Invalidation event too large for a datagram: " + event);
+    }
+    socket.send(new DatagramPacket(data, data.length, group, port));
+  }
+
+  @Override
+  public void setListener(IInvalidationListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void close() {
+    try {
+      socket.leaveGroup(group);
+    } catch (IOException e) {
+    }
+    socket.close();
+  }
+
+  private void receive() {
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    while (!socket.isClosed()) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      InvalidationEvent event;
+      try {
+        socket.receive(packet);
+        event = fromBytes(packet.getData(), packet.getLength());
+      } catch (IOException e) {
+        // socket closed, or a packet that is not an event
+        continue;
+      }
+      IInvalidationListener target = listener;
+      if (target != null) {
+        try {
+          target.onInvalidation(event);
+        } catch (RuntimeException e) {
+          // a failing listener must not stop the delivery of later events
+        }
+      }
+    }
+  }
+
+  static byte[] toBytes(InvalidationEvent event) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(FORMAT_VERSION);
+    out.writeUTF(event.getSourceId());
+    out.writeUTF(event.getTableName());
+    if (event.isWholeTable()) {
+      out.writeByte(KIND_TABLE);
+    } else {
+      out.writeByte(KIND_RECORD);
+      out.writeLong(event.getId());
+    }
+    out.writeInt(event.getFieldValues().size());
+    for (Map.Entry<String, Long> field : event.getFieldValues().entrySet()) {
+      out.writeUTF(field.getKey());
+      out.writeLong(field.getValue());
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  static InvalidationEvent fromBytes(byte[] data, int length) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+    byte version = in.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unknown invalidation event format " + version);
+    }
+    String sourceId = in.readUTF();
+    String tableName = in.readUTF();
+    byte kind = in.readByte();
+    Long id;
+    if (kind == KIND_TABLE) {
+      id = null;
+    } else if (kind == KIND_RECORD) {
+      id = in.readLong();
+    } else {
+      throw new IOException("Unknown invalidation event kind " + kind);
+    }
+    int fieldCount = in.readInt();
+    // each field takes at least 10 bytes, which bounds the count by the packet size
+    if (fieldCount < 0 || fieldCount > length / 10) {
+      throw new IOException("Invalid field count " + fieldCount);
+    }
+    Map<String, Long> fieldValues = new HashMap<String, Long>();
+    for (int i = 0; i < fieldCount; i++) {
+      fieldValues.put(in.readUTF(), in.readLong());
+    }
+    if (in.read() != -1) {
+      throw new IOException("Trailing bytes after invalidation event");
+    }
+    return new InvalidationEvent(sourceId, tableName, id, fieldValues);
+  }
+}
@@ -2,16 +2,24 @@ package com.rapleaf.jack.queries;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import com.rapleaf.jack.ConnectionLane;
+import com.rapleaf.jack.Deadline;
 import com.rapleaf.jack.IModelPersistence;
+import com.rapleaf.jack.LanedDatabaseConnection;
 import com.rapleaf.jack.ModelWithId;
 
 public abstract class AbstractQueryBuilder<M extends ModelWithId> implements IQueryBuilder<M> {
 
   private ModelQuery query;
   private IModelPersistence<M> caller;
+  private Map<Enum, Object> assignments = new LinkedHashMap<Enum, Object>();
+  private long timeoutMillis = 0;
+  private String lane = null;
 
   public AbstractQueryBuilder(IModelPersistence<M> caller) {
     this.caller = caller;
@@ -50,13 +58,127 @@ public abstract class AbstractQueryBuilder<M extends ModelWithId> implements IQu
     query.addId(id);
   }
 
+  protected void addAssignment(Enum field, Object value) {
+    assignments.put(field, value);
+  }
+
+  /**
+   * Bounds the time the query may take, within the deadline of the thread
+   * if it has a closer one.
+   */
+  protected void setTimeout(long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("Invalid timeout " + timeoutMillis);
+    }
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Sends the query to the named lane of connections of the caller.
+   */
+  protected void setLane(String lane) {
+    if (lane == null) {
+      throw new IllegalArgumentException("Invalid lane " + lane);
+    }
+    this.lane = lane;
+  }
+
+  protected void setFetchSize(int fetchSize) {
+    query.setFetchSize(fetchSize);
+  }
+
+  /**
+   * Streams the rows from the server instead of buffering them all. On
+   * MySQL the connection of the caller cannot run any other statement until
+   * the last row is read, so the records of a streamed query must not be
+   * used to query the same connection before the read is over.
+   */
+  protected void setStreaming() {
+    query.setStreaming(true);
+  }
+
+  public ModelQuery getQuery() {
+    return query;
+  }
+
+  public IModelPersistence<M> getCaller() {
+    return caller;
+  }
+
   @Override
   public Set<M> find() throws IOException {
-    return caller.find(query);
+    return execute(new Deadline.Operation<Set<M>>() {
+      @Override
+      public Set<M> run() throws IOException {
+        return caller.find(query);
+      }
+    });
   }
 
   @Override
   public List<M> findWithOrder() throws IOException {
-    return caller.findWithOrder(query);
+    return execute(new Deadline.Operation<List<M>>() {
+      @Override
+      public List<M> run() throws IOException {
+        return caller.findWithOrder(query);
+      }
+    });
+  }
+
+  @Override
+  public void forEach(final IModelPersistence.RecordVisitor<M> visitor) throws IOException {
+    execute(new Deadline.Operation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        caller.findStreaming(query, visitor);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public int deleteWhere() throws IOException {
+    return execute(new Deadline.Operation<Integer>() {
+      @Override
+      public Integer run() throws IOException {
+        return caller.deleteWhere(query);
+      }
+    });
+  }
+
+  @Override
+  public int deleteWhere(final int chunkSize) throws IOException {
+    return execute(new Deadline.Operation<Integer>() {
+      @Override
+      public Integer run() throws IOException {
+        return caller.deleteWhere(query, chunkSize);
+      }
+    });
+  }
+
+  @Override
+  public int update() throws IOException {
+    return execute(new Deadline.Operation<Integer>() {
+      @Override
+      public Integer run() throws IOException {
+        return caller.updateWhere(query, assignments);
+      }
+    });
+  }
+
+  private <R> R execute(final Deadline.Operation<R> operation) throws IOException {
+    if (lane == null) {
+      return withTimeout(operation);
+    }
+    return LanedDatabaseConnection.onLane(caller, lane, new ConnectionLane.Operation<R>() {
+      @Override
+      public R run() throws IOException {
+        return withTimeout(operation);
+      }
+    });
+  }
+
+  private <R> R withTimeout(Deadline.Operation<R> operation) throws IOException {
+    return timeoutMillis > 0 ? Deadline.within(timeoutMillis, operation) : operation.run();
   }
 }
@@ -18,6 +18,10 @@ public class FieldSelector {
     return field;
   }
 
+  public boolean isAggregated() {
+    return aggregatorKeyword != null;
+  }
+
   public String getSqlClause() {
     if (field == null) {
       return aggregatorKeyword + "(*)";
@@ -6,6 +6,7 @@ import java.sql.SQLException;
 import java.util.Set;
 import java.util.List;
 
+import com.rapleaf.jack.IModelPersistence;
 import com.rapleaf.jack.ModelWithId;
 
 public interface IQueryBuilder<M extends ModelWithId> {
@@ -13,4 +14,15 @@ public interface IQueryBuilder<M extends ModelWithId> {
   public Set<M> find() throws IOException, SQLException;
 
   public List<M> findWithOrder() throws IOException, SQLException;
+
+  /**
+   * Streams the records to the visitor, in order, as their rows are read.
+   */
+  public void forEach(IModelPersistence.RecordVisitor<M> visitor) throws IOException;
+
+  public int deleteWhere() throws IOException;
+
+  public int deleteWhere(int chunkSize) throws IOException;
+
+  public int update() throws IOException;
 }
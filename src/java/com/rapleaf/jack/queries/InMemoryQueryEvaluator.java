@@ -0,0 +1,131 @@
+package com.rapleaf.jack.queries;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+import com.rapleaf.jack.ModelWithId;
+import com.rapleaf.jack.queries.where_operators.IWhereOperator;
+import com.rapleaf.jack.queries.where_operators.IsNull;
+
+/**
+ * Evaluates a ModelQuery against models that are already in memory, using
+ * IWhereOperator.apply for the where constraints. Values are compared with
+ * Java semantics, so string comparisons are case sensitive regardless of the
+ * column collation. NULLs are ordered as the database would: MySQL sorts
+ * them before any value, and PostgreSQL after.
+ */
+public final class InMemoryQueryEvaluator {
+
+  private InMemoryQueryEvaluator() {
+  }
+
+  /**
+   * Queries selecting specific fields, aggregates or groups can only be
+   * answered by the database.
+   */
+  public static boolean canEvaluate(ModelQuery query) {
+    return query.getSelectedFields().isEmpty() && query.getGroupByClause().isEmpty();
+  }
+
+  public static <T extends ModelWithId> boolean matches(T model, ModelQuery query) {
+    Optional<Set<Long>> ids = query.getIdSet();
+    if (ids.isPresent() && !ids.get().contains(model.getId())) {
+      return false;
+    }
+    for (WhereConstraint constraint : query.getWhereConstraints()) {
+      if (!matches(model, constraint)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static <T extends ModelWithId> boolean matches(T model, WhereConstraint<?> constraint) {
+    Object value = model.getField(constraint.getField().name());
+    // As in SQL, a NULL column only satisfies IS NULL
+    if (value == null) {
+      return constraint.getOperator() instanceof IsNull;
+    }
+    return apply(constraint.getOperator(), value);
+  }
+
+  // the generated query builders only make constraints of the Java type of their field
+  @SuppressWarnings("unchecked")
+  private static <V> boolean apply(IWhereOperator<V> operator, Object value) {
+    return operator.apply((V)value);
+  }
+
+  /**
+   * Returns the candidates satisfying the query, sorted according to its
+   * order criteria (by id when there are none) and truncated to its limit.
+   * nullsLast tells whether NULLs come after the other values in ascending
+   * order, as in PostgreSQL, or before them, as in MySQL.
+   */
+  public static <T extends ModelWithId> List<T> evaluate(Collection<T> candidates, ModelQuery query, boolean nullsLast) {
+    List<T> results = filter(candidates, query);
+    sort(results, query.getOrderCriteria(), nullsLast);
+    return applyLimit(results, query.getLimitCriterion());
+  }
+
+  public static <T extends ModelWithId> List<T> filter(Collection<T> candidates, ModelQuery query) {
+    List<T> results = new ArrayList<T>();
+    for (T candidate : candidates) {
+      if (matches(candidate, query)) {
+        results.add(candidate);
+      }
+    }
+    return results;
+  }
+
+  public static <T extends ModelWithId> void sort(List<T> models, final List<OrderCriterion> orderCriteria, final boolean nullsLast) {
+    Collections.sort(models, new Comparator<T>() {
+      public int compare(T t1, T t2) {
+        for (OrderCriterion orderCriterion : orderCriteria) {
+          Enum field = orderCriterion.getField();
+          Object o1 = field != null ? t1.getField(field.name()) : t1.getId();
+          Object o2 = field != null ? t2.getField(field.name()) : t2.getId();
+          int compareResult = compareValues(o1, o2, nullsLast);
+          if (orderCriterion.getOrder() == QueryOrder.DESC) {
+            compareResult = -compareResult;
+          }
+          if (compareResult != 0) {
+            return compareResult;
+          }
+        }
+        return Long.valueOf(t1.getId()).compareTo(t2.getId());
+      }
+    });
+  }
+
+  private static int compareValues(Object o1, Object o2, boolean nullsLast) {
+    if (o1 == null || o2 == null) {
+      int nullFirst = o1 == null ? (o2 == null ? 0 : -1) : 1;
+      return nullsLast ? -nullFirst : nullFirst;
+    }
+    if (o1 instanceof Comparable) {
+      return compareComparable((Comparable<?>)o1, o2);
+    }
+    return Integer.valueOf(o1.hashCode()).compareTo(o2.hashCode());
+  }
+
+  // both values come from the same field, and so are of the same type
+  @SuppressWarnings("unchecked")
+  private static <V> int compareComparable(Comparable<V> o1, Object o2) {
+    return o1.compareTo((V)o2);
+  }
+
+  public static <T> List<T> applyLimit(List<T> results, Optional<LimitCriterion> limitCriterion) {
+    if (!limitCriterion.isPresent()) {
+      return results;
+    }
+    int fromIndex = Math.min(limitCriterion.get().getOffset(), results.size());
+    int toIndex = Math.min(fromIndex + limitCriterion.get().getNResults(), results.size());
+    return new ArrayList<T>(results.subList(fromIndex, toIndex));
+  }
+}
@@ -18,6 +18,8 @@ public class ModelQuery {
   private List<Enum> groupByFields;
   private Optional<LimitCriterion> limitCriterion;
   private Optional<Set<Long>> selectedIds;
+  private int fetchSize = 0;
+  private boolean streaming = false;
 
   public ModelQuery() {
     this.whereConstraints = new ArrayList<WhereConstraint>();
@@ -53,6 +55,33 @@ public class ModelQuery {
     this.limitCriterion = Optional.of(limitCriterion);
   }
 
+  /**
+   * The number of rows fetched from the server at a time, or 0 for the
+   * default of the driver.
+   */
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  public void setFetchSize(int fetchSize) {
+    if (fetchSize < 0) {
+      throw new IllegalArgumentException("Invalid fetch size " + fetchSize);
+    }
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Whether the rows are streamed from the server rather than all read into
+   * memory before the first one is returned.
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
   public void addConstraint(WhereConstraint constraint) {
     whereConstraints.add(constraint);
   }
@@ -1,7 +1,11 @@
 package com.rapleaf.jack.queries.where_operators;
 
+import java.util.regex.Pattern;
+
 public class Match extends WhereOperator<String> {
 
+  private transient Pattern regex;
+
   public Match(String pattern) {
     super(pattern);
     ensureNoNullParameter();
@@ -14,6 +18,32 @@ public class Match extends WhereOperator<String> {
 
   @Override
   public boolean apply(String value) {
-    return value.matches(getSingleParameter().replace("%", "(.*)"));
+    if (regex == null) {
+      regex = toRegex(getSingleParameter());
+    }
+    return regex.matcher(value).matches();
+  }
+
+  /**
+   * Translates a LIKE pattern: % matches any sequence of characters, _ any
+   * single character, and a backslash escapes the character after it. Every
+   * other character only matches itself.
+   */
+  static Pattern toRegex(String likePattern) {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < likePattern.length(); i++) {
+      char c = likePattern.charAt(i);
+      if (c == '%') {
+        regex.append(".*");
+      } else if (c == '_') {
+        regex.append('.');
+      } else {
+        if (c == '\\' && i + 1 < likePattern.length()) {
+          c = likePattern.charAt(++i);
+        }
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
   }
 }
@@ -13,7 +13,7 @@ import java.util.Map;
 import org.jvyaml.YAML;
 
 import com.rapleaf.jack.BaseDatabaseConnection;
-import com.rapleaf.jack.DatabaseConnection;
+import com.rapleaf.jack.DatabaseConnections;
 import com.rapleaf.jack.test_project.database_1.IDatabase1;
 import com.rapleaf.jack.test_project.database_1.impl.Database1Impl;
 
@@ -26,6 +26,14 @@ public class DatabasesImpl implements IDatabases {
   }
 
   public DatabasesImpl() {
+    this((String)null);
+  }
+
+  /**
+   * Serves everything on the named lane of connections, or on plain
+   * connections if lane is null.
+   */
+  public DatabasesImpl(String lane) {
     // load database info from config folder
     Map env_info;
     try {
@@ -37,7 +45,9 @@ public class DatabasesImpl implements IDatabases {
     if (use_mock != null && use_mock) {
       this.database1 = mockDatabases.getDatabase1();
     } else {
-      this.database1 = new Database1Impl(new DatabaseConnection("database1"), this);
+      // databases on the same MySQL server may share a connection
+      DatabaseConnections connections = new DatabaseConnections(env_info);
+      this.database1 = new Database1Impl(lane == null ? connections.get("database1") : connections.get("database1", lane), this);
     }
   }
 
@@ -59,6 +59,11 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
     return this.create(content, commenter_id, commented_on_id, System.currentTimeMillis());
   }
   public Comment create(final String content, final int commenter_id, final long commented_on_id, final long created_at) throws IOException {
+    if (hasIdAllocator()) {
+      Comment newInst = new Comment(allocateId(), content, commenter_id, commented_on_id, created_at, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
         if (content == null) {
@@ -73,13 +78,17 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
     }, getInsertStatement(Arrays.<String>asList("content", "commenter_id", "commented_on_id", "created_at")));
     Comment newInst = new Comment(__id, content, commenter_id, commented_on_id, created_at, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
 
   public Comment create(final int commenter_id, final long commented_on_id, final long created_at) throws IOException {
+    if (hasIdAllocator()) {
+      Comment newInst = new Comment(allocateId(), null, commenter_id, commented_on_id, created_at, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
           stmt.setInt(1, commenter_id);
@@ -89,8 +98,7 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
     }, getInsertStatement(Arrays.<String>asList("commenter_id", "commented_on_id", "created_at")));
     Comment newInst = new Comment(__id, null, commenter_id, commented_on_id, created_at, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
@@ -112,8 +120,8 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
 
     StringBuilder statementString = new StringBuilder();
     statementString.append("SELECT * FROM comments WHERE (");
-    List<Object> nonNullValues = new ArrayList<Object>();
-    List<Comment._Fields> nonNullValueFields = new ArrayList<Comment._Fields>();
+    final List<Object> nonNullValues = new ArrayList<Object>();
+    final List<Comment._Fields> nonNullValueFields = new ArrayList<Comment._Fields>();
 
     Iterator<Map.Entry<Enum, Object>> iter = fieldsMap.entrySet().iterator();
     while (iter.hasNext()) {
@@ -135,15 +143,10 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
     if (ids != null) statementString.append(" AND ").append(getIdSetCondition(ids));
     statementString.append(")");
 
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
-
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString.toString());
-
-      for (int i = 0; i < nonNullValues.size(); i++) {
-        Comment._Fields field = nonNullValueFields.get(i);
-        try {
+    executeQuery(foundSet, statementString.toString(), new AttrSetter() {
+      public void set(PreparedStatement preparedStatement) throws SQLException {
+        for (int i = 0; i < nonNullValues.size(); i++) {
+          Comment._Fields field = nonNullValueFields.get(i);
           switch (field) {
             case content:
               preparedStatement.setString(i+1, (String) nonNullValues.get(i));
@@ -158,27 +161,14 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
               preparedStatement.setTimestamp(i+1, new Timestamp((Long) nonNullValues.get(i)));
               break;
           }
-        } catch (SQLException e) {
-          throw new IOException(e);
-        }
-      }
-
-      try {
-        executeQuery(foundSet, preparedStatement);
-        return foundSet;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
         }
-      } catch (SQLException e) {
-        throw new IOException(e);
       }
-    }
+    });
+    return foundSet;
   }
 
   @Override
-  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query) throws IOException {
-    int index = 0;
+  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query, int index) throws IOException {
     for (WhereConstraint constraint : query.getWhereConstraints()) {
       Comment._Fields field = (Comment._Fields)constraint.getField();
       for (Object parameter : constraint.getParameters()) {
@@ -207,6 +197,40 @@ public class BaseCommentPersistenceImpl extends AbstractDatabaseModel<Comment> i
     }
   }
 
+  @Override
+  protected void setFieldParameter(PreparedStatement stmt, int index, Enum field, Object value) throws SQLException {
+    switch ((Comment._Fields)field) {
+      case content:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.CHAR);
+        } else {
+          stmt.setString(index, (String) value);
+        }
+        break;
+      case commenter_id:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setInt(index, (Integer) value);
+        }
+        break;
+      case commented_on_id:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setLong(index, (Long) value);
+        }
+        break;
+      case created_at:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DATE);
+        } else {
+          stmt.setTimestamp(index, new Timestamp((Long) value));
+        }
+        break;
+    }
+  }
+
   @Override
   protected void setAttrs(Comment model, PreparedStatement stmt) throws SQLException {
     if (model.getContent() == null) {
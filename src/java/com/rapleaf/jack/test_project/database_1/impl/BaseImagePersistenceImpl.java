@@ -52,6 +52,11 @@ public class BaseImagePersistenceImpl extends AbstractDatabaseModel<Image> imple
   }
 
   public Image create(final Integer user_id) throws IOException {
+    if (hasIdAllocator()) {
+      Image newInst = new Image(allocateId(), user_id, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
         if (user_id == null) {
@@ -63,21 +68,24 @@ public class BaseImagePersistenceImpl extends AbstractDatabaseModel<Image> imple
     }, getInsertStatement(Arrays.<String>asList("user_id")));
     Image newInst = new Image(__id, user_id, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
 
   public Image create() throws IOException {
+    if (hasIdAllocator()) {
+      Image newInst = new Image(allocateId(), null, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
       }
     }, getInsertStatement(Arrays.<String>asList()));
     Image newInst = new Image(__id, null, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
@@ -99,8 +107,8 @@ public class BaseImagePersistenceImpl extends AbstractDatabaseModel<Image> imple
 
     StringBuilder statementString = new StringBuilder();
     statementString.append("SELECT * FROM images WHERE (");
-    List<Object> nonNullValues = new ArrayList<Object>();
-    List<Image._Fields> nonNullValueFields = new ArrayList<Image._Fields>();
+    final List<Object> nonNullValues = new ArrayList<Object>();
+    final List<Image._Fields> nonNullValueFields = new ArrayList<Image._Fields>();
 
     Iterator<Map.Entry<Enum, Object>> iter = fieldsMap.entrySet().iterator();
     while (iter.hasNext()) {
@@ -122,41 +130,23 @@ public class BaseImagePersistenceImpl extends AbstractDatabaseModel<Image> imple
     if (ids != null) statementString.append(" AND ").append(getIdSetCondition(ids));
     statementString.append(")");
 
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
-
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString.toString());
-
-      for (int i = 0; i < nonNullValues.size(); i++) {
-        Image._Fields field = nonNullValueFields.get(i);
-        try {
+    executeQuery(foundSet, statementString.toString(), new AttrSetter() {
+      public void set(PreparedStatement preparedStatement) throws SQLException {
+        for (int i = 0; i < nonNullValues.size(); i++) {
+          Image._Fields field = nonNullValueFields.get(i);
           switch (field) {
             case user_id:
               preparedStatement.setInt(i+1, (Integer) nonNullValues.get(i));
               break;
           }
-        } catch (SQLException e) {
-          throw new IOException(e);
-        }
-      }
-
-      try {
-        executeQuery(foundSet, preparedStatement);
-        return foundSet;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
         }
-      } catch (SQLException e) {
-        throw new IOException(e);
       }
-    }
+    });
+    return foundSet;
   }
 
   @Override
-  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query) throws IOException {
-    int index = 0;
+  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query, int index) throws IOException {
     for (WhereConstraint constraint : query.getWhereConstraints()) {
       Image._Fields field = (Image._Fields)constraint.getField();
       for (Object parameter : constraint.getParameters()) {
@@ -176,6 +166,19 @@ public class BaseImagePersistenceImpl extends AbstractDatabaseModel<Image> imple
     }
   }
 
+  @Override
+  protected void setFieldParameter(PreparedStatement stmt, int index, Enum field, Object value) throws SQLException {
+    switch ((Image._Fields)field) {
+      case user_id:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setInt(index, (Integer) value);
+        }
+        break;
+    }
+  }
+
   @Override
   protected void setAttrs(Image model, PreparedStatement stmt) throws SQLException {
     if (model.getUserId() == null) {
@@ -55,6 +55,11 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
   }
 
   public Post create(final String title, final Long posted_at_millis, final Integer user_id, final Long updated_at) throws IOException {
+    if (hasIdAllocator()) {
+      Post newInst = new Post(allocateId(), title, posted_at_millis, user_id, updated_at, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
         if (title == null) {
@@ -81,21 +86,24 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
     }, getInsertStatement(Arrays.<String>asList("title", "posted_at_millis", "user_id", "updated_at")));
     Post newInst = new Post(__id, title, posted_at_millis, user_id, updated_at, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
 
   public Post create() throws IOException {
+    if (hasIdAllocator()) {
+      Post newInst = new Post(allocateId(), null, null, null, null, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
       }
     }, getInsertStatement(Arrays.<String>asList()));
     Post newInst = new Post(__id, null, null, null, null, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
@@ -117,8 +125,8 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
 
     StringBuilder statementString = new StringBuilder();
     statementString.append("SELECT * FROM posts WHERE (");
-    List<Object> nonNullValues = new ArrayList<Object>();
-    List<Post._Fields> nonNullValueFields = new ArrayList<Post._Fields>();
+    final List<Object> nonNullValues = new ArrayList<Object>();
+    final List<Post._Fields> nonNullValueFields = new ArrayList<Post._Fields>();
 
     Iterator<Map.Entry<Enum, Object>> iter = fieldsMap.entrySet().iterator();
     while (iter.hasNext()) {
@@ -140,15 +148,10 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
     if (ids != null) statementString.append(" AND ").append(getIdSetCondition(ids));
     statementString.append(")");
 
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
-
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString.toString());
-
-      for (int i = 0; i < nonNullValues.size(); i++) {
-        Post._Fields field = nonNullValueFields.get(i);
-        try {
+    executeQuery(foundSet, statementString.toString(), new AttrSetter() {
+      public void set(PreparedStatement preparedStatement) throws SQLException {
+        for (int i = 0; i < nonNullValues.size(); i++) {
+          Post._Fields field = nonNullValueFields.get(i);
           switch (field) {
             case title:
               preparedStatement.setString(i+1, (String) nonNullValues.get(i));
@@ -163,27 +166,14 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
               preparedStatement.setTimestamp(i+1, new Timestamp((Long) nonNullValues.get(i)));
               break;
           }
-        } catch (SQLException e) {
-          throw new IOException(e);
-        }
-      }
-
-      try {
-        executeQuery(foundSet, preparedStatement);
-        return foundSet;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
         }
-      } catch (SQLException e) {
-        throw new IOException(e);
       }
-    }
+    });
+    return foundSet;
   }
 
   @Override
-  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query) throws IOException {
-    int index = 0;
+  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query, int index) throws IOException {
     for (WhereConstraint constraint : query.getWhereConstraints()) {
       Post._Fields field = (Post._Fields)constraint.getField();
       for (Object parameter : constraint.getParameters()) {
@@ -212,6 +202,40 @@ public class BasePostPersistenceImpl extends AbstractDatabaseModel<Post> impleme
     }
   }
 
+  @Override
+  protected void setFieldParameter(PreparedStatement stmt, int index, Enum field, Object value) throws SQLException {
+    switch ((Post._Fields)field) {
+      case title:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.CHAR);
+        } else {
+          stmt.setString(index, (String) value);
+        }
+        break;
+      case posted_at_millis:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DATE);
+        } else {
+          stmt.setDate(index, new Date((Long) value));
+        }
+        break;
+      case user_id:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setInt(index, (Integer) value);
+        }
+        break;
+      case updated_at:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DATE);
+        } else {
+          stmt.setTimestamp(index, new Timestamp((Long) value));
+        }
+        break;
+    }
+  }
+
   @Override
   protected void setAttrs(Post model, PreparedStatement stmt) throws SQLException {
     if (model.getTitle() == null) {
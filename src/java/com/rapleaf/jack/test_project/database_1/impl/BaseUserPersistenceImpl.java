@@ -61,6 +61,11 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
   }
 
   public User create(final String handle, final Long created_at_millis, final int num_posts, final Long some_date, final Long some_datetime, final String bio, final byte[] some_binary, final Double some_float, final Double some_decimal, final Boolean some_boolean) throws IOException {
+    if (hasIdAllocator()) {
+      User newInst = new User(allocateId(), handle, created_at_millis, num_posts, some_date, some_datetime, bio, some_binary, some_float, some_decimal, some_boolean, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
           stmt.setString(1, handle);
@@ -109,13 +114,17 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
     }, getInsertStatement(Arrays.<String>asList("handle", "created_at_millis", "num_posts", "some_date", "some_datetime", "bio", "some_binary", "some_float", "some_decimal", "some_boolean")));
     User newInst = new User(__id, handle, created_at_millis, num_posts, some_date, some_datetime, bio, some_binary, some_float, some_decimal, some_boolean, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
 
   public User create(final String handle, final int num_posts) throws IOException {
+    if (hasIdAllocator()) {
+      User newInst = new User(allocateId(), handle, null, num_posts, null, null, null, null, null, null, null, databases);
+      createWithAllocatedId(newInst);
+      return newInst;
+    }
     long __id = realCreate(new AttrSetter() {
       public void set(PreparedStatement stmt) throws SQLException {
           stmt.setString(1, handle);
@@ -124,8 +133,7 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
     }, getInsertStatement(Arrays.<String>asList("handle", "num_posts")));
     User newInst = new User(__id, handle, null, num_posts, null, null, null, null, null, null, null, databases);
     newInst.setCreated(true);
-    cachedById.put(__id, newInst);
-    clearForeignKeyCache();
+    afterCreate(newInst);
     return newInst;
   }
 
@@ -147,8 +155,8 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
 
     StringBuilder statementString = new StringBuilder();
     statementString.append("SELECT * FROM users WHERE (");
-    List<Object> nonNullValues = new ArrayList<Object>();
-    List<User._Fields> nonNullValueFields = new ArrayList<User._Fields>();
+    final List<Object> nonNullValues = new ArrayList<Object>();
+    final List<User._Fields> nonNullValueFields = new ArrayList<User._Fields>();
 
     Iterator<Map.Entry<Enum, Object>> iter = fieldsMap.entrySet().iterator();
     while (iter.hasNext()) {
@@ -170,15 +178,10 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
     if (ids != null) statementString.append(" AND ").append(getIdSetCondition(ids));
     statementString.append(")");
 
-    int retryCount = 0;
-    PreparedStatement preparedStatement;
-
-    while (true) {
-      preparedStatement = getPreparedStatement(statementString.toString());
-
-      for (int i = 0; i < nonNullValues.size(); i++) {
-        User._Fields field = nonNullValueFields.get(i);
-        try {
+    executeQuery(foundSet, statementString.toString(), new AttrSetter() {
+      public void set(PreparedStatement preparedStatement) throws SQLException {
+        for (int i = 0; i < nonNullValues.size(); i++) {
+          User._Fields field = nonNullValueFields.get(i);
           switch (field) {
             case handle:
               preparedStatement.setString(i+1, (String) nonNullValues.get(i));
@@ -211,27 +214,14 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
               preparedStatement.setBoolean(i+1, (Boolean) nonNullValues.get(i));
               break;
           }
-        } catch (SQLException e) {
-          throw new IOException(e);
-        }
-      }
-
-      try {
-        executeQuery(foundSet, preparedStatement);
-        return foundSet;
-      } catch (SQLRecoverableException e) {
-        if (++retryCount > AbstractDatabaseModel.MAX_CONNECTION_RETRIES) {
-          throw new IOException(e);
         }
-      } catch (SQLException e) {
-        throw new IOException(e);
       }
-    }
+    });
+    return foundSet;
   }
 
   @Override
-  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query) throws IOException {
-    int index = 0;
+  protected void setStatementParameters(PreparedStatement preparedStatement, ModelQuery query, int index) throws IOException {
     for (WhereConstraint constraint : query.getWhereConstraints()) {
       User._Fields field = (User._Fields)constraint.getField();
       for (Object parameter : constraint.getParameters()) {
@@ -278,6 +268,82 @@ public class BaseUserPersistenceImpl extends AbstractDatabaseModel<User> impleme
     }
   }
 
+  @Override
+  protected void setFieldParameter(PreparedStatement stmt, int index, Enum field, Object value) throws SQLException {
+    switch ((User._Fields)field) {
+      case handle:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.CHAR);
+        } else {
+          stmt.setString(index, (String) value);
+        }
+        break;
+      case created_at_millis:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setLong(index, (Long) value);
+        }
+        break;
+      case num_posts:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.INTEGER);
+        } else {
+          stmt.setInt(index, (Integer) value);
+        }
+        break;
+      case some_date:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DATE);
+        } else {
+          stmt.setDate(index, new Date((Long) value));
+        }
+        break;
+      case some_datetime:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DATE);
+        } else {
+          stmt.setTimestamp(index, new Timestamp((Long) value));
+        }
+        break;
+      case bio:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.CHAR);
+        } else {
+          stmt.setString(index, (String) value);
+        }
+        break;
+      case some_binary:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.BINARY);
+        } else {
+          stmt.setBytes(index, (byte[]) value);
+        }
+        break;
+      case some_float:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DOUBLE);
+        } else {
+          stmt.setDouble(index, (Double) value);
+        }
+        break;
+      case some_decimal:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.DECIMAL);
+        } else {
+          stmt.setDouble(index, (Double) value);
+        }
+        break;
+      case some_boolean:
+        if (value == null) {
+          stmt.setNull(index, java.sql.Types.BOOLEAN);
+        } else {
+          stmt.setBoolean(index, (Boolean) value);
+        }
+        break;
+    }
+  }
+
   @Override
   protected void setAttrs(User model, PreparedStatement stmt) throws SQLException {
     {
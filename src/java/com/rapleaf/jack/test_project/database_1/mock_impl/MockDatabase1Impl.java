@@ -10,6 +10,13 @@ import java.io.IOException;
 import java.sql.Connection;
 
 import com.rapleaf.jack.test_project.database_1.IDatabase1;
+import com.rapleaf.jack.AdaptiveCachePolicy;
+import com.rapleaf.jack.CounterBuffer;
+import com.rapleaf.jack.HedgingPolicy;
+import com.rapleaf.jack.IdAllocator;
+import com.rapleaf.jack.ReadBatch;
+import com.rapleaf.jack.UnitOfWork;
+import com.rapleaf.jack.invalidation.InvalidationBus;
 import com.rapleaf.jack.test_project.database_1.iface.ICommentPersistence;
 import com.rapleaf.jack.test_project.database_1.iface.IImagePersistence;
 import com.rapleaf.jack.test_project.database_1.iface.IPostPersistence;
@@ -66,6 +73,55 @@ public class MockDatabase1Impl implements IDatabase1 {
     users.disableCaching();
   }
 
+  public void enableAdaptiveCaching(AdaptiveCachePolicy policy) {
+    comments.enableAdaptiveCaching(policy);
+    images.enableAdaptiveCaching(policy);
+    posts.enableAdaptiveCaching(policy);
+    users.enableAdaptiveCaching(policy);
+  }
+
+  public void setIdAllocator(IdAllocator idAllocator) {
+    comments.setIdAllocator(idAllocator);
+    images.setIdAllocator(idAllocator);
+    posts.setIdAllocator(idAllocator);
+    users.setIdAllocator(idAllocator);
+  }
+
+  public void setCounterBuffer(CounterBuffer buffer) {
+    comments.setCounterBuffer(buffer);
+    images.setCounterBuffer(buffer);
+    posts.setCounterBuffer(buffer);
+    users.setCounterBuffer(buffer);
+  }
+
+  public void setHedgingPolicy(HedgingPolicy policy) {
+    comments.setHedgingPolicy(policy);
+    images.setHedgingPolicy(policy);
+    posts.setHedgingPolicy(policy);
+    users.setHedgingPolicy(policy);
+  }
+
+  public void setInvalidationBus(InvalidationBus bus) {
+    comments.setInvalidationBus(bus);
+    images.setInvalidationBus(bus);
+    posts.setInvalidationBus(bus);
+    users.setInvalidationBus(bus);
+  }
+
+  public ReadBatch readBatch() {
+    return new ReadBatch(null);
+  }
+
+  public UnitOfWork beginUnitOfWork() {
+    UnitOfWork unitOfWork = new UnitOfWork(null);
+    unitOfWork.addDependency("comments", "users");
+    unitOfWork.addDependency("comments", "posts");
+    unitOfWork.addDependency("images", "users");
+    unitOfWork.addDependency("posts", "users");
+    unitOfWork.begin();
+    return unitOfWork;
+  }
+
   public void setAutoCommit(boolean autoCommit) {
     // Do nothing
   }
@@ -1,6 +1,7 @@
 package com.rapleaf.jack.test_project.database_1.query;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.rapleaf.jack.queries.AbstractQueryBuilder;
 import com.rapleaf.jack.queries.FieldSelector;
@@ -52,6 +53,26 @@ public class CommentQueryBuilder extends AbstractQueryBuilder<Comment> {
     return this;
   }
 
+  public CommentQueryBuilder timeout(long timeout, TimeUnit unit) {
+    setTimeout(unit.toMillis(timeout));
+    return this;
+  }
+
+  public CommentQueryBuilder fetchSize(int fetchSize) {
+    setFetchSize(fetchSize);
+    return this;
+  }
+
+  public CommentQueryBuilder onLane(String lane) {
+    setLane(lane);
+    return this;
+  }
+
+  public CommentQueryBuilder streaming() {
+    setStreaming();
+    return this;
+  }
+
   public CommentQueryBuilder groupBy(Comment._Fields... fields) {
     addGroupByFields(fields);
     return this;
@@ -97,6 +118,11 @@ public class CommentQueryBuilder extends AbstractQueryBuilder<Comment> {
     return this;
   }
 
+  public CommentQueryBuilder setContent(String value) {
+    addAssignment(Comment._Fields.content, value);
+    return this;
+  }
+
   public CommentQueryBuilder commenterId(Integer value) {
     addWhereConstraint(new WhereConstraint<Integer>(Comment._Fields.commenter_id, JackMatchers.equalTo(value)));
     return this;
@@ -117,6 +143,11 @@ public class CommentQueryBuilder extends AbstractQueryBuilder<Comment> {
     return this;
   }
 
+  public CommentQueryBuilder setCommenterId(Integer value) {
+    addAssignment(Comment._Fields.commenter_id, value);
+    return this;
+  }
+
   public CommentQueryBuilder commentedOnId(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(Comment._Fields.commented_on_id, JackMatchers.equalTo(value)));
     return this;
@@ -137,6 +168,11 @@ public class CommentQueryBuilder extends AbstractQueryBuilder<Comment> {
     return this;
   }
 
+  public CommentQueryBuilder setCommentedOnId(Long value) {
+    addAssignment(Comment._Fields.commented_on_id, value);
+    return this;
+  }
+
   public CommentQueryBuilder createdAt(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(Comment._Fields.created_at, JackMatchers.equalTo(value)));
     return this;
@@ -156,4 +192,9 @@ public class CommentQueryBuilder extends AbstractQueryBuilder<Comment> {
     this.addOrder(new OrderCriterion(Comment._Fields.created_at, queryOrder));
     return this;
   }
+
+  public CommentQueryBuilder setCreatedAt(Long value) {
+    addAssignment(Comment._Fields.created_at, value);
+    return this;
+  }
 }
@@ -1,6 +1,7 @@
 package com.rapleaf.jack.test_project.database_1.query;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.rapleaf.jack.queries.AbstractQueryBuilder;
 import com.rapleaf.jack.queries.FieldSelector;
@@ -52,6 +53,26 @@ public class ImageQueryBuilder extends AbstractQueryBuilder<Image> {
     return this;
   }
 
+  public ImageQueryBuilder timeout(long timeout, TimeUnit unit) {
+    setTimeout(unit.toMillis(timeout));
+    return this;
+  }
+
+  public ImageQueryBuilder fetchSize(int fetchSize) {
+    setFetchSize(fetchSize);
+    return this;
+  }
+
+  public ImageQueryBuilder onLane(String lane) {
+    setLane(lane);
+    return this;
+  }
+
+  public ImageQueryBuilder streaming() {
+    setStreaming();
+    return this;
+  }
+
   public ImageQueryBuilder groupBy(Image._Fields... fields) {
     addGroupByFields(fields);
     return this;
@@ -96,4 +117,9 @@ public class ImageQueryBuilder extends AbstractQueryBuilder<Image> {
     this.addOrder(new OrderCriterion(Image._Fields.user_id, queryOrder));
     return this;
   }
+
+  public ImageQueryBuilder setUserId(Integer value) {
+    addAssignment(Image._Fields.user_id, value);
+    return this;
+  }
 }
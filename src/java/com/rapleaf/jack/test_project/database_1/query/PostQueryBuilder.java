@@ -1,6 +1,7 @@
 package com.rapleaf.jack.test_project.database_1.query;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.rapleaf.jack.queries.AbstractQueryBuilder;
 import com.rapleaf.jack.queries.FieldSelector;
@@ -52,6 +53,26 @@ public class PostQueryBuilder extends AbstractQueryBuilder<Post> {
     return this;
   }
 
+  public PostQueryBuilder timeout(long timeout, TimeUnit unit) {
+    setTimeout(unit.toMillis(timeout));
+    return this;
+  }
+
+  public PostQueryBuilder fetchSize(int fetchSize) {
+    setFetchSize(fetchSize);
+    return this;
+  }
+
+  public PostQueryBuilder onLane(String lane) {
+    setLane(lane);
+    return this;
+  }
+
+  public PostQueryBuilder streaming() {
+    setStreaming();
+    return this;
+  }
+
   public PostQueryBuilder groupBy(Post._Fields... fields) {
     addGroupByFields(fields);
     return this;
@@ -97,6 +118,11 @@ public class PostQueryBuilder extends AbstractQueryBuilder<Post> {
     return this;
   }
 
+  public PostQueryBuilder setTitle(String value) {
+    addAssignment(Post._Fields.title, value);
+    return this;
+  }
+
   public PostQueryBuilder postedAtMillis(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(Post._Fields.posted_at_millis, JackMatchers.equalTo(value)));
     return this;
@@ -117,6 +143,11 @@ public class PostQueryBuilder extends AbstractQueryBuilder<Post> {
     return this;
   }
 
+  public PostQueryBuilder setPostedAtMillis(Long value) {
+    addAssignment(Post._Fields.posted_at_millis, value);
+    return this;
+  }
+
   public PostQueryBuilder userId(Integer value) {
     addWhereConstraint(new WhereConstraint<Integer>(Post._Fields.user_id, JackMatchers.equalTo(value)));
     return this;
@@ -137,6 +168,11 @@ public class PostQueryBuilder extends AbstractQueryBuilder<Post> {
     return this;
   }
 
+  public PostQueryBuilder setUserId(Integer value) {
+    addAssignment(Post._Fields.user_id, value);
+    return this;
+  }
+
   public PostQueryBuilder updatedAt(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(Post._Fields.updated_at, JackMatchers.equalTo(value)));
     return this;
@@ -156,4 +192,9 @@ public class PostQueryBuilder extends AbstractQueryBuilder<Post> {
     this.addOrder(new OrderCriterion(Post._Fields.updated_at, queryOrder));
     return this;
   }
+
+  public PostQueryBuilder setUpdatedAt(Long value) {
+    addAssignment(Post._Fields.updated_at, value);
+    return this;
+  }
 }
@@ -1,6 +1,7 @@
 package com.rapleaf.jack.test_project.database_1.query;
 
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.rapleaf.jack.queries.AbstractQueryBuilder;
 import com.rapleaf.jack.queries.FieldSelector;
@@ -52,6 +53,26 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder timeout(long timeout, TimeUnit unit) {
+    setTimeout(unit.toMillis(timeout));
+    return this;
+  }
+
+  public UserQueryBuilder fetchSize(int fetchSize) {
+    setFetchSize(fetchSize);
+    return this;
+  }
+
+  public UserQueryBuilder onLane(String lane) {
+    setLane(lane);
+    return this;
+  }
+
+  public UserQueryBuilder streaming() {
+    setStreaming();
+    return this;
+  }
+
   public UserQueryBuilder groupBy(User._Fields... fields) {
     addGroupByFields(fields);
     return this;
@@ -97,6 +118,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setHandle(String value) {
+    addAssignment(User._Fields.handle, value);
+    return this;
+  }
+
   public UserQueryBuilder createdAtMillis(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(User._Fields.created_at_millis, JackMatchers.equalTo(value)));
     return this;
@@ -117,6 +143,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setCreatedAtMillis(Long value) {
+    addAssignment(User._Fields.created_at_millis, value);
+    return this;
+  }
+
   public UserQueryBuilder numPosts(Integer value) {
     addWhereConstraint(new WhereConstraint<Integer>(User._Fields.num_posts, JackMatchers.equalTo(value)));
     return this;
@@ -137,6 +168,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setNumPosts(Integer value) {
+    addAssignment(User._Fields.num_posts, value);
+    return this;
+  }
+
   public UserQueryBuilder someDate(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(User._Fields.some_date, JackMatchers.equalTo(value)));
     return this;
@@ -157,6 +193,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setSomeDate(Long value) {
+    addAssignment(User._Fields.some_date, value);
+    return this;
+  }
+
   public UserQueryBuilder someDatetime(Long value) {
     addWhereConstraint(new WhereConstraint<Long>(User._Fields.some_datetime, JackMatchers.equalTo(value)));
     return this;
@@ -177,6 +218,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setSomeDatetime(Long value) {
+    addAssignment(User._Fields.some_datetime, value);
+    return this;
+  }
+
   public UserQueryBuilder bio(String value) {
     addWhereConstraint(new WhereConstraint<String>(User._Fields.bio, JackMatchers.equalTo(value)));
     return this;
@@ -197,6 +243,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setBio(String value) {
+    addAssignment(User._Fields.bio, value);
+    return this;
+  }
+
   public UserQueryBuilder someBinary(byte[] value) {
     addWhereConstraint(new WhereConstraint<byte[]>(User._Fields.some_binary, JackMatchers.equalTo(value)));
     return this;
@@ -217,6 +268,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setSomeBinary(byte[] value) {
+    addAssignment(User._Fields.some_binary, value);
+    return this;
+  }
+
   public UserQueryBuilder someFloat(Double value) {
     addWhereConstraint(new WhereConstraint<Double>(User._Fields.some_float, JackMatchers.equalTo(value)));
     return this;
@@ -237,6 +293,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setSomeFloat(Double value) {
+    addAssignment(User._Fields.some_float, value);
+    return this;
+  }
+
   public UserQueryBuilder someDecimal(Double value) {
     addWhereConstraint(new WhereConstraint<Double>(User._Fields.some_decimal, JackMatchers.equalTo(value)));
     return this;
@@ -257,6 +318,11 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     return this;
   }
 
+  public UserQueryBuilder setSomeDecimal(Double value) {
+    addAssignment(User._Fields.some_decimal, value);
+    return this;
+  }
+
   public UserQueryBuilder someBoolean(Boolean value) {
     addWhereConstraint(new WhereConstraint<Boolean>(User._Fields.some_boolean, JackMatchers.equalTo(value)));
     return this;
@@ -276,4 +342,9 @@ public class UserQueryBuilder extends AbstractQueryBuilder<User> {
     this.addOrder(new OrderCriterion(User._Fields.some_boolean, queryOrder));
     return this;
   }
+
+  public UserQueryBuilder setSomeBoolean(Boolean value) {
+    addAssignment(User._Fields.some_boolean, value);
+    return this;
+  }
 }
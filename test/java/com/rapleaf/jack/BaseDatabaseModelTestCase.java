@@ -15,6 +15,7 @@ import java.util.Set;
 
 import junit.framework.TestCase;
 
+import com.rapleaf.jack.queries.where_operators.JackMatchers;
 import com.rapleaf.jack.test_project.IDatabases;
 import com.rapleaf.jack.test_project.database_1.iface.ICommentPersistence;
 import com.rapleaf.jack.test_project.database_1.iface.IImagePersistence;
@@ -545,6 +546,126 @@ public abstract class BaseDatabaseModelTestCase extends TestCase {
     assertTrue(found.contains(u2));
   }
 
+  public void testIncrementAndUpdateField() throws IOException {
+    IUserPersistence users = dbs.getDatabase1().users();
+    User u1 = users.create("a_handle", 2);
+    User u2 = users.create("another_handle", 5);
+
+    assertTrue(users.increment(u1.getId(), User._Fields.num_posts, 3));
+    assertEquals(5, users.find(u1.getId()).getNumPosts());
+    assertEquals(2, users.increment(Arrays.asList(u1.getId(), u2.getId()), User._Fields.num_posts, -1));
+    assertEquals(4, users.find(u1.getId()).getNumPosts());
+    assertEquals(4, users.find(u2.getId()).getNumPosts());
+
+    assertTrue(users.updateField(u1.getId(), User._Fields.bio, "new bio"));
+    assertEquals("new bio", users.find(u1.getId()).getBio());
+    assertEquals("a_handle", users.find(u1.getId()).getHandle());
+    assertEquals(2, users.updateField(Arrays.asList(u1.getId(), u2.getId()), User._Fields.bio, null));
+    assertNull(users.find(u2.getId()).getBio());
+
+    assertFalse(users.increment(u2.getId() + 100, User._Fields.num_posts, 1));
+  }
+
+  public void testUpsert() throws IOException {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post existing = posts.create("old title", 1L, 1, 1000L);
+    Post copy = new Post(existing.getId(), "new title", 1L, 2, 1000L, dbs);
+    Post inserted = new Post(existing.getId() + 100, "inserted", 1L, 2, 1000L, dbs);
+
+    assertEquals(2, posts.upsertAll(Arrays.asList(copy, inserted)));
+    assertEquals("new title", posts.find(existing.getId()).getTitle());
+    assertEquals("inserted", posts.find(inserted.getId()).getTitle());
+    assertEquals(2, posts.findAll().size());
+
+    assertTrue(posts.upsert(new Post(inserted.getId(), "upserted", 1L, 2, 1000L, dbs)));
+    assertEquals("upserted", posts.find(inserted.getId()).getTitle());
+  }
+
+  public void testDeleteWhere() throws IOException {
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    Comment c1 = comments.create("comment1", 1, 1, 1);
+    Comment c2 = comments.create("comment2", 1, 2, 1);
+    Comment c3 = comments.create("comment3", 2, 3, 1);
+    Comment c4 = comments.create("comment4", 2, 4, 1);
+    Comment c5 = comments.create("comment5", 3, 5, 1);
+
+    assertEquals(2, comments.query().commenterId(1).deleteWhere());
+    assertNull(comments.find(c1.getId()));
+    assertNull(comments.find(c2.getId()));
+
+    assertEquals(2, comments.query().commenterId(2).deleteWhere(1));
+    assertNull(comments.find(c3.getId()));
+    assertNull(comments.find(c4.getId()));
+
+    assertEquals(1, comments.delete(Arrays.asList(c5.getId(), c1.getId())));
+    assertTrue(comments.findAll().isEmpty());
+  }
+
+  public void testWhereWithoutConstraintIsRejected() throws IOException {
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    IUserPersistence users = dbs.getDatabase1().users();
+    comments.create("comment1", 1, 1, 1);
+    users.create("bryand", 5);
+
+    try {
+      comments.query().deleteWhere();
+      fail("A delete without constraint should be rejected");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      comments.query().deleteWhere(10);
+      fail("A delete without constraint should be rejected");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      users.query().setNumPosts(0).update();
+      fail("An update without constraint should be rejected");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(1, comments.findAll().size());
+    assertEquals(5, users.findAll().iterator().next().getNumPosts());
+  }
+
+  public void testUpdateWhere() throws IOException {
+    IUserPersistence users = dbs.getDatabase1().users();
+    User u1 = users.create("bryand", 5);
+    User u2 = users.create("thomas", 7);
+    User u3 = users.create("emilyl", 9);
+
+    assertEquals(2, users.query().whereNumPosts(JackMatchers.lessThan(8)).setNumPosts(0).setBio("reset").update());
+    assertEquals(0, users.find(u1.getId()).getNumPosts());
+    assertEquals("reset", users.find(u1.getId()).getBio());
+    assertEquals(0, users.find(u2.getId()).getNumPosts());
+    assertEquals(9, users.find(u3.getId()).getNumPosts());
+    assertNull(users.find(u3.getId()).getBio());
+
+    assertEquals(1, users.query().handle("emilyl").setBio(null).setNumPosts(1).update());
+    assertEquals(1, users.find(u3.getId()).getNumPosts());
+    assertEquals(0, users.query().handle("nobody").setNumPosts(1).update());
+  }
+
+  public void testFetchSizeAndStreaming() throws IOException {
+    IUserPersistence users = dbs.getDatabase1().users();
+    User u1 = users.create("bryand", 5);
+    User u2 = users.create("thomas", 7);
+    users.create("emilyl", 9);
+
+    assertEquals(3, users.query().whereNumPosts(JackMatchers.greaterThan(0)).fetchSize(2).find().size());
+    assertEquals(Arrays.asList(u1, u2),
+        users.query().whereNumPosts(JackMatchers.lessThan(8)).orderByNumPosts().streaming().findWithOrder());
+
+    final List<User> visited = new ArrayList<User>();
+    users.query().whereNumPosts(JackMatchers.lessThan(10)).orderByNumPosts().forEach(new IModelPersistence.RecordVisitor<User>() {
+      @Override
+      public boolean visitRecord(User user) {
+        visited.add(user);
+        return visited.size() < 2;
+      }
+    });
+    // the read ended with the second record
+    assertEquals(Arrays.asList(u1, u2), visited);
+  }
+
   public void testCopyConstructor() {
     User orig = new User(1, "some_handle", 1L, 1, 1L, 1L, "bio", "bio".getBytes(), 1d, 2d, true);
     User copy = new User(orig);
@@ -1,12 +1,26 @@
 package com.rapleaf.jack;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.rapleaf.jack.test_project.DatabasesImpl;
 import com.rapleaf.jack.test_project.IDatabases;
+import com.rapleaf.jack.invalidation.InProcessInvalidationTransport;
+import com.rapleaf.jack.invalidation.InvalidationBus;
+import com.rapleaf.jack.queries.QueryOrder;
+import com.rapleaf.jack.queries.where_operators.JackMatchers;
 import com.rapleaf.jack.test_project.database_1.iface.ICommentPersistence;
+import com.rapleaf.jack.test_project.database_1.iface.IPostPersistence;
+import com.rapleaf.jack.test_project.database_1.iface.IUserPersistence;
 import com.rapleaf.jack.test_project.database_1.models.Comment;
+import com.rapleaf.jack.test_project.database_1.models.Post;
+import com.rapleaf.jack.test_project.database_1.models.User;
 
 /**
  * This test runs all test cases from the superclass on the real (not mock) models. Do no put any
@@ -59,5 +73,350 @@ public class TestAbstractDatabaseModel extends BaseDatabaseModelTestCase {
       dbs.getDatabase1().setAutoCommit(true);
     }
   }
-  
+
+  public void testReplicatedPersistence() throws Exception {
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    Comment c1 = comments.create("comment1", 1, 1, 1);
+    Comment c2 = comments.create("comment2", 1, 2, 1);
+    comments.enableReplication(60000);
+    try {
+      assertTrue(comments.isReplicated());
+      assertEquals(c1, comments.find(c1.getId()));
+      assertEquals(2, comments.findAllByForeignKey("commenter_id", 1).size());
+      assertEquals(Collections.singleton(c2), comments.query().whereCommentedOnId(JackMatchers.greaterThan(1L)).find());
+
+      // writes through the persistence are visible immediately
+      Comment c3 = comments.create("comment3", 1, 3, 1);
+      assertEquals(3, comments.findAllByForeignKey("commenter_id", 1).size());
+      comments.delete(c3);
+      assertNull(comments.find(c3.getId()));
+
+      // the copy holds what was saved, not later changes to the saved model
+      comments.save(c2.setContent("saved"));
+      c2.setContent("not saved");
+      assertEquals("saved", comments.find(c2.getId()).getContent());
+
+      // writes made in a transaction are applied when it commits, and dropped if it rolls back
+      dbs.getDatabase1().setAutoCommit(false);
+      try {
+        Comment c4 = comments.create("comment4", 1, 4, 1);
+        assertNull(comments.find(c4.getId()));
+        dbs.getDatabase1().rollback();
+        assertNull(comments.find(c4.getId()));
+
+        Comment c5 = comments.create("comment5", 1, 5, 1);
+        dbs.getDatabase1().commit();
+        assertEquals(c5, comments.find(c5.getId()));
+      } finally {
+        dbs.getDatabase1().setAutoCommit(true);
+      }
+    } finally {
+      comments.disableReplication();
+    }
+    assertFalse(comments.isReplicated());
+  }
+
+  public void testQueryCache() throws Exception {
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    comments.enableQueryCache(100, 0);
+    try {
+      Comment c1 = comments.create("comment1", 1, 1, 1);
+      assertEquals(Collections.singleton(c1), comments.query().commenterId(1).find());
+      assertEquals(Collections.singleton(c1), comments.query().commenterId(1).find());
+
+      // a write through the persistence invalidates the cached results
+      Comment c2 = comments.create("comment2", 1, 1, 1);
+      assertEquals(2, comments.query().commenterId(1).find().size());
+      assertEquals(Arrays.asList(c2, c1), comments.query().commenterId(1).orderById(QueryOrder.DESC).findWithOrder());
+    } finally {
+      comments.disableQueryCache();
+    }
+  }
+
+  public void testInMemoryQueriesOnCachedIds() throws Exception {
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    Comment c1 = comments.create("comment1", 1, 1, 1);
+    Set<Long> ids = Collections.singleton(c1.getId());
+    c1.setCommenterId(2);
+    assertTrue(comments.query().idIn(ids).commenterId(2).find().isEmpty());
+
+    // an unsaved change on the cached instance is only visible when the query is answered from the cache
+    comments.enableInMemoryQueries();
+    try {
+      assertEquals(Collections.singleton(c1), comments.query().idIn(ids).commenterId(2).find());
+    } finally {
+      comments.disableInMemoryQueries();
+    }
+  }
+
+  public void testRevalidation() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    IPostPersistence otherPosts = new DatabasesImpl(DATABASE_CONNECTION1).getDatabase1().posts();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    posts.enableRevalidation(500);
+    try {
+      assertEquals(0, posts.revalidate(Collections.singleton(post.getId())));
+      assertTrue(post == posts.find(post.getId()));
+
+      // updated_at may only keep whole seconds
+      Thread.sleep(1000);
+      assertTrue(post == posts.find(post.getId()));
+
+      // written behind the first persistence's back
+      Post otherPost = otherPosts.find(post.getId());
+      otherPosts.save(otherPost.setTitle("new title"));
+
+      // checked again once the last check is old enough
+      assertEquals("title", posts.find(post.getId()).getTitle());
+      Thread.sleep(600);
+      assertEquals("new title", posts.find(post.getId()).getTitle());
+
+      // with the identity map, the instance already handed out is updated
+      posts.enableIdentityMap(IdentityMap.ValueStrength.STRONG);
+      Post cached = posts.find(post.getId());
+      // updated_at may only keep whole seconds
+      Thread.sleep(1000);
+      otherPosts.save(otherPosts.find(post.getId()).setTitle("newer title"));
+      assertEquals(1, posts.revalidate(Collections.singleton(post.getId())));
+      assertTrue(cached == posts.find(post.getId()));
+      assertEquals("newer title", cached.getTitle());
+    } finally {
+      posts.disableIdentityMap();
+      posts.disableRevalidation();
+    }
+  }
+
+  public void testRefreshAhead() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    IPostPersistence otherPosts = new DatabasesImpl(DATABASE_CONNECTION1).getDatabase1().posts();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    posts.enableRefreshAhead(10);
+    try {
+      assertEquals("title", posts.find(post.getId()).getTitle());
+
+      Post otherPost = otherPosts.find(post.getId());
+      otherPosts.save(otherPost.setTitle("new title"));
+      Thread.sleep(20);
+
+      // the stale entry is still served while it is reloaded in the background
+      assertEquals("title", posts.find(post.getId()).getTitle());
+      for (int i = 0; i < 100 && !"new title".equals(posts.find(post.getId()).getTitle()); i++) {
+        Thread.sleep(10);
+      }
+      assertEquals("new title", posts.find(post.getId()).getTitle());
+    } finally {
+      posts.disableRefreshAhead();
+    }
+  }
+
+  public void testIdentityMap() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    posts.enableIdentityMap(IdentityMap.ValueStrength.WEAK);
+    try {
+      posts.clearCacheById(post.getId());
+      Post found = posts.find(post.getId());
+      assertTrue(found == posts.find(Collections.singleton(post.getId())).iterator().next());
+      assertTrue(found == posts.findAll().iterator().next());
+      assertTrue(found == posts.findAllByForeignKey("user_id", 1).iterator().next());
+
+      // an upserted copy updates the instance handed out
+      assertTrue(posts.upsert(new Post(post.getId(), "upserted", 1L, 1, 1000L, dbs)));
+      assertTrue(found == posts.find(post.getId()));
+      assertEquals("upserted", found.getTitle());
+
+      // so does a saved copy
+      assertTrue(posts.save(new Post(post.getId(), "saved", 1L, 1, 1000L, dbs)));
+      assertTrue(found == posts.find(post.getId()));
+      assertEquals("saved", found.getTitle());
+    } finally {
+      posts.disableIdentityMap();
+    }
+  }
+
+  public void testAdaptiveCaching() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    posts.enableAdaptiveCaching(new AdaptiveCachePolicy(10, 1, 0.5, 1.0));
+    try {
+      for (int i = 0; i < 5; i++) {
+        posts.save(post.setTitle("title " + i));
+      }
+      posts.find(post.getId());
+      Thread.sleep(20);
+      posts.find(post.getId());
+      assertFalse(posts.isCaching());
+      assertTrue(posts.getCacheStatistics().isBypassed());
+
+      for (int i = 0; i < 5; i++) {
+        posts.find(post.getId());
+      }
+      Thread.sleep(20);
+      posts.find(post.getId());
+      assertTrue(posts.isCaching());
+      assertEquals(1, posts.getCacheStatistics().getBypassCount());
+    } finally {
+      posts.disableAdaptiveCaching();
+    }
+  }
+
+  public void testBatching() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post first = posts.create("first", 1L, 1, 1000L);
+    Post second = posts.create("second", 1L, 1, 1000L);
+    posts.clearCacheById(first.getId());
+    posts.clearCacheById(second.getId());
+    posts.enableBatching(50, 100);
+    try {
+      ListenableFuture<Post> firstFound = posts.findAsync(first.getId());
+      ListenableFuture<Post> secondFound = posts.findAsync(second.getId());
+      ListenableFuture<Post> missing = posts.findAsync(second.getId() + 1);
+      assertEquals("first", firstFound.get().getTitle());
+      assertEquals("second", secondFound.get().getTitle());
+      assertNull(missing.get());
+      assertTrue(firstFound.get() == posts.find(first.getId()));
+    } finally {
+      posts.disableBatching();
+    }
+  }
+
+  public void testReadBatch() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    ICommentPersistence comments = dbs.getDatabase1().comments();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    comments.create("comment", 1, post.getId(), 0L);
+    posts.clearCacheById(post.getId());
+    comments.clearForeignKeyCache();
+
+    ReadBatch batch = dbs.getDatabase1().readBatch();
+    ReadBatch.Result<Post> foundPost = batch.find(posts, post.getId());
+    ReadBatch.Result<Set<Comment>> foundComments = batch.findAllByForeignKey(comments, "commented_on_id", post.getId());
+    ReadBatch.Result<List<Post>> titled = batch.findWithOrder(posts.query().title("title"));
+    assertEquals(3, batch.size());
+    batch.execute();
+
+    assertEquals("title", foundPost.get().getTitle());
+    assertEquals(1, foundComments.get().size());
+    assertEquals(1, titled.get().size());
+    assertTrue(foundPost.get() == posts.find(post.getId()));
+  }
+
+  public void testUnitOfWork() throws Exception {
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post post = posts.create("title", 1L, 1, 1000L);
+    Post deletedPost = posts.create("deleted", 1L, 1, 1000L);
+
+    UnitOfWork unitOfWork = dbs.getDatabase1().beginUnitOfWork();
+    posts.save(post.setTitle("first title"));
+    posts.save(post.setTitle("second title"));
+    posts.delete(deletedPost.getId());
+    assertEquals(2, unitOfWork.getPendingCount());
+    unitOfWork.commit();
+    assertEquals(0, unitOfWork.getPendingCount());
+
+    IPostPersistence otherPosts = new DatabasesImpl(DATABASE_CONNECTION1).getDatabase1().posts();
+    assertEquals("second title", otherPosts.find(post.getId()).getTitle());
+    assertNull(otherPosts.find(deletedPost.getId()));
+  }
+
+  public void testIdAllocator() throws Exception {
+    DatabaseConnection allocatorConn = new DatabaseConnection("database1");
+    allocatorConn.getStatement().execute("CREATE TABLE IF NOT EXISTS " + HiLoIdAllocator.DEFAULT_SEQUENCE_TABLE
+        + " (table_name VARCHAR(255) NOT NULL PRIMARY KEY, next_hi BIGINT NOT NULL)");
+    IPostPersistence posts = dbs.getDatabase1().posts();
+    Post existingPost = posts.create("existing", 1L, 1, 1000L);
+    dbs.getDatabase1().setIdAllocator(new HiLoIdAllocator(allocatorConn, 100));
+    try {
+      UnitOfWork unitOfWork = dbs.getDatabase1().beginUnitOfWork();
+      Post post1 = posts.create("post1", 1L, 1, 1000L);
+      Post post2 = posts.create("post2", 1L, 1, 1000L);
+      assertTrue(post1.getId() > existingPost.getId());
+      assertEquals(post1.getId() + 1, post2.getId());
+      assertEquals(2, unitOfWork.getPendingCount());
+      unitOfWork.commit();
+
+      IPostPersistence otherPosts = new DatabasesImpl(DATABASE_CONNECTION1).getDatabase1().posts();
+      assertEquals("post1", otherPosts.find(post1.getId()).getTitle());
+      assertEquals("post2", otherPosts.find(post2.getId()).getTitle());
+
+      // inserted with the updated_at it was given
+      Post post3 = posts.create("post3", 1L, 1, 1000L);
+      assertEquals(Long.valueOf(1000L), post3.getUpdatedAt());
+      assertEquals(Long.valueOf(1000L), otherPosts.find(post3.getId()).getUpdatedAt());
+    } finally {
+      dbs.getDatabase1().setIdAllocator(null);
+    }
+  }
+
+  public void testGroupCommit() throws Exception {
+    DatabaseConnection groupCommitConn = new DatabaseConnection("database1");
+    groupCommitConn.enableGroupCommit(10, 100);
+    try {
+      final IPostPersistence posts = new DatabasesImpl(groupCommitConn).getDatabase1().posts();
+      Thread[] threads = new Thread[5];
+      for (int i = 0; i < threads.length; i++) {
+        final String title = "post" + i;
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              posts.save(posts.create(title, 1L, 1, 1000L).setTitle(title + " saved"));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(threads.length, dbs.getDatabase1().posts().query().whereTitle(JackMatchers.endsWith(" saved")).find().size());
+    } finally {
+      groupCommitConn.disableGroupCommit();
+    }
+  }
+
+  public void testCounterBuffer() throws Exception {
+    File journalFile = File.createTempFile("counters", ".journal");
+    CounterBuffer buffer = new CounterBuffer(new DatabaseConnection("database1"), journalFile, 60000);
+    dbs.getDatabase1().setCounterBuffer(buffer);
+    try {
+      IUserPersistence users = dbs.getDatabase1().users();
+      User user = users.create("handle", 1);
+      users.incrementBuffered(user.getId(), User._Fields.num_posts, 2);
+      users.incrementBuffered(user.getId(), User._Fields.num_posts, 3);
+      assertEquals(1, users.find(user.getId()).getNumPosts());
+
+      buffer.flush();
+      assertEquals(6, users.find(user.getId()).getNumPosts());
+    } finally {
+      dbs.getDatabase1().setCounterBuffer(null);
+      buffer.close();
+      journalFile.delete();
+    }
+  }
+
+  public void testInvalidationBus() throws Exception {
+    IDatabases otherDbs = new DatabasesImpl(DATABASE_CONNECTION1);
+    InProcessInvalidationTransport transport = new InProcessInvalidationTransport();
+    dbs.getDatabase1().setInvalidationBus(new InvalidationBus(transport.connect()));
+    otherDbs.getDatabase1().setInvalidationBus(new InvalidationBus(transport.connect()));
+    try {
+      IPostPersistence posts = dbs.getDatabase1().posts();
+      IPostPersistence otherPosts = otherDbs.getDatabase1().posts();
+      Post post = posts.create("title", 1L, 1, 1000L);
+      assertEquals(1, posts.findAllByForeignKey("user_id", 1).size());
+
+      Post otherPost = otherPosts.find(post.getId());
+      otherPosts.save(otherPost.setTitle("new title"));
+      otherPosts.create("other title", 1L, 1, 1000L);
+
+      assertEquals("new title", posts.find(post.getId()).getTitle());
+      assertEquals(2, posts.findAllByForeignKey("user_id", 1).size());
+    } finally {
+      dbs.getDatabase1().setInvalidationBus(null);
+      otherDbs.getDatabase1().setInvalidationBus(null);
+    }
+  }
 }
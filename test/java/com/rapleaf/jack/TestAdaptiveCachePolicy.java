@@ -0,0 +1,51 @@
+package com.rapleaf.jack;
+
+import junit.framework.TestCase;
+
+public class TestAdaptiveCachePolicy extends TestCase {
+  private final AdaptiveCachePolicy policy = new AdaptiveCachePolicy(1000, 10, 0.5, 1.0);
+
+  public void testBypassesLowHitRate() {
+    CacheUsageTracker tracker = new CacheUsageTracker("users");
+    for (long id = 0; id < 20; id++) {
+      tracker.recordMiss(id);
+    }
+    tracker.recordHit();
+    assertFalse(policy.shouldCache(tracker.getStatistics(0)));
+  }
+
+  public void testBypassesWriteChurn() {
+    CacheUsageTracker tracker = new CacheUsageTracker("users");
+    tracker.recordHit();
+    tracker.recordHit();
+    for (int i = 0; i < 5; i++) {
+      tracker.recordWrite();
+    }
+    assertFalse(policy.shouldCache(tracker.getStatistics(0)));
+  }
+
+  public void testKeepsDecisionOnFewLookups() {
+    CacheUsageTracker tracker = new CacheUsageTracker("users");
+    tracker.recordMiss(1);
+    assertTrue(policy.shouldCache(tracker.getStatistics(0)));
+
+    tracker.startWindow(true);
+    tracker.recordMiss(1);
+    assertFalse(policy.shouldCache(tracker.getStatistics(0)));
+  }
+
+  public void testRepeatedLookupsWhileBypassedCountAsHits() {
+    CacheUsageTracker tracker = new CacheUsageTracker("users");
+    tracker.startWindow(true);
+    for (int i = 0; i < 10; i++) {
+      tracker.recordMiss(1);
+      tracker.recordMiss(2);
+    }
+    CacheStatistics statistics = tracker.getStatistics(0);
+    assertEquals(18, statistics.getHits());
+    assertEquals(2, statistics.getMisses());
+    assertTrue(statistics.isBypassed());
+    assertEquals(1, statistics.getBypassCount());
+    assertTrue(policy.shouldCache(statistics));
+  }
+}
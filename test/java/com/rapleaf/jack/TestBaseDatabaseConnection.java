@@ -0,0 +1,85 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.jack.invalidation.IInvalidationListener;
+import com.rapleaf.jack.invalidation.IInvalidationTransport;
+import com.rapleaf.jack.invalidation.InvalidationBus;
+import com.rapleaf.jack.invalidation.InvalidationEvent;
+
+public class TestBaseDatabaseConnection extends TestCase {
+
+  /**
+   * A connection that only keeps its autocommit mode.
+   */
+  private static class StubConnection extends BaseDatabaseConnection {
+    private boolean autoCommit = true;
+    private final Connection connection = (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class[]{Connection.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getAutoCommit")) {
+              return autoCommit;
+            } else if (method.getName().equals("setAutoCommit")) {
+              autoCommit = (Boolean)args[0];
+            }
+            return null;
+          }
+        });
+
+    @Override
+    public Connection getConnection() {
+      return connection;
+    }
+  }
+
+  private final List<InvalidationEvent> published = new ArrayList<InvalidationEvent>();
+  private final InvalidationBus bus = new InvalidationBus(new IInvalidationTransport() {
+    @Override
+    public void publish(InvalidationEvent event) {
+      published.add(event);
+    }
+
+    @Override
+    public void setListener(IInvalidationListener listener) {
+    }
+
+    @Override
+    public void close() {
+    }
+  });
+  private final StubConnection conn = new StubConnection();
+
+  public void testInvalidationsArePublishedRightAwayInAutocommit() throws IOException {
+    conn.publishOnCommit(bus, InvalidationEvent.forTable("source", "users"));
+    assertEquals(1, published.size());
+  }
+
+  public void testInvalidationsWaitForCommit() throws IOException {
+    conn.setAutoCommit(false);
+    conn.publishOnCommit(bus, InvalidationEvent.forTable("source", "users"));
+    assertEquals(0, published.size());
+    conn.commit();
+    assertEquals(1, published.size());
+
+    conn.publishOnCommit(bus, InvalidationEvent.forTable("source", "posts"));
+    conn.setAutoCommit(true);
+    assertEquals(2, published.size());
+  }
+
+  public void testInvalidationsAreDiscardedOnRollback() throws IOException {
+    conn.setAutoCommit(false);
+    conn.publishOnCommit(bus, InvalidationEvent.forTable("source", "users"));
+    conn.rollback();
+    conn.commit();
+    assertEquals(0, published.size());
+  }
+}
@@ -0,0 +1,52 @@
+package com.rapleaf.jack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestBlockIdAllocator extends TestCase {
+
+  private static class RecordingAllocator extends BlockIdAllocator {
+    private final List<String> allocatedBlocks = new ArrayList<String>();
+    private long nextStart = 1000;
+
+    private RecordingAllocator(int blockSize) {
+      super(blockSize);
+    }
+
+    @Override
+    protected long allocateBlock(String tableName, int blockSize) {
+      allocatedBlocks.add(tableName);
+      long start = nextStart;
+      nextStart += 10 * blockSize;
+      return start;
+    }
+  }
+
+  public void testIdsAreHandedOutFromBlocks() throws Exception {
+    RecordingAllocator allocator = new RecordingAllocator(3);
+    assertEquals(1000, allocator.allocateId("posts"));
+    assertEquals(1001, allocator.allocateId("posts"));
+    assertEquals(1002, allocator.allocateId("posts"));
+    assertEquals(1030, allocator.allocateId("posts"));
+    assertEquals(2, allocator.allocatedBlocks.size());
+  }
+
+  public void testTablesHaveSeparateBlocks() throws Exception {
+    RecordingAllocator allocator = new RecordingAllocator(5);
+    assertEquals(1000, allocator.allocateId("posts"));
+    assertEquals(1050, allocator.allocateId("users"));
+    assertEquals(1001, allocator.allocateId("posts"));
+    assertEquals(1051, allocator.allocateId("users"));
+  }
+
+  public void testBlockSizeMustBePositive() {
+    try {
+      new RecordingAllocator(0);
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
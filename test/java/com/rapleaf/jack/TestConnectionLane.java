@@ -0,0 +1,259 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.jack.test_project.database_1.impl.BaseCommentPersistenceImpl;
+
+public class TestConnectionLane extends TestCase {
+
+  /**
+   * A connection that records the statements prepared on it, and the
+   * dedicated connections made like it.
+   */
+  private static class Recorder extends BaseDatabaseConnection {
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Recorder> dedicated = new ArrayList<Recorder>();
+    private volatile boolean autoCommit = true;
+
+    @Override
+    public Connection getConnection() {
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("prepareStatement")) {
+                statements.add((String)args[0]);
+                return newStatement();
+              } else if (method.getName().equals("getAutoCommit")) {
+                return autoCommit;
+              } else if (method.getName().equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+              } else if (method.getName().equals("getMetaData")) {
+                return newMetaData();
+              }
+              return null;
+            }
+          });
+    }
+
+    @Override
+    protected BaseDatabaseConnection newDedicatedConnection() {
+      Recorder connection = new Recorder();
+      dedicated.add(connection);
+      return connection;
+    }
+
+    private static DatabaseMetaData newMetaData() {
+      return (DatabaseMetaData)Proxy.newProxyInstance(DatabaseMetaData.class.getClassLoader(), new Class[]{DatabaseMetaData.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("getIdentifierQuoteString")) {
+                return "`";
+              } else if (method.getName().equals("getDatabaseProductName")) {
+                return "MySQL";
+              }
+              return 5;
+            }
+          });
+    }
+
+    private static PreparedStatement newStatement() {
+      return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class[]{PreparedStatement.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              return null;
+            }
+          });
+    }
+  }
+
+  private final Recorder interactive = new Recorder();
+  private final Recorder batch1 = new Recorder();
+  private final Recorder batch2 = new Recorder();
+  private final ConnectionLane interactiveLane = new ConnectionLane("interactive", Arrays.asList(interactive), 0);
+  private final ConnectionLane batchLane = new ConnectionLane("batch", Arrays.asList(batch1, batch2), 0);
+
+  public void testConnectionIsGivenBackWhenStatementCloses() throws Exception {
+    final PreparedStatement stmt = interactiveLane.getPreparedStatement("SELECT 1");
+    assertRejected(interactiveLane, "SELECT 2");
+    stmt.close();
+
+    // another thread may now take it
+    runOnOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          interactiveLane.getPreparedStatement("SELECT 3").close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    assertEquals(Arrays.asList("SELECT 1", "SELECT 3"), interactive.statements);
+  }
+
+  public void testConnectionIsKeptForTransaction() throws Exception {
+    interactiveLane.setAutoCommit(false);
+    interactiveLane.getPreparedStatement("UPDATE 1").close();
+    assertRejected(interactiveLane, "SELECT 1");
+
+    interactiveLane.commit();
+    // still in the transaction
+    assertRejected(interactiveLane, "SELECT 2");
+
+    interactiveLane.setAutoCommit(true);
+    assertTrue(interactiveLane.getAutoCommit());
+    runOnOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          interactiveLane.getPreparedStatement("SELECT 3").close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    assertEquals(Arrays.asList("UPDATE 1", "SELECT 3"), interactive.statements);
+  }
+
+  public void testFullLaneRejectsBeyondQueueLimit() throws Exception {
+    final CountDownLatch leased = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread holder = new Thread() {
+      @Override
+      public void run() {
+        try {
+          PreparedStatement stmt = interactiveLane.getPreparedStatement("SELECT 1");
+          leased.countDown();
+          done.await();
+          stmt.close();
+        } catch (Exception e) {
+        }
+      }
+    };
+    holder.start();
+    assertTrue(leased.await(5, TimeUnit.SECONDS));
+
+    assertRejected(interactiveLane, "SELECT 2");
+
+    done.countDown();
+    holder.join();
+    interactiveLane.getPreparedStatement("SELECT 3").close();
+    assertEquals(Arrays.asList("SELECT 1", "SELECT 3"), interactive.statements);
+  }
+
+  public void testWaitingThreadGetsConnectionOnClose() throws Exception {
+    ConnectionLane lane = new ConnectionLane("interactive", Arrays.asList(interactive), 1);
+    final PreparedStatement stmt = lane.getPreparedStatement("SELECT 1");
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          stmt.close();
+        } catch (Exception e) {
+        }
+      }
+    }.start();
+    lane.getPreparedStatement("SELECT 2").close();
+    assertEquals(Arrays.asList("SELECT 1", "SELECT 2"), interactive.statements);
+  }
+
+  public void testLanedConnectionUsesDefaultLaneOutsideOnLane() throws Exception {
+    final LanedDatabaseConnection laned = new LanedDatabaseConnection(Arrays.asList(interactiveLane, batchLane));
+    laned.getPreparedStatement("SELECT 1").close();
+    laned.onLane("batch", new ConnectionLane.Operation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        try {
+          laned.getPreparedStatement("SELECT 2").close();
+        } catch (Exception e) {
+          throw new IOException(e);
+        }
+        return null;
+      }
+    });
+    laned.getPreparedStatement("SELECT 3").close();
+
+    assertEquals(Arrays.asList("SELECT 1", "SELECT 3"), interactive.statements);
+    assertEquals(Arrays.asList("SELECT 2"), batch1.statements);
+  }
+
+  public void testLanedConnectionWithNamedDefaultLane() throws Exception {
+    LanedDatabaseConnection laned = new LanedDatabaseConnection(Arrays.asList(interactiveLane, batchLane), "batch");
+    laned.getPreparedStatement("SELECT 1").close();
+    assertEquals(Arrays.asList("SELECT 1"), batch1.statements);
+    assertTrue(interactive.statements.isEmpty());
+  }
+
+  public void testPersistenceGivesBackConnectionAfterReadingMetaData() throws Exception {
+    LanedDatabaseConnection laned = new LanedDatabaseConnection(Arrays.asList(interactiveLane, batchLane));
+    new BaseCommentPersistenceImpl(laned, null);
+
+    // another thread may take the only connection of the lane
+    runOnOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          interactiveLane.getPreparedStatement("SELECT 1").close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    assertEquals(Arrays.asList("SELECT 1"), interactive.statements);
+  }
+
+  public void testDedicatedConnectionIsMadeForLaneOfThread() throws Exception {
+    final LanedDatabaseConnection laned = new LanedDatabaseConnection(Arrays.asList(interactiveLane, batchLane));
+    laned.newDedicatedConnection();
+    laned.onLane("batch", new ConnectionLane.Operation<Void>() {
+      @Override
+      public Void run() {
+        laned.newDedicatedConnection();
+        return null;
+      }
+    });
+
+    assertEquals(1, interactive.dedicated.size());
+    assertEquals(1, batch1.dedicated.size());
+  }
+
+  private static void assertRejected(final ConnectionLane lane, final String statement) throws InterruptedException {
+    final boolean[] rejected = new boolean[1];
+    runOnOtherThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          lane.getPreparedStatement(statement);
+        } catch (RejectedExecutionException e) {
+          rejected[0] = true;
+        }
+      }
+    });
+    assertTrue("The lane should be full", rejected[0]);
+  }
+
+  private static void runOnOtherThread(Runnable runnable) throws InterruptedException {
+    Thread thread = new Thread(runnable);
+    thread.start();
+    thread.join();
+  }
+}
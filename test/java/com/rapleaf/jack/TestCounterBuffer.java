@@ -0,0 +1,189 @@
+package com.rapleaf.jack;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.jack.invalidation.IInvalidationListener;
+import com.rapleaf.jack.invalidation.InvalidationEvent;
+
+public class TestCounterBuffer extends TestCase {
+
+  // "sql: delta id" for every batched update
+  private final List<String> updates = new ArrayList<String>();
+  private boolean failing = false;
+  private File journalFile;
+
+  private final BaseDatabaseConnection conn = new BaseDatabaseConnection() {
+    @Override
+    public Connection getConnection() {
+      return proxy(Connection.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+          if (method.getName().equals("getMetaData")) {
+            return proxy(DatabaseMetaData.class, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                return "`";
+              }
+            });
+          }
+          if (method.getName().equals("prepareStatement")) {
+            return statement((String)args[0]);
+          }
+          return null;
+        }
+      });
+    }
+  };
+
+  private PreparedStatement statement(final String sql) {
+    final List<Object> parameters = new ArrayList<Object>();
+    return proxy(PreparedStatement.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        if (name.equals("setLong")) {
+          parameters.add(args[1]);
+        } else if (name.equals("addBatch")) {
+          updates.add(sql + ": " + parameters.get(0) + " " + parameters.get(1));
+          parameters.clear();
+        } else if (name.equals("executeBatch")) {
+          if (failing) {
+            throw new java.sql.SQLException("connection lost");
+          }
+          return new int[0];
+        }
+        return null;
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    journalFile = File.createTempFile("counters", ".journal");
+    journalFile.delete();
+  }
+
+  @Override
+  public void tearDown() {
+    journalFile.delete();
+  }
+
+  public void testIncrementsAreCombinedPerRecord() throws Exception {
+    CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000);
+    final List<Long> evictedIds = new ArrayList<Long>();
+    buffer.subscribe("users", new IInvalidationListener() {
+      @Override
+      public void onInvalidation(InvalidationEvent event) {
+        evictedIds.add(event.getId());
+      }
+    });
+    buffer.increment("users", "num_posts", 1, 2);
+    buffer.increment("users", "num_posts", 1, 3);
+    buffer.increment("users", "num_posts", 2, 1);
+    assertEquals(5, buffer.getPendingDelta("users", "num_posts", 1));
+    assertTrue(updates.isEmpty());
+
+    buffer.flush();
+    assertEquals(2, updates.size());
+    assertEquals("UPDATE users SET `num_posts` = COALESCE(`num_posts`, 0) + ? WHERE id = ?: 5 1", updates.get(0));
+    assertEquals(0, buffer.getPendingCount());
+    assertEquals(2, evictedIds.size());
+    assertEquals(0, journalFile.length());
+    buffer.close();
+  }
+
+  public void testFailedFlushKeepsIncrements() throws Exception {
+    CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000);
+    buffer.increment("users", "num_posts", 1, 2);
+    failing = true;
+    try {
+      buffer.flush();
+      fail("should have thrown");
+    } catch (java.io.IOException e) {
+      // expected
+    }
+    buffer.increment("users", "num_posts", 1, 1);
+    assertEquals(3, buffer.getPendingDelta("users", "num_posts", 1));
+    failing = false;
+    updates.clear();
+    buffer.close();
+    assertEquals(1, updates.size());
+    assertTrue(updates.get(0).endsWith(": 3 1"));
+  }
+
+  public void testConcurrentIncrementsAreAllJournaled() throws Exception {
+    final CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000);
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 50; j++) {
+              buffer.increment("users", "num_posts", 1, 1);
+            }
+          } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(200, buffer.getPendingDelta("users", "num_posts", 1));
+    // every line is in the journal, to be replayed after a crash
+    assertEquals(200 * "users\tnum_posts\t1\t1\n".length(), journalFile.length());
+    buffer.close();
+  }
+
+  public void testPeriodicSyncStillJournalsEveryIncrement() throws Exception {
+    CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000, 50);
+    buffer.increment("users", "num_posts", 1, 2);
+    assertEquals("users\tnum_posts\t1\t2\n".length(), journalFile.length());
+    Thread.sleep(100);
+    buffer.close();
+    assertTrue(updates.get(0).endsWith(": 2 1"));
+  }
+
+  public void testJournalIsReplayed() throws Exception {
+    FileWriter writer = new FileWriter(journalFile);
+    writer.write("users\tnum_posts\t1\t2\nusers\tnum_posts\t1\t4\nusers\tnum_po");
+    writer.close();
+
+    CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000);
+    assertEquals(1, updates.size());
+    assertTrue(updates.get(0).endsWith(": 6 1"));
+    assertEquals(0, journalFile.length());
+    buffer.close();
+  }
+
+  public void testLineWithoutNewlineIsIgnored() throws Exception {
+    // the delta of the last line may have been cut from 40 to 4
+    FileWriter writer = new FileWriter(journalFile);
+    writer.write("users\tnum_posts\t1\t2\nusers\tnum_posts\t1\t4");
+    writer.close();
+
+    CounterBuffer buffer = new CounterBuffer(conn, journalFile, 60000);
+    assertEquals(1, updates.size());
+    assertTrue(updates.get(0).endsWith(": 2 1"));
+    buffer.close();
+  }
+}
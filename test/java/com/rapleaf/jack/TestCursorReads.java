@@ -0,0 +1,139 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.jack.test_project.database_1.impl.BaseCommentPersistenceImpl;
+import com.rapleaf.jack.test_project.database_1.models.Comment;
+
+public class TestCursorReads extends TestCase {
+
+  /**
+   * A PostgreSQL connection on which every query is empty, and which
+   * records the dedicated connections made like it and whether they were
+   * closed.
+   */
+  private static class StubConnection extends BaseDatabaseConnection {
+    private final List<StubConnection> dedicated = new ArrayList<StubConnection>();
+    private boolean autoCommit = true;
+    private boolean rolledBack = false;
+    private boolean discarded = false;
+
+    @Override
+    public Connection getConnection() {
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if (name.equals("prepareStatement")) {
+                return newStatement();
+              } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+              } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+              } else if (name.equals("rollback")) {
+                rolledBack = true;
+              } else if (name.equals("getMetaData")) {
+                return newMetaData();
+              }
+              return null;
+            }
+          });
+    }
+
+    @Override
+    void discardConnection() {
+      discarded = true;
+    }
+
+    @Override
+    protected BaseDatabaseConnection newDedicatedConnection() {
+      StubConnection connection = new StubConnection();
+      dedicated.add(connection);
+      return connection;
+    }
+
+    private static DatabaseMetaData newMetaData() {
+      return (DatabaseMetaData)Proxy.newProxyInstance(DatabaseMetaData.class.getClassLoader(), new Class[]{DatabaseMetaData.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("getIdentifierQuoteString")) {
+                return "\"";
+              } else if (method.getName().equals("getDatabaseProductName")) {
+                return "PostgreSQL";
+              }
+              return 10;
+            }
+          });
+    }
+
+    private static PreparedStatement newStatement() {
+      return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class[]{PreparedStatement.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("executeQuery")) {
+                return newResultSet();
+              }
+              return null;
+            }
+          });
+    }
+
+    private static ResultSet newResultSet() {
+      return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[]{ResultSet.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              return method.getName().equals("next") ? false : null;
+            }
+          });
+    }
+  }
+
+  private static final IModelPersistence.RecordVisitor<Comment> NO_OP = new IModelPersistence.RecordVisitor<Comment>() {
+    @Override
+    public boolean visitRecord(Comment record) {
+      return true;
+    }
+  };
+
+  public void testCursorConnectionIsKeptBetweenReads() throws Exception {
+    StubConnection conn = new StubConnection();
+    BaseCommentPersistenceImpl comments = new BaseCommentPersistenceImpl(conn, null);
+
+    comments.findAllStreaming("commenter_id = 1", NO_OP);
+    comments.findAllStreaming("commenter_id = 2", NO_OP);
+    comments.findAll("commenter_id = 3", 100);
+
+    assertEquals(1, conn.dedicated.size());
+    StubConnection cursorConn = conn.dedicated.get(0);
+    // each read ended its transaction, and the connection waits for the next
+    assertTrue(cursorConn.rolledBack);
+    assertTrue(cursorConn.autoCommit);
+    assertFalse(cursorConn.discarded);
+    // the connection of the persistence never left autocommit mode
+    assertTrue(conn.autoCommit);
+  }
+
+  public void testReadsInTransactionUseConnectionOfPersistence() throws Exception {
+    StubConnection conn = new StubConnection();
+    BaseCommentPersistenceImpl comments = new BaseCommentPersistenceImpl(conn, null);
+
+    conn.setAutoCommit(false);
+    comments.findAllStreaming("commenter_id = 1", NO_OP);
+
+    assertTrue(conn.dedicated.isEmpty());
+  }
+}
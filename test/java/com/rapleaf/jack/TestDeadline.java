@@ -0,0 +1,69 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.SQLTimeoutException;
+
+import junit.framework.TestCase;
+
+public class TestDeadline extends TestCase {
+
+  public void testNoDeadline() throws SQLTimeoutException {
+    assertEquals(Long.MAX_VALUE, Deadline.getRemainingMillis());
+    assertEquals(0, Deadline.getQueryTimeoutSeconds());
+  }
+
+  public void testTimeoutIsRoundedUpToSeconds() throws IOException {
+    Deadline.within(1500, new Deadline.Operation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        assertTrue(Deadline.getRemainingMillis() <= 1500);
+        try {
+          assertEquals(2, Deadline.getQueryTimeoutSeconds());
+        } catch (SQLTimeoutException e) {
+          fail("The deadline has not passed");
+        }
+        return null;
+      }
+    });
+    assertEquals(Long.MAX_VALUE, Deadline.getRemainingMillis());
+  }
+
+  public void testInnerDeadlineCannotExtendOuterOne() throws IOException {
+    Deadline.within(1000, new Deadline.Operation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        Deadline.within(60000, new Deadline.Operation<Void>() {
+          @Override
+          public Void run() throws IOException {
+            assertTrue(Deadline.getRemainingMillis() <= 1000);
+            return null;
+          }
+        });
+        Deadline.within(0, new Deadline.Operation<Void>() {
+          @Override
+          public Void run() throws IOException {
+            assertTrue(Deadline.getRemainingMillis() <= 0);
+            return null;
+          }
+        });
+        // the outer deadline is back
+        assertTrue(Deadline.getRemainingMillis() > 0);
+        return null;
+      }
+    });
+  }
+
+  public void testPassedDeadlineFailsFast() throws IOException {
+    Deadline.within(0, new Deadline.Operation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        try {
+          Deadline.getQueryTimeoutSeconds();
+          fail("The deadline has passed");
+        } catch (SQLTimeoutException e) {
+        }
+        return null;
+      }
+    });
+  }
+}
@@ -0,0 +1,156 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import junit.framework.TestCase;
+
+public class TestFindBatcher extends TestCase {
+  private final List<Set<Long>> batches = new ArrayList<Set<Long>>();
+
+  private final FindBatcher.BatchLoader<String> loader = new FindBatcher.BatchLoader<String>() {
+    @Override
+    public Map<Long, String> load(Set<Long> ids, String lane) throws IOException {
+      synchronized (batches) {
+        batches.add(new HashSet<Long>(ids));
+      }
+      Map<Long, String> models = new HashMap<Long, String>();
+      for (Long id : ids) {
+        if (id > 0) {
+          models.put(id, "model " + id);
+        }
+      }
+      return models;
+    }
+  };
+
+  public void testLoadsWindowInOneBatch() throws Exception {
+    FindBatcher<String> batcher = new FindBatcher<String>("test", 50, 100, loader);
+    try {
+      ListenableFuture<String> first = batcher.submit(1);
+      ListenableFuture<String> second = batcher.submit(2);
+      ListenableFuture<String> missing = batcher.submit(-1);
+      assertSame(first, batcher.submit(1));
+
+      assertEquals("model 1", first.get(1, TimeUnit.SECONDS));
+      assertEquals("model 2", second.get(1, TimeUnit.SECONDS));
+      assertNull(missing.get(1, TimeUnit.SECONDS));
+      assertEquals(1, batches.size());
+      assertEquals(3, batches.get(0).size());
+    } finally {
+      batcher.close();
+    }
+  }
+
+  public void testFullBatchIsLoadedImmediately() throws Exception {
+    FindBatcher<String> batcher = new FindBatcher<String>("test", 60 * 1000, 2, loader);
+    try {
+      ListenableFuture<String> first = batcher.submit(1);
+      ListenableFuture<String> second = batcher.submit(2);
+      assertEquals("model 1", first.get(1, TimeUnit.SECONDS));
+      assertEquals("model 2", second.get(1, TimeUnit.SECONDS));
+    } finally {
+      batcher.close();
+    }
+  }
+
+  public void testLanesAreLoadedSeparately() throws Exception {
+    final Map<String, Set<Long>> lanes = new HashMap<String, Set<Long>>();
+    FindBatcher<String> batcher = new FindBatcher<String>("test", 50, 100, new FindBatcher.BatchLoader<String>() {
+      @Override
+      public Map<Long, String> load(Set<Long> ids, String lane) throws IOException {
+        synchronized (lanes) {
+          lanes.put(lane, new HashSet<Long>(ids));
+        }
+        return loader.load(ids, lane);
+      }
+    });
+    try {
+      ListenableFuture<String> first = batcher.submit(1, "requests");
+      ListenableFuture<String> second = batcher.submit(2, "batch");
+      assertEquals("model 1", first.get(1, TimeUnit.SECONDS));
+      assertEquals("model 2", second.get(1, TimeUnit.SECONDS));
+      assertEquals(Collections.singleton(1L), lanes.get("requests"));
+      assertEquals(Collections.singleton(2L), lanes.get("batch"));
+    } finally {
+      batcher.close();
+    }
+  }
+
+  public void testBatchRunsWithDeadlineOfCallers() throws Exception {
+    final List<Long> remaining = new ArrayList<Long>();
+    final FindBatcher<String> batcher = new FindBatcher<String>("test", 50, 100, new FindBatcher.BatchLoader<String>() {
+      @Override
+      public Map<Long, String> load(Set<Long> ids, String lane) throws IOException {
+        remaining.add(Deadline.getRemainingMillis());
+        return loader.load(ids, lane);
+      }
+    });
+    try {
+      assertEquals("model 1", Deadline.within(10000, new Deadline.Operation<String>() {
+        @Override
+        public String run() throws IOException {
+          return batcher.get(1);
+        }
+      }));
+      assertTrue(remaining.get(0) > 0 && remaining.get(0) <= 10000);
+
+      // a caller stops waiting at its deadline
+      try {
+        Deadline.within(10, new Deadline.Operation<String>() {
+          @Override
+          public String run() throws IOException {
+            return batcher.get(2);
+          }
+        });
+        fail("should have timed out");
+      } catch (IOException e) {
+        assertTrue(e.getCause() instanceof SQLTimeoutException);
+      }
+    } finally {
+      batcher.close();
+    }
+  }
+
+  public void testSubmitAfterCloseFails() throws Exception {
+    FindBatcher<String> batcher = new FindBatcher<String>("test", 50, 100, loader);
+    batcher.close();
+    ListenableFuture<String> future = batcher.submit(1);
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail("should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    // the rejected batch is not left pending
+    assertNotSame(future, batcher.submit(1));
+  }
+
+  public void testFailureIsPropagated() throws Exception {
+    FindBatcher<String> batcher = new FindBatcher<String>("test", 0, 100, new FindBatcher.BatchLoader<String>() {
+      @Override
+      public Map<Long, String> load(Set<Long> ids, String lane) throws IOException {
+        throw new IOException("failed");
+      }
+    });
+    try {
+      batcher.get(1);
+      fail("should have thrown");
+    } catch (IOException e) {
+      assertEquals("failed", e.getCause().getMessage());
+    } finally {
+      batcher.close();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import junit.framework.TestCase;
+
+public class TestGroupCommitExecutor extends TestCase {
+
+  private final AtomicInteger commits = new AtomicInteger();
+  private final AtomicInteger rollbacks = new AtomicInteger();
+
+  private final BaseDatabaseConnection conn = newConnection();
+
+  private BaseDatabaseConnection newConnection() {
+    return new BaseDatabaseConnection() {
+      private final Connection connection = (Connection)Proxy.newProxyInstance(
+          Connection.class.getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+            private boolean autoCommit = true;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+              } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+              } else if (name.equals("commit")) {
+                commits.incrementAndGet();
+              } else if (name.equals("rollback")) {
+                rollbacks.incrementAndGet();
+              }
+              return null;
+            }
+          });
+
+      @Override
+      public Connection getConnection() {
+        return connection;
+      }
+    };
+  }
+
+  private static GroupCommitExecutor.Write<Integer> write(final int result) {
+    return new GroupCommitExecutor.Write<Integer>() {
+      @Override
+      public Integer execute() {
+        return result;
+      }
+    };
+  }
+
+  public void testWritesAreCommittedTogether() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(conn, 1000, 5);
+    List<ListenableFuture<Integer>> futures = new ArrayList<ListenableFuture<Integer>>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(executor.submit(write(i)));
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), futures.get(i).get());
+    }
+    assertEquals(1, commits.get());
+    assertTrue(conn.getAutoCommit());
+    executor.close();
+  }
+
+  public void testFailedWriteDoesNotFailItsGroup() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(conn, 1000, 3);
+    ListenableFuture<Integer> first = executor.submit(write(1));
+    ListenableFuture<Integer> failed = executor.submit(new GroupCommitExecutor.Write<Integer>() {
+      @Override
+      public Integer execute() throws SQLException {
+        throw new SQLException("duplicate key");
+      }
+    });
+    ListenableFuture<Integer> last = executor.submit(write(3));
+
+    assertEquals(Integer.valueOf(1), first.get());
+    assertEquals(Integer.valueOf(3), last.get());
+    try {
+      failed.get();
+      fail("should have thrown");
+    } catch (ExecutionException e) {
+      assertEquals("duplicate key", e.getCause().getMessage());
+    }
+    assertEquals(1, rollbacks.get());
+    assertEquals(1, commits.get());
+    executor.close();
+  }
+
+  public void testLingerTimeEndsGroup() throws Exception {
+    GroupCommitExecutor executor = new GroupCommitExecutor(conn, 10, 100);
+    assertEquals(Integer.valueOf(7), executor.execute(write(7)));
+    assertEquals(1, commits.get());
+    executor.close();
+  }
+
+  public void testOnlyGroupThreadUsesGroupConnection() throws Exception {
+    final GroupCommitExecutor executor = new GroupCommitExecutor(conn, 10, 100);
+    assertFalse(executor.isRunningGroup());
+    assertTrue(executor.execute(new GroupCommitExecutor.Write<Boolean>() {
+      @Override
+      public Boolean execute() {
+        return executor.isRunningGroup();
+      }
+    }));
+    executor.close();
+  }
+
+  public void testGroupConnectionMustBeDedicated() {
+    try {
+      conn.enableGroupCommit(conn, 10, 100);
+      fail("should have thrown");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testTransactionsAreRefusedInGroupCommitMode() {
+    conn.enableGroupCommit(newConnection(), 10, 100);
+    try {
+      conn.setAutoCommit(false);
+      fail("should have thrown");
+    } catch (IllegalStateException e) {
+      // expected
+    } finally {
+      conn.disableGroupCommit();
+    }
+    conn.setAutoCommit(false);
+  }
+}
@@ -0,0 +1,147 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestHedgedStatement extends TestCase {
+
+  /**
+   * A connection whose queries take latencyMillis, or fail right away, and
+   * return a result set named after the connection.
+   */
+  private static class Replica implements InvocationHandler {
+    private final String name;
+    private final long latencyMillis;
+    private final boolean failing;
+    private final AtomicInteger prepared = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final List<Object> parameters = Collections.synchronizedList(new ArrayList<Object>());
+
+    private Replica(String name, long latencyMillis, boolean failing) {
+      this.name = name;
+      this.latencyMillis = latencyMillis;
+      this.failing = failing;
+    }
+
+    private Connection connection() {
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("prepareStatement")) {
+        prepared.incrementAndGet();
+        return statement();
+      }
+      return null;
+    }
+
+    private PreparedStatement statement() {
+      final CountDownLatch cancel = new CountDownLatch(1);
+      return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+          new Class[]{PreparedStatement.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+              String methodName = method.getName();
+              if (methodName.equals("executeQuery")) {
+                if (failing) {
+                  throw new SQLException(name + " failed");
+                }
+                if (cancel.await(latencyMillis, TimeUnit.MILLISECONDS)) {
+                  throw new SQLException(name + " cancelled");
+                }
+                return resultSet(name);
+              } else if (methodName.equals("setLong")) {
+                parameters.add(args[1]);
+              } else if (methodName.equals("cancel")) {
+                cancelled.incrementAndGet();
+                cancel.countDown();
+              } else if (methodName.equals("close")) {
+                closed.incrementAndGet();
+              }
+              return null;
+            }
+          });
+    }
+  }
+
+  private static ResultSet resultSet(final String name) {
+    return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[]{ResultSet.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("getString") ? name : null;
+          }
+        });
+  }
+
+  private static String query(PreparedStatement stmt) throws SQLException {
+    stmt.setLong(1, 42L);
+    return stmt.executeQuery().getString(1);
+  }
+
+  public void testFastReadIsNotHedged() throws Exception {
+    Replica first = new Replica("first", 0, false);
+    Replica second = new Replica("second", 0, false);
+    PreparedStatement stmt = HedgedStatement.create(first.connection(), second.connection(), "SELECT 1", new HedgingPolicy(95, 1000));
+
+    assertEquals("first", query(stmt));
+    assertEquals(0, second.prepared.get());
+    assertEquals(0, first.cancelled.get());
+  }
+
+  public void testSlowReadIsHedged() throws Exception {
+    Replica first = new Replica("first", 10000, false);
+    Replica second = new Replica("second", 0, false);
+    PreparedStatement stmt = HedgedStatement.create(first.connection(), second.connection(), "SELECT 1", new HedgingPolicy(95, 20));
+
+    long start = System.currentTimeMillis();
+    assertEquals("second", query(stmt));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    // the parameters are replayed on the second replica
+    assertEquals(Collections.<Object>singletonList(42L), second.parameters);
+    assertEquals(1, first.cancelled.get());
+
+    stmt.close();
+    assertEquals(1, second.closed.get());
+  }
+
+  public void testFailedReadIsNotHedged() throws Exception {
+    Replica first = new Replica("first", 0, true);
+    Replica second = new Replica("second", 0, false);
+    PreparedStatement stmt = HedgedStatement.create(first.connection(), second.connection(), "SELECT 1", new HedgingPolicy(95, 1000));
+
+    try {
+      query(stmt);
+      fail("The failure should be thrown");
+    } catch (SQLException e) {
+      assertEquals("first failed", e.getMessage());
+    }
+    assertEquals(0, second.prepared.get());
+  }
+
+  public void testFailedHedgeWaitsForFirstRead() throws Exception {
+    Replica first = new Replica("first", 200, false);
+    Replica second = new Replica("second", 0, true);
+    PreparedStatement stmt = HedgedStatement.create(first.connection(), second.connection(), "SELECT 1", new HedgingPolicy(95, 20));
+
+    assertEquals("first", query(stmt));
+    assertEquals(1, second.prepared.get());
+    assertEquals(1, second.closed.get());
+    assertEquals(0, first.cancelled.get());
+  }
+}
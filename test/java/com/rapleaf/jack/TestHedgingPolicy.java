@@ -0,0 +1,40 @@
+package com.rapleaf.jack;
+
+import junit.framework.TestCase;
+
+public class TestHedgingPolicy extends TestCase {
+
+  public void testMinimumDelayBeforeAnyLatency() {
+    assertEquals(15, new HedgingPolicy(95, 15).getDelayMillis());
+  }
+
+  public void testDelayIsPercentileOfRecentLatencies() {
+    HedgingPolicy policy = new HedgingPolicy(90, 1, 100);
+    for (int i = 1; i <= 100; i++) {
+      policy.recordLatency(i);
+    }
+    assertEquals(90, policy.getDelayMillis());
+
+    // only the last 100 latencies count
+    for (int i = 0; i < 100; i++) {
+      policy.recordLatency(5);
+    }
+    assertEquals(5, policy.getDelayMillis());
+  }
+
+  public void testDelayIsNeverBelowMinimum() {
+    HedgingPolicy policy = new HedgingPolicy(50, 10, 100);
+    for (int i = 0; i < 100; i++) {
+      policy.recordLatency(2);
+    }
+    assertEquals(10, policy.getDelayMillis());
+  }
+
+  public void testInvalidPercentile() {
+    try {
+      new HedgingPolicy(0, 10);
+      fail("A percentile of 0 should be rejected");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+}
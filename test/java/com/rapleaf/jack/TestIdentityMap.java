@@ -0,0 +1,51 @@
+package com.rapleaf.jack;
+
+import junit.framework.TestCase;
+
+public class TestIdentityMap extends TestCase {
+
+  public void testNullValues() {
+    IdentityMap<String> map = new IdentityMap<String>();
+    map.put(1L, null);
+    assertTrue(map.containsKey(1L));
+    assertNull(map.get(1L));
+    assertFalse(map.containsKey(2L));
+
+    assertEquals("value", map.canonicalize(1L, "value"));
+    assertEquals("value", map.get(1L));
+  }
+
+  public void testCanonicalize() {
+    IdentityMap<String> map = new IdentityMap<String>();
+    String first = new String("value");
+    assertSame(first, map.canonicalize(1L, first));
+    assertSame(first, map.canonicalize(1L, new String("value")));
+    assertSame(first, map.canonicalize(1L, null));
+  }
+
+  public void testSetValueStrengthKeepsEntries() {
+    IdentityMap<String> map = new IdentityMap<String>();
+    String value = "value";
+    map.put(1L, value);
+    map.put(2L, null);
+    map.setValueStrength(IdentityMap.ValueStrength.WEAK);
+    assertSame(value, map.get(1L));
+    assertTrue(map.containsKey(2L));
+  }
+
+  public void testWeakValuesAreReclaimed() throws Exception {
+    IdentityMap<Object> map = new IdentityMap<Object>(IdentityMap.ValueStrength.WEAK);
+    Object held = new Object();
+    map.put(1L, held);
+    map.put(2L, new Object());
+    map.put(3L, null);
+    for (int i = 0; i < 50 && map.get(2L) != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(map.get(2L));
+    assertFalse(map.containsKey(2L));
+    assertSame(held, map.get(1L));
+    assertTrue(map.containsKey(3L));
+  }
+}
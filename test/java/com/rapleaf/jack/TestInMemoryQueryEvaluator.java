@@ -0,0 +1,53 @@
+package com.rapleaf.jack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.jack.queries.InMemoryQueryEvaluator;
+import com.rapleaf.jack.queries.OrderCriterion;
+import com.rapleaf.jack.queries.QueryOrder;
+import com.rapleaf.jack.queries.where_operators.Match;
+import com.rapleaf.jack.test_project.database_1.models.User;
+
+public class TestInMemoryQueryEvaluator extends TestCase {
+
+  private final User u1 = new User(1, "a", 10L, 0, null, null, null, null, null, null, null);
+  private final User u2 = new User(2, "b", null, 0, null, null, null, null, null, null, null);
+  private final User u3 = new User(3, "c", 5L, 0, null, null, null, null, null, null, null);
+
+  public void testNullsSortFirstInMySql() {
+    assertEquals(Arrays.asList(u2, u3, u1), sorted(QueryOrder.ASC, false));
+    assertEquals(Arrays.asList(u1, u3, u2), sorted(QueryOrder.DESC, false));
+  }
+
+  public void testNullsSortLastInPostgres() {
+    assertEquals(Arrays.asList(u3, u1, u2), sorted(QueryOrder.ASC, true));
+    assertEquals(Arrays.asList(u2, u1, u3), sorted(QueryOrder.DESC, true));
+  }
+
+  public void testLikePatterns() {
+    assertTrue(new Match("a%c").apply("abbc"));
+    assertTrue(new Match("a_c").apply("abc"));
+    assertFalse(new Match("a_c").apply("abbc"));
+    assertTrue(new Match("%").apply("line\nbreak"));
+    // regular expression characters only match themselves
+    assertTrue(new Match("a.c%").apply("a.cd"));
+    assertFalse(new Match("a.c").apply("abc"));
+    assertTrue(new Match("(a+)").apply("(a+)"));
+    assertTrue(new Match("100\\%").apply("100%"));
+    assertFalse(new Match("100\\%").apply("1000"));
+    assertTrue(new Match("a\\_b").apply("a_b"));
+    assertFalse(new Match("a\\_b").apply("acb"));
+  }
+
+  private List<User> sorted(QueryOrder order, boolean nullsLast) {
+    List<User> users = new ArrayList<User>(Arrays.asList(u1, u2, u3));
+    InMemoryQueryEvaluator.sort(users,
+        Collections.singletonList(new OrderCriterion(User._Fields.created_at_millis, order)), nullsLast);
+    return users;
+  }
+}
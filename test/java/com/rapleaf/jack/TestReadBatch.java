@@ -0,0 +1,165 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestReadBatch extends TestCase {
+
+  // the statements sent, and the parameters bound to each
+  private final List<String> statements = new ArrayList<String>();
+  private final List<List<Object>> parameters = new ArrayList<List<Object>>();
+
+  /**
+   * A connection answering each query of a statement with a result set of
+   * one row holding the query itself.
+   */
+  private class MultiStatementConnection extends BaseDatabaseConnection {
+    private final boolean multipleStatements;
+
+    private MultiStatementConnection(boolean multipleStatements) {
+      this.multipleStatements = multipleStatements;
+    }
+
+    @Override
+    public boolean supportsMultipleStatements() {
+      return multipleStatements;
+    }
+
+    @Override
+    public Connection getConnection() {
+      return proxy(Connection.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          if (method.getName().equals("prepareStatement")) {
+            return statement((String)args[0]);
+          }
+          return null;
+        }
+      });
+    }
+  }
+
+  private PreparedStatement statement(final String sql) {
+    statements.add(sql);
+    final List<Object> bound = new ArrayList<Object>();
+    parameters.add(bound);
+    final String[] queries = sql.split(";\n");
+    return proxy(PreparedStatement.class, new InvocationHandler() {
+      private int current = 0;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("setLong")) {
+          bound.add(args[1]);
+        } else if (name.equals("execute")) {
+          return true;
+        } else if (name.equals("getResultSet")) {
+          return current < queries.length ? resultSet(queries[current]) : null;
+        } else if (name.equals("getMoreResults")) {
+          return ++current < queries.length;
+        }
+        return null;
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final String value) {
+    return proxy(ResultSet.class, new InvocationHandler() {
+      private boolean read = false;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("next")) {
+          boolean hasRow = !read;
+          read = true;
+          return hasRow;
+        } else if (name.equals("getString")) {
+          return value;
+        }
+        return null;
+      }
+    });
+  }
+
+  private static class Query extends ReadBatch.Read<String> {
+    private final String statement;
+    private final long parameter;
+
+    private Query(String statement, long parameter) {
+      this.statement = statement;
+      this.parameter = parameter;
+    }
+
+    @Override
+    String getStatement() {
+      return statement;
+    }
+
+    @Override
+    int getParameterCount() {
+      return 1;
+    }
+
+    @Override
+    void setParameters(PreparedStatement statement, int index) throws IOException {
+      try {
+        statement.setLong(index + 1, parameter);
+      } catch (SQLException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    String read(ResultSet rs) throws SQLException {
+      return rs.next() ? rs.getString(1) : null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler);
+  }
+
+  public void testReadsShareOneStatement() throws Exception {
+    ReadBatch batch = new ReadBatch(new MultiStatementConnection(true));
+    ReadBatch.Result<String> first = batch.add(new Query("SELECT * FROM posts WHERE id = ?", 1));
+    ReadBatch.Result<String> second = batch.add(new Query("SELECT * FROM comments WHERE commented_on_id = ?", 2));
+    ReadBatch.Result<String> third = batch.add(new Query("SELECT * FROM users WHERE id = ?", 3));
+    batch.execute();
+
+    assertEquals(Arrays.asList("SELECT * FROM posts WHERE id = ?;\n"
+        + "SELECT * FROM comments WHERE commented_on_id = ?;\n"
+        + "SELECT * FROM users WHERE id = ?"), statements);
+    // the parameters of each query follow those of the previous ones
+    assertEquals(Arrays.<Object>asList(1L, 2L, 3L), parameters.get(0));
+    // each query gets its own result set
+    assertEquals("SELECT * FROM posts WHERE id = ?", first.get());
+    assertEquals("SELECT * FROM comments WHERE commented_on_id = ?", second.get());
+    assertEquals("SELECT * FROM users WHERE id = ?", third.get());
+    assertEquals(0, batch.size());
+  }
+
+  public void testReadsAreSentOneByOneOtherwise() throws Exception {
+    ReadBatch batch = new ReadBatch(new MultiStatementConnection(false));
+    ReadBatch.Result<String> first = batch.add(new Query("SELECT * FROM posts WHERE id = ?", 1));
+    ReadBatch.Result<String> second = batch.add(new Query("SELECT * FROM users WHERE id = ?", 3));
+    batch.execute();
+
+    assertEquals(Arrays.asList("SELECT * FROM posts WHERE id = ?", "SELECT * FROM users WHERE id = ?"), statements);
+    assertEquals("SELECT * FROM posts WHERE id = ?", first.get());
+    assertEquals("SELECT * FROM users WHERE id = ?", second.get());
+  }
+}
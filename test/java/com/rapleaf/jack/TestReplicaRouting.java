@@ -0,0 +1,157 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestReplicaRouting extends TestCase {
+
+  /**
+   * A replicated database whose connections prepare statements named after
+   * the host they are connected to. Connecting to a host that is down
+   * fails.
+   */
+  private static class StubDatabaseConnection extends DatabaseConnection {
+    private final Set<String> down = new HashSet<String>();
+    private final Map<String, Integer> connects = new HashMap<String, Integer>();
+
+    private StubDatabaseConnection(long replicaRetryMillis) {
+      super("database1", dbInfo(replicaRetryMillis), false, 60000);
+      setReadYourWritesWindow(0);
+    }
+
+    private static Map<String, String> dbInfo(long replicaRetryMillis) {
+      Map<String, String> dbInfo = new HashMap<String, String>();
+      dbInfo.put("adapter", "mysql_replication");
+      dbInfo.put("database", "jack_1");
+      dbInfo.put("host", "primary");
+      dbInfo.put("replicas", "replica1, replica2");
+      dbInfo.put("replica_retry_millis", String.valueOf(replicaRetryMillis));
+      return dbInfo;
+    }
+
+    @Override
+    Connection openConnection(String connectionString) throws SQLException {
+      final String host = connectionString.substring("jdbc:mysql://".length(), connectionString.lastIndexOf('/'));
+      Integer count = connects.get(host);
+      connects.put(host, count == null ? 1 : count + 1);
+      if (down.contains(host)) {
+        throw new SQLException(host + " is down");
+      }
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class[]{Connection.class}, new InvocationHandler() {
+            private boolean autoCommit = true;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if (name.equals("prepareStatement") || name.equals("createStatement")) {
+                return statement(host);
+              } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+              } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+              } else if (name.equals("isClosed")) {
+                return false;
+              }
+              return null;
+            }
+          });
+    }
+
+    private int getConnects(String host) {
+      Integer count = connects.get(host);
+      return count == null ? 0 : count;
+    }
+  }
+
+  private static PreparedStatement statement(final String host) {
+    return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class[]{PreparedStatement.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return method.getName().equals("toString") ? host : null;
+          }
+        });
+  }
+
+  private static String read(DatabaseConnection conn) {
+    return conn.getReadPreparedStatement("SELECT 1").toString();
+  }
+
+  public void testReadsGoToReplicasInTurn() {
+    StubDatabaseConnection conn = new StubDatabaseConnection(1000);
+
+    assertEquals("replica1", read(conn));
+    assertEquals("replica2", read(conn));
+    assertEquals("replica1", read(conn));
+    assertEquals("primary", conn.getPreparedStatement("UPDATE users SET num_posts = 1").toString());
+  }
+
+  public void testReadsStayOnPrimaryAfterWrite() throws Exception {
+    StubDatabaseConnection conn = new StubDatabaseConnection(1000);
+    conn.setReadYourWritesWindow(50);
+
+    conn.getPreparedStatement("UPDATE users SET num_posts = 1");
+    assertEquals("primary", read(conn));
+    Thread.sleep(100);
+    assertEquals("replica1", read(conn));
+  }
+
+  public void testTransactionsAndUnitsOfWorkReadFromPrimary() {
+    StubDatabaseConnection conn = new StubDatabaseConnection(1000);
+
+    conn.setAutoCommit(false);
+    assertEquals("primary", read(conn));
+    conn.setAutoCommit(true);
+    assertEquals("replica1", read(conn));
+
+    conn.setUnitOfWork(new UnitOfWork(conn));
+    assertEquals("primary", read(conn));
+    conn.setUnitOfWork(null);
+    assertEquals("replica2", read(conn));
+  }
+
+  public void testReplicaThatIsDownIsSkippedForAWhile() throws Exception {
+    StubDatabaseConnection conn = new StubDatabaseConnection(200);
+    conn.down.add("replica1");
+
+    assertEquals("replica2", read(conn));
+    assertEquals("replica2", read(conn));
+    assertEquals("replica2", read(conn));
+    assertEquals(1, conn.getConnects("replica1"));
+
+    Thread.sleep(300);
+    assertEquals("replica2", read(conn));
+    assertEquals(2, conn.getConnects("replica1"));
+
+    // the replica is skipped twice as long after a second failure
+    conn.down.remove("replica1");
+    Thread.sleep(300);
+    read(conn);
+    read(conn);
+    assertEquals(2, conn.getConnects("replica1"));
+    Thread.sleep(200);
+    assertEquals("replica1", read(conn));
+  }
+
+  public void testReadsFallBackToPrimaryWhenReplicasAreDown() {
+    StubDatabaseConnection conn = new StubDatabaseConnection(1000);
+    conn.down.add("replica1");
+    conn.down.add("replica2");
+
+    assertEquals("primary", read(conn));
+    assertEquals("primary", read(conn));
+    assertEquals(1, conn.getConnects("replica1"));
+    assertEquals(1, conn.getConnects("replica2"));
+  }
+}
@@ -0,0 +1,117 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class TestShardedDatabaseConnection extends TestCase {
+
+  /**
+   * A shard that records the statements prepared on it.
+   */
+  private static class Shard extends BaseDatabaseConnection {
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public Connection getConnection() {
+      return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class},
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              if (method.getName().equals("prepareStatement")) {
+                statements.add((String)args[0]);
+              }
+              return null;
+            }
+          });
+    }
+  }
+
+  private final Shard first = new Shard();
+  private final Shard second = new Shard();
+  private final ShardedDatabaseConnection sharded = new ShardedDatabaseConnection(Arrays.asList(first, second), new ModuloShardRouter());
+
+  public void testModuloRouting() {
+    assertEquals(0, sharded.getShard("users", 4));
+    assertEquals(1, sharded.getShard("users", 7));
+    assertEquals(1, sharded.getShard("users", -3));
+    assertEquals(-1, sharded.getShardOfForeignKey("posts", "user_id", 7));
+  }
+
+  public void testStatementsGoToTheCurrentShard() throws IOException {
+    assertFalse(sharded.isOnShard());
+    sharded.onShard(1, new ShardedDatabaseConnection.ShardOperation<Void>() {
+      @Override
+      public Void run() throws IOException {
+        assertTrue(sharded.isOnShard());
+        sharded.getPreparedStatement("SELECT 1");
+        sharded.getReadPreparedStatement("SELECT 2");
+        return null;
+      }
+    });
+    assertFalse(sharded.isOnShard());
+    sharded.getPreparedStatement("SELECT 3");
+
+    assertEquals(Arrays.asList("SELECT 3"), first.statements);
+    assertEquals(Arrays.asList("SELECT 1", "SELECT 2"), second.statements);
+  }
+
+  public void testOperationsRunOnTheirShards() throws IOException {
+    Map<Integer, ShardedDatabaseConnection.ShardOperation<String>> operations = new HashMap<Integer, ShardedDatabaseConnection.ShardOperation<String>>();
+    operations.put(0, query("SELECT 0"));
+    operations.put(1, query("SELECT 1"));
+    Map<Integer, String> results = sharded.onShards(operations);
+
+    assertEquals("SELECT 0", results.get(0));
+    assertEquals("SELECT 1", results.get(1));
+    assertEquals(Arrays.asList("SELECT 0"), first.statements);
+    assertEquals(Arrays.asList("SELECT 1"), second.statements);
+
+    assertEquals(Arrays.asList("SELECT *", "SELECT *"), sharded.onAllShards(query("SELECT *")));
+    assertEquals(2, first.statements.size());
+    assertEquals(2, second.statements.size());
+  }
+
+  public void testFailureIsRethrown() {
+    try {
+      sharded.onAllShards(new ShardedDatabaseConnection.ShardOperation<Void>() {
+        @Override
+        public Void run() throws IOException {
+          throw new IOException("failed");
+        }
+      });
+      fail("The failure should be thrown");
+    } catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+  }
+
+  public void testTransactionsAreNotSupported() {
+    try {
+      sharded.setAutoCommit(false);
+      fail("Transactions should not be supported");
+    } catch (UnsupportedOperationException e) {
+    }
+    assertTrue(sharded.getAutoCommit());
+  }
+
+  private ShardedDatabaseConnection.ShardOperation<String> query(final String sql) {
+    return new ShardedDatabaseConnection.ShardOperation<String>() {
+      @Override
+      public String run() throws IOException {
+        sharded.getPreparedStatement(sql);
+        return sql;
+      }
+    };
+  }
+}
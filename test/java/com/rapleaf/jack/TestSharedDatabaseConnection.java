@@ -0,0 +1,83 @@
+package com.rapleaf.jack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestSharedDatabaseConnection extends TestCase {
+
+  /**
+   * A server whose single connection records the catalogs it switches to,
+   * and the catalog each statement is prepared in.
+   */
+  private static class Server extends BaseDatabaseConnection {
+    private final List<String> switches = new ArrayList<String>();
+    private final List<String> statements = new ArrayList<String>();
+    private String catalog = null;
+    private final Connection connection = (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class[]{Connection.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getCatalog")) {
+              return catalog;
+            } else if (name.equals("setCatalog")) {
+              catalog = (String)args[0];
+              switches.add(catalog);
+            } else if (name.equals("prepareStatement")) {
+              statements.add(catalog + ": " + args[0]);
+            } else if (name.equals("getAutoCommit")) {
+              return true;
+            }
+            return null;
+          }
+        });
+    private Server groupServer = null;
+
+    @Override
+    public Connection getConnection() {
+      return connection;
+    }
+
+    @Override
+    protected BaseDatabaseConnection newDedicatedConnection() {
+      groupServer = new Server();
+      return groupServer;
+    }
+  }
+
+  public void testCatalogIsSwitchedBeforeStatements() {
+    Server server = new Server();
+    SharedDatabaseConnection database1 = new SharedDatabaseConnection(server, "database1");
+    SharedDatabaseConnection database2 = new SharedDatabaseConnection(server, "database2");
+
+    database1.getPreparedStatement("SELECT 1");
+    database1.getPreparedStatement("SELECT 2");
+    database2.getPreparedStatement("SELECT 3");
+    database1.getReadPreparedStatement("SELECT 4");
+
+    assertEquals(Arrays.asList("database1: SELECT 1", "database1: SELECT 2", "database2: SELECT 3", "database1: SELECT 4"),
+        server.statements);
+    // the catalog is only switched when it changes
+    assertEquals(Arrays.asList("database1", "database2", "database1"), server.switches);
+  }
+
+  public void testGroupCommitHasConnectionOfItsOwn() {
+    Server server = new Server();
+    SharedDatabaseConnection database1 = new SharedDatabaseConnection(server, "database1");
+    database1.enableGroupCommit(10, 10);
+    try {
+      database1.getGroupCommitExecutor().getConnection().getPreparedStatement("UPDATE 1");
+      assertEquals(Arrays.asList("database1: UPDATE 1"), server.groupServer.statements);
+      assertTrue(server.statements.isEmpty());
+    } finally {
+      database1.disableGroupCommit();
+    }
+  }
+}
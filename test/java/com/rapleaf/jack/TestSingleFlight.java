@@ -0,0 +1,85 @@
+package com.rapleaf.jack;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestSingleFlight extends TestCase {
+
+  public void testConcurrentCallsShareOneLoad() throws Exception {
+    final SingleFlight<Long, String> singleFlight = new SingleFlight<Long, String>();
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final SingleFlight.Loader<String> loader = new SingleFlight.Loader<String>() {
+      @Override
+      public String load() throws IOException {
+        loads.incrementAndGet();
+        loading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return "value";
+      }
+    };
+
+    final String[] results = new String[4];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = singleFlight.get(1L, loader);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
+    threads[0].start();
+    loading.await();
+    assertTrue(singleFlight.isInFlight(1L));
+    for (int i = 1; i < threads.length; i++) {
+      threads[i].start();
+    }
+    Thread.sleep(50);
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, loads.get());
+    for (String result : results) {
+      assertEquals("value", result);
+    }
+    assertFalse(singleFlight.isInFlight(1L));
+  }
+
+  public void testFailureIsNotCached() throws Exception {
+    SingleFlight<Long, String> singleFlight = new SingleFlight<Long, String>();
+    try {
+      singleFlight.get(1L, new SingleFlight.Loader<String>() {
+        @Override
+        public String load() throws IOException {
+          throw new IOException("failed");
+        }
+      });
+      fail("should have thrown");
+    } catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+
+    assertEquals("value", singleFlight.get(1L, new SingleFlight.Loader<String>() {
+      @Override
+      public String load() {
+        return "value";
+      }
+    }));
+  }
+}
@@ -0,0 +1,99 @@
+package com.rapleaf.jack.invalidation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TestMulticastInvalidationTransport extends TestCase {
+  private static final String GROUP = "239.255.42.99";
+  private static final int PORT = 44299;
+
+  public void testDeliversToOtherTransports() throws Exception {
+    MulticastInvalidationTransport sender = new MulticastInvalidationTransport(GROUP, PORT, 0);
+    MulticastInvalidationTransport receiver = new MulticastInvalidationTransport(GROUP, PORT, 0);
+    try {
+      final BlockingQueue<InvalidationEvent> received = new LinkedBlockingQueue<InvalidationEvent>();
+      receiver.setListener(new IInvalidationListener() {
+        @Override
+        public void onInvalidation(InvalidationEvent event) {
+          received.add(event);
+        }
+      });
+
+      sender.publish(new InvalidationEvent("source", "users", 5L, Collections.singletonMap("user_id", 3L)));
+
+      InvalidationEvent event = received.poll(5, TimeUnit.SECONDS);
+      assertNotNull("event should be received", event);
+      assertEquals("users", event.getTableName());
+      assertEquals(Long.valueOf(5), event.getId());
+      assertEquals(Long.valueOf(3), event.getFieldValues().get("user_id"));
+    } finally {
+      sender.close();
+      receiver.close();
+    }
+  }
+
+  public void testFailingListenerKeepsReceiving() throws Exception {
+    MulticastInvalidationTransport sender = new MulticastInvalidationTransport(GROUP, PORT, 0);
+    MulticastInvalidationTransport receiver = new MulticastInvalidationTransport(GROUP, PORT, 0);
+    try {
+      final BlockingQueue<InvalidationEvent> received = new LinkedBlockingQueue<InvalidationEvent>();
+      receiver.setListener(new IInvalidationListener() {
+        @Override
+        public void onInvalidation(InvalidationEvent event) {
+          received.add(event);
+          throw new IllegalStateException("listener failure");
+        }
+      });
+
+      sender.publish(InvalidationEvent.forTable("source", "users"));
+      assertNotNull("first event should be received", received.poll(5, TimeUnit.SECONDS));
+      sender.publish(InvalidationEvent.forTable("source", "posts"));
+      InvalidationEvent event = received.poll(5, TimeUnit.SECONDS);
+      assertNotNull("later events should still be received", event);
+      assertEquals("posts", event.getTableName());
+    } finally {
+      sender.close();
+      receiver.close();
+    }
+  }
+
+  public void testWireFormatRoundTrip() throws IOException {
+    byte[] data = MulticastInvalidationTransport.toBytes(InvalidationEvent.forTable("source", "posts"));
+    InvalidationEvent event = MulticastInvalidationTransport.fromBytes(data, data.length);
+    assertEquals("source", event.getSourceId());
+    assertEquals("posts", event.getTableName());
+    assertTrue(event.isWholeTable());
+    assertTrue(event.getFieldValues().isEmpty());
+  }
+
+  public void testRejectsOtherPackets() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject("a serialized object");
+    out.close();
+    assertRejected(bytes.toByteArray());
+
+    byte[] data = MulticastInvalidationTransport.toBytes(new InvalidationEvent("source", "users", 5L, null));
+    // cut short
+    try {
+      MulticastInvalidationTransport.fromBytes(data, data.length - 1);
+      fail("A truncated event should be rejected");
+    } catch (IOException e) {
+    }
+  }
+
+  private static void assertRejected(byte[] data) {
+    try {
+      MulticastInvalidationTransport.fromBytes(data, data.length);
+      fail("The packet should be rejected");
+    } catch (IOException e) {
+    }
+  }
+}